@@ -40,6 +40,17 @@
         this.dataChunksFn = null;
         this.mapFn = null;
         this.reduceFn = [];
+        this.reduceAdditive = [];
+        this.outputReduceIdx = 0;
+        this.combineFn = null;
+        this.combineBufferSize = 0;
+        this.combineLimit = 0;
+        this.combining = false;
+        this.isMapWorker = false;
+        this.fold = null;
+        this.incrementalDir = null;
+        this.outputCache = null;
+        this.recorder = null;
     }
 
     /**
@@ -77,14 +88,243 @@
      * @param arg0 number of workers or reduce function
      * @param arg1 reduce function or undefined (in case reduce
      * is passed as arg0)
+     * @param additive if true then the function processes only a sum
+     * of numeric values (which means emitted numbers can be summed
+     * immediately)
      */
-    Worker.prototype.reduce = function (arg0, arg1) {
+    Worker.prototype.reduce = function (arg0, arg1, additive) {
         if (arg1 === undefined) {
             this.reduceFn.push(arg0);
 
         } else {
             this.reduceFn.push(arg1);
         }
+        this.reduceAdditive.push(additive === true);
+    };
+
+    /**
+     * Registers a fold-style 'reduce'. Values emitted by 'map' are not
+     * stored, they are folded into a single accumulator per key instead.
+     * Accumulators of the same key produced by different workers are then
+     * merged in the reduce phase.
+     *
+     * @param numWorkers number of workers
+     * @param initialValue an initial value of each accumulator or
+     * a function returning one
+     * @param fn function (accumulator, value) returning an updated accumulator
+     * @param mergeFn function (accumulator1, accumulator2) returning a merged
+     * accumulator (fn is used if omitted)
+     */
+    Worker.prototype.reduceFold = function (numWorkers, initialValue, fn, mergeFn) {
+        var fold;
+
+        if (this.reduceFn.length > 0) {
+            throw new Error('reduceFold() must be registered before any other reduce()');
+        }
+        fold = {
+            initialValue : initialValue,
+            fn : fn,
+            mergeFn : typeof mergeFn === 'function' ? mergeFn : fn
+        };
+        this.fold = fold;
+        this.reduce(numWorkers, function (key, values) {
+            var acc = values.get(0),
+                i;
+
+            for (i = 1; i < values.size(); i += 1) {
+                acc = fold.mergeFn(acc, values.get(i));
+            }
+            scope.emit(key, acc);
+        });
+    };
+
+    /**
+     * Tests whether emitted values are folded into accumulators
+     * instead of being stored
+     *
+     * @return {boolean}
+     */
+    Worker.prototype.isFolding = function () {
+        return this.isMapWorker && this.fold !== null;
+    };
+
+    /**
+     * Creates a new accumulator of a fold-style reduce. Objects are
+     * copied via JSON (use a function returning an initial value
+     * for more complex accumulators).
+     */
+    Worker.prototype.createAccumulator = function () {
+        var initialValue = this.fold.initialValue;
+
+        if (typeof initialValue === 'function') {
+            return initialValue();
+
+        } else if (initialValue !== null && typeof initialValue === 'object') {
+            return JSON.parse(JSON.stringify(initialValue));
+        }
+        return initialValue;
+    };
+
+    /**
+     * Folds an emitted value into the key's accumulator
+     *
+     * @param results worker's local results
+     * @param key emitted key
+     * @param value emitted value
+     */
+    Worker.prototype.foldValue = function (results, key, value) {
+        var acc = results.getLast(key),
+            ans;
+
+        if (acc === null) {
+            acc = this.createAccumulator();
+        }
+        ans = this.fold.fn(acc, value);
+        results.set(key, ans === undefined ? acc : ans);
+    };
+
+    /**
+     * Tests whether the reduce function processing values emitted
+     * in the current phase is additive
+     *
+     * @return {boolean}
+     */
+    Worker.prototype.isOutputAdditive = function () {
+        return this.reduceAdditive[this.outputReduceIdx] === true;
+    };
+
+    /**
+     * Registers a 'combine' function and optionally a size of
+     * a worker's local buffer (number of emitted values) which
+     * triggers the combine operation once it is filled.
+     *
+     * @param bufferSize a buffer size (0 = combine once the map
+     * is finished)
+     * @param fn combine function
+     */
+    Worker.prototype.combine = function (bufferSize, fn) {
+        this.combineFn = fn;
+        this.combineBufferSize = bufferSize;
+        this.combineLimit = bufferSize;
+    };
+
+    /**
+     * Tests whether the worker's local results should be combined
+     * (i.e. whether the local buffer is full)
+     *
+     * @param results worker's local results
+     * @return {boolean}
+     */
+    Worker.prototype.shouldCombine = function (results) {
+        return this.isMapWorker && this.combineFn !== null && !this.combining
+            && this.combineLimit > 0 && results.getNumBuffered() >= this.combineLimit;
+    };
+
+    /**
+     * Applies the combine function on all the keys of the local results.
+     * Values of each key are removed from the results and passed to the
+     * function which is expected to emit a (smaller) replacement.
+     *
+     * @param results worker's local results
+     */
+    Worker.prototype.runCombine = function (results) {
+        var keys,
+            i;
+
+        if (this.combineFn === null || this.combining) {
+            return;
+        }
+        this.combining = true;
+        try {
+            keys = results.keys().toArray();
+            results.resetNumBuffered();
+            for (i = 0; i < keys.length; i += 1) {
+                this.combineFn(keys[i], results.remove(keys[i]));
+            }
+
+        } finally {
+            this.combining = false;
+        }
+        // in case there are too many distinct keys, we do not want
+        // to run the combine again after each single emit
+        this.combineLimit = Math.max(this.combineBufferSize, 2 * results.getNumBuffered());
+    };
+
+    /**
+     * Enables caching of values emitted by 'map' for each input file
+     *
+     * @param directory where cached outputs are stored
+     */
+    Worker.prototype.incremental = function (directory) {
+        this.incrementalDir = directory;
+    };
+
+    /**
+     * Returns the registered 'map' function. In the incremental mode
+     * the function is wrapped so that items representing files with
+     * a valid cached output are not mapped again - their cached values
+     * are emitted instead. Other files are mapped and their emitted
+     * values are recorded.
+     *
+     * @return {function}
+     */
+    Worker.prototype.getMapFn = function () {
+        var self = this;
+
+        if (this.incrementalDir === null) {
+            return this.mapFn;
+        }
+        if (this.outputCache === null) {
+            this.outputCache = scope._lib.mapOutputCache(this.incrementalDir,
+                scope._env.calculationHash, scope._valueFactory);
+        }
+        return function (item) {
+            if (typeof item !== 'string') {
+                return self.mapFn(item);
+            }
+            if (self.outputCache.contains(item)) {
+                self.outputCache.replay(item, function (key, value, isNumber) {
+                    if (isNumber) {
+                        scope.emitNumber(key, value);
+
+                    } else {
+                        scope.emit(key, value);
+                    }
+                });
+                return;
+            }
+            self.recorder = self.outputCache.record(item);
+            if (self.recorder === null) { // not a file
+                return self.mapFn(item);
+            }
+            try {
+                self.mapFn(item);
+                self.recorder.commit();
+
+            } finally {
+                self.recorder.close();
+                self.recorder = null;
+            }
+        };
+    };
+
+    /**
+     * Records an emitted value in case the incremental mode is on
+     * (values emitted by 'combine' are not recorded)
+     *
+     * @param key
+     * @param value
+     * @param isNumber
+     */
+    Worker.prototype.recordEmit = function (key, value, isNumber) {
+        if (this.recorder !== null && !this.combining) {
+            if (isNumber) {
+                this.recorder.emitNumber(key, value);
+
+            } else {
+                this.recorder.emit(key, value);
+            }
+        }
     };
 
     /**
@@ -127,6 +367,32 @@
      */
     Main.prototype.map = function () {};
 
+    /**
+     * Does nothing here
+     */
+    Main.prototype.combine = function () {};
+
+    /**
+     * Nothing is emitted in single-thread phases
+     */
+    Main.prototype.isOutputAdditive = function () {
+        return false;
+    };
+
+    /**
+     * Nothing is emitted in single-thread phases
+     */
+    Main.prototype.isFolding = function () {
+        return false;
+    };
+
+    /**
+     * Combine is never performed in single-thread phases
+     */
+    Main.prototype.shouldCombine = function () {
+        return false;
+    };
+
     /**
      *
      * @param numWorkers
@@ -142,6 +408,25 @@
         this.numReduceFunctions += 1;
     };
 
+    /**
+     * Registers a fold-style reduce (see Worker.reduceFold)
+     *
+     * @param numWorkers
+     */
+    Main.prototype.reduceFold = function (numWorkers) {
+        this.reduce(numWorkers);
+    };
+
+    /**
+     * Incremental mode is used only by map workers
+     */
+    Main.prototype.incremental = function () {};
+
+    /**
+     * Nothing is emitted in single-thread phases
+     */
+    Main.prototype.recordEmit = function () {};
+
     /**
      * Registers the 'finish' function
      *
@@ -193,6 +478,7 @@
      */
     scope.initMap = function () {
         scope._mr = new Worker();
+        scope._mr.isMapWorker = true;
         // we set the default chunk resolver first
         // in case user does not define the applyItems() function
         scope._mr.applyItems(function (dataChunk, map) {
@@ -203,11 +489,65 @@
     };
 
     /**
-     * Runs the 'map' phase
+     * Thrown to stop processing of a chunk finished by another attempt
+     */
+    var ATTEMPT_CANCELLED = {};
+
+    /**
+     * Runs the 'map' phase on a single data chunk
+     *
+     * @param chunkIdx index of the chunk (= workerId)
+     * @param [attempt] a Java object tracking progress of the chunk (in case
+     * of speculative execution)
+     * @param [metrics] a Java object where number of read items and bytes
+     * (approximated by lengths of string items) is recorded
+     * @return {boolean} false if the processing has been cancelled
      */
-    scope.runMap = function () {
-        var dataChunk = scope._mr.dataChunksFn(scope._env.workerId);
-        scope._mr.applyItemsFn(dataChunk, scope._mr.mapFn);
+    scope.runMap = function (chunkIdx, attempt, metrics) {
+        var dataChunk,
+            mapFn = scope._mr.getMapFn(),
+            trackedMapFn,
+            numItems = 0,
+            numBytes = 0;
+
+        scope.env.workerId = chunkIdx;
+        dataChunk = scope._mr.dataChunksFn(chunkIdx);
+        trackedMapFn = function (item) {
+            if (attempt && !attempt.itemProcessed()) {
+                throw ATTEMPT_CANCELLED;
+            }
+            numItems += 1;
+            if (typeof item === 'string') {
+                numBytes += item.length + 1; // + line separator
+            }
+            return mapFn(item);
+        };
+        try {
+            scope._mr.applyItemsFn(dataChunk, trackedMapFn);
+
+        } catch (e) {
+            if (e === ATTEMPT_CANCELLED) {
+                return false;
+            }
+            throw e;
+
+        } finally {
+            if (metrics) {
+                metrics.addItemsRead(numItems, numBytes);
+            }
+            if (dataChunk && typeof dataChunk.close === 'function') {
+                dataChunk.close(); // e.g. a cancelled attempt leaves its reader open
+            }
+        }
+        return true;
+    };
+
+    /**
+     * Runs the 'combine' function (if defined) on the worker's
+     * local results
+     */
+    scope.runCombine = function () {
+        scope._mr.runCombine(scope._result);
     };
 
     /**
@@ -218,14 +558,21 @@
     };
 
     /**
-     * Runs the 'reduce' phase
+     * Runs the 'reduce' phase for a batch of keys
      *
-     * @param key emitted key
-     * @param data list of items belonging to the key
+     * @param keys emitted keys (a Java array)
+     * @param values lists of items belonging to respective keys (a Java array)
+     * @param size number of valid items in the arrays
      * @param funcIdx An index of a reduce function
      */
-    scope.runReduce = function (key, data, funcIdx) {
-        scope._mr.reduceFn[funcIdx](key, data);
+    scope.runReduceBatch = function (keys, values, size, funcIdx) {
+        var reduceFn = scope._mr.reduceFn[funcIdx],
+            i;
+
+        scope._mr.outputReduceIdx = funcIdx + 1;
+        for (i = 0; i < size; i += 1) {
+            reduceFn(keys[i], values[i]);
+        }
     };
 
     /**
@@ -281,6 +628,34 @@
         return Java.from(this._javaResults.keys(false));
     };
 
+    /**
+     * Returns (at most) n keys with the highest values (the highest first).
+     * Without valueFn, the first value of each key is used (keys with
+     * a non-numeric first value are ignored). Otherwise valueFn(key, values)
+     * is expected to return a number (NaN excludes the key).
+     *
+     * @param {number} n
+     * @param {function(string, Array):number} [valueFn]
+     * @return {Array<string>}
+     */
+    FinalResults.prototype.top = function (n, valueFn) {
+        var ValueListView = Java.type('net.orzo.scripting.ValueListView'),
+            keys,
+            scores,
+            i;
+
+        if (typeof valueFn !== 'function') {
+            return Java.from(this._javaResults.top(n));
+        }
+        keys = this._javaResults.keys(false);
+        scores = new (Java.type('double[]'))(keys.size());
+        for (i = 0; i < scores.length; i += 1) {
+            scores[i] = valueFn(keys.get(i),
+                new ValueListView(this._javaResults.get(keys.get(i)), Array.prototype));
+        }
+        return Java.from(this._javaResults.top(n, keys, scores));
+    };
+
     /**
      * Initializes JS environment for the 'finish' phase
      */
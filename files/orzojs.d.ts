@@ -92,6 +92,17 @@ interface SortedResults extends IResults {
  */
 interface Results extends IResults {
     sorted:SortedResults;
+
+    /**
+     * Returns (at most) n keys with the highest values (the highest first)
+     * without sorting all the keys.
+     *
+     * @param n
+     * @param valueFn Returns a value used to rank a key (NaN excludes the key).
+     * If omitted then the first value of each key is used (keys with a non-numeric
+     * first value are ignored).
+     */
+    top<T>(n:number, valueFn?:(key:string, values:Array<T>)=>number):Array<string>;
 }
 
 /**
@@ -576,6 +587,18 @@ declare module orzo {
     function directoryReader<T>(pathInfo:string|Array<string>, chunkId:number,
           filter?:RegExp|string):Iterator<T>;
 
+    /**
+     * Reads lines of all the files in a directory (searched just like in
+     * directoryReader) split into chunks of the same size in bytes. Large
+     * files are split at line boundaries, small files are packed together.
+     *
+     * @param pathInfo A directory path or a list of directory paths to be searched
+     * @param chunkId
+     * @param filter An optional regular expression specifying names to be accepted
+     */
+    function directoryLineReader(pathInfo:string|Array<string>, chunkId:number,
+          filter?:RegExp|string):Iterator<{path:string; line:string}>;
+
     /**
      *
      * Reads all the files in a directory (just like directoryReader) and generates all the
@@ -610,8 +633,30 @@ declare module orzo {
     function fileReader(path:string, encoding?:string):FileIterator;
 
 
+    /**
+     * Makes an iterator read its items in advance by a dedicated thread
+     * so I/O overlaps with processing. The iterator must be backed by Java
+     * (e.g. a file reader) and it must not be used directly anymore.
+     *
+     * @param iterator An iterator to be wrapped
+     * @param batchSize Number of items read at once (default is 1024)
+     * @param numBatches Max. number of batches read in advance (default is 4)
+     */
+    function readAhead<T>(iterator:Iterator<T>, batchSize?:number, numBatches?:number):Iterator<T>;
+
+    /**
+     * Creates an iterator which reads provided file line by line
+     * with the file mapped into memory (suitable for large local files).
+     *
+     * @param path A path to a file
+     * @param encoding (default is UTF-8)
+     */
+    function mmapFileReader(path:string, encoding?:string):FileIterator;
+
     /**
      * Creates an iterator which reads provided gzipped file line by line.
+     * Decompression runs synchronously in the calling worker; to overlap it
+     * with processing, wrap the iterator by readAhead().
      *
      * @param path A path to a gzipped file
      * @param encoding (default is UTF-8)
@@ -639,6 +684,24 @@ declare module orzo {
     function fileChunkReader<T>(path:string, chunkId:number, chunkSize?:number,
           startLine?:number):Iterator<T>;
 
+    /**
+     * Creates a file chunk reader with explicit options. With splitBy 'bytes',
+     * the file is split into numChunks contiguous byte ranges of the same size
+     * (aligned to lines) so each reader reads only its own part of the file.
+     * With mmap set, the range is read from the file mapped into memory
+     * (implies splitBy 'bytes'). With gzip set, the file is a gzip file consisting
+     * of multiple members (concatenated gzip, BGZF) and each reader decompresses
+     * members starting within its byte range. A single-member file is read
+     * by the first reader only (using readAhead()), the other readers obtain nothing.
+     *
+     * @param path A path to a file we want to read
+     * @param chunkId An index of the required chunk (starts from zero)
+     * @param options splitBy: 'lines' (default) or 'bytes'; chunkSize: lines per
+     * chunk (the 'lines' mode only)
+     */
+    function fileChunkReader<T>(path:string, chunkId:number,
+          options:{splitBy?:string; chunkSize?:number; mmap?:boolean; gzip?:boolean}):Iterator<T>;
+
     /**
      * Saves a string to a file in a synchronous way
      *
@@ -958,10 +1021,70 @@ declare function dataChunks<T>(numWorkers:number, applyFn:(idx:number)=>T):void;
 /**
  * Registers a REDUCE operation
  *
- * @param numWorkers Recommended number of workers (actual number can be smaller)
+ * @param numWorkers Recommended number of workers (the actual number is capped
+ * by the number of threads of the worker pool, see numWorkers in the configuration)
+ * @param fn
+ */
+declare function reduce(numWorkers:number, fn:(key:string, values:Array<any>)=>void,
+                        options?:ReduceOptions):void;
+declare function reduce(fn:(key:string, values:Array<any>)=>void, options?:ReduceOptions):void;
+
+/**
+ * Registers a fold-style REDUCE operation. Emitted values are folded into
+ * a single accumulator per key as they arrive (already in MAP workers) so
+ * the values are never stored. Accumulators of a key coming from different
+ * workers are merged by mergeFn (or by fn if mergeFn is omitted) and the
+ * result is emitted as the only value of the key.
+ *
+ * @param numWorkers Recommended number of workers (the actual number is capped
+ * by the number of threads of the worker pool, see numWorkers in the configuration)
+ * @param initialValue An initial value of an accumulator (objects are copied via JSON)
+ * or a function creating one
+ * @param fn Updates an accumulator by a value (if nothing is returned then
+ * the accumulator is considered updated in place)
+ * @param mergeFn Merges two accumulators
+ */
+declare function reduceFold<A, T>(numWorkers:number, initialValue:A|(()=>A), fn:(acc:A, value:T)=>A,
+                                  mergeFn?:(acc1:A, acc2:A)=>A):void;
+declare function reduceFold<A, T>(initialValue:A|(()=>A), fn:(acc:A, value:T)=>A,
+                                  mergeFn?:(acc1:A, acc2:A)=>A):void;
+
+/**
+ * Options of a REDUCE operation
+ */
+interface ReduceOptions {
+
+    /**
+     * If true then the function processes only a sum of emitted values which
+     * means numbers emitted via emitNumber() and emitCount() can be stored as
+     * running sums
+     */
+    additive?:boolean;
+}
+
+/**
+ * Registers a COMBINE operation applied to the local results of each MAP worker
+ * before they are passed to REDUCE. It has the same signature as REDUCE and it
+ * is expected to emit partial results REDUCE is able to process.
+ *
+ * @param bufferSize Number of locally emitted values triggering the operation
+ * (if omitted then COMBINE runs once the worker's MAP is finished)
  * @param fn
  */
-declare function reduce(numWorkers:number, fn:(key:string, values:Array<any>)=>void):void;
+declare function combine(bufferSize:number, fn:(key:string, values:Array<any>)=>void):void;
+declare function combine(fn:(key:string, values:Array<any>)=>void):void;
+
+/**
+ * Turns on the incremental mode. Values emitted by MAP for an item which is
+ * a path of an existing file (e.g. items of directoryReader()) are cached.
+ * In next runs, files with unchanged size and modification time are not
+ * mapped again - their cached values are emitted instead. A change of the
+ * script (including the bundled library scripts) or of its arguments
+ * invalidates all the cached values.
+ *
+ * @param directory where cached values are stored
+ */
+declare function incremental(directory:string):void;
 
 /**
  * Emits a value in MAP & REDUCE operations
@@ -971,6 +1094,25 @@ declare function reduce(numWorkers:number, fn:(key:string, values:Array<any>)=>v
  */
 declare function emit<T>(key:string, value:T):void;
 
+/**
+ * Emits a number in MAP & REDUCE operations. The number is stored
+ * in a primitive array (i.e. it takes much less memory than a value
+ * emitted via emit()). In case the respective REDUCE is additive,
+ * only a running sum is stored.
+ *
+ * @param key
+ * @param value
+ */
+declare function emitNumber(key:string, value:number):void;
+
+/**
+ * Emits an occurrence count of a key (same as emitNumber(key, num))
+ *
+ * @param key
+ * @param num a count (1 if omitted)
+ */
+declare function emitCount(key:string, num?:number):void;
+
 /**
  *
  * @param resultsFn
@@ -17,6 +17,51 @@
 (function (scope) {
     'use strict';
 
+    var ValueListView = Java.type('net.orzo.scripting.ValueListView'),
+        viewsCreated = false; // emitted values must be checked for views only if there are any
+
+    /**
+     * Wraps a Java list of emitted values by an array-like view.
+     * Values are not copied, they are read from the list on access
+     * (see ValueListView for details).
+     *
+     * @param values
+     * @returns {Array}
+     */
+    function valuesToArray(values) {
+        viewsCreated = true;
+        return new ValueListView(values, Array.prototype);
+    }
+
+    /**
+     * Replaces views of values (which are valid only during the respective
+     * reduce pass and cannot be stored) by native arrays. Views nested
+     * in arrays and plain objects are replaced in place.
+     *
+     * @param value
+     * @returns {*}
+     */
+    function detachViews(value) {
+        var keys,
+            i;
+
+        if (value instanceof ValueListView) {
+            return value.slice();
+
+        } else if (Array.isArray(value)) {
+            for (i = 0; i < value.length; i += 1) {
+                value[i] = detachViews(value[i]);
+            }
+
+        } else if (Object.prototype.toString.call(value) === '[object Object]') {
+            keys = Object.keys(value);
+            for (i = 0; i < keys.length; i += 1) {
+                value[keys[i]] = detachViews(value[keys[i]]);
+            }
+        }
+        return value;
+    }
+
     /**
      * A helper function to allow two ways of passing array-like values to functions:
      * 1) a single argument of type Array
@@ -153,27 +198,105 @@
     /**
      * Registers a "reduce" function
      *
-     * @param arg0 number of workers or a function to be run as 'reduce'
+     * @param arg0 number of workers (capped by the number of threads of the worker
+     * pool) or a function to be run as 'reduce'
      * @param arg1 if arg0 is a number then this is expected to be a reduce function
+     * otherwise it can contain options
+     * @param arg2 options in case arg0 is a number; supported options:
+     * additive (if true then the function works only with a sum of the values
+     * which allows storing numbers emitted via emitNumber() and emitCount()
+     * as running sums)
      */
-    scope.reduce = function (arg0, arg1) {
+    scope.reduce = function (arg0, arg1, arg2) {
         var ans;
 
         function resultProcWrapper(actualProc) {
             return function (key, values) {
-                return actualProc.call(scope, key, Java.from(values));
+                return actualProc.call(scope, key, valuesToArray(values));
             };
         }
 
-        if (typeof arg0 === 'function' && arg1 === undefined) {
-            ans = scope._mr.reduce(0, resultProcWrapper(arg0)); // 0 forces orzo to use 'numChunks'
+        function isAdditive(options) {
+            return options !== undefined && options !== null && options.additive === true;
+        }
+
+        if (typeof arg0 === 'function') {
+            // 0 forces orzo to use 'numChunks'
+            ans = scope._mr.reduce(0, resultProcWrapper(arg0), isAdditive(arg1));
 
         } else if (typeof arg0 === 'number' && typeof arg1 === 'function') {
-            ans = scope._mr.reduce(arg0, resultProcWrapper(arg1));
+            ans = scope._mr.reduce(arg0, resultProcWrapper(arg1), isAdditive(arg2));
         }
         return ans;
     };
 
+    /**
+     * Registers a fold-style "reduce". Instead of collecting all the values
+     * of a key, each emitted value is immediately folded into the key's
+     * accumulator (already during the map phase) which means memory is
+     * needed only for one accumulator per key. Accumulators of the same key
+     * coming from different workers are merged in the reduce phase and
+     * the result is emitted as a single value of the key.
+     *
+     * Usage: reduceFold([numWorkers,] initialValue, fn[, mergeFn])
+     *
+     * @param arg0 number of workers or an initial value of an accumulator
+     * @param arg1 an initial value or function (accumulator, value) returning
+     * an updated accumulator
+     * @param arg2 the fold function or a merge function
+     * (accumulator1, accumulator2) => accumulator
+     * @param arg3 the merge function (if the first argument is a number
+     * of workers); if omitted then the fold function is used to merge
+     * accumulators too
+     */
+    scope.reduceFold = function (arg0, arg1, arg2, arg3) {
+        if (typeof arg1 === 'function') {
+            return scope._mr.reduceFold(0, arg0, arg1, arg2);
+
+        } else if (typeof arg0 === 'number' && typeof arg2 === 'function') {
+            return scope._mr.reduceFold(arg0, arg1, arg2, arg3);
+        }
+        throw new Error('Invalid arguments. Use reduceFold([numWorkers,] initialValue, fn[, mergeFn])');
+    };
+
+    /**
+     * Registers a "combine" function which is applied to the local results
+     * of each map worker (i.e. before the data are passed to the reduce phase).
+     * The function has the same signature as the one passed to reduce()
+     * and it should emit values the reduce function is able to process
+     * (typically partial aggregates - e.g. sum of values).
+     *
+     * @param arg0 size of a worker's buffer (number of emitted values) which triggers
+     * the combine operation or a function to be run as 'combine'
+     * @param arg1 if arg0 is a number then this is expected to be a combine function
+     */
+    scope.combine = function (arg0, arg1) {
+        function resultProcWrapper(actualProc) {
+            return function (key, values) {
+                return actualProc.call(scope, key, valuesToArray(values));
+            };
+        }
+
+        if (typeof arg0 === 'function' && arg1 === undefined) {
+            return scope._mr.combine(0, resultProcWrapper(arg0)); // 0 = combine after the map is finished
+
+        } else if (typeof arg0 === 'number' && typeof arg1 === 'function') {
+            return scope._mr.combine(arg0, resultProcWrapper(arg1));
+        }
+        throw new Error('Invalid arguments. Use combine([bufferSize,] fn)');
+    };
+
+    /**
+     * Turns on the incremental mode where values emitted by map for each input
+     * file (i.e. an item which is a path of an existing file) are cached. Unchanged
+     * files (same size and modification time) are not mapped again in next runs.
+     *
+     * @param {string} directory where cached values are stored
+     */
+    scope.incremental = function (directory) {
+        scope._mr.incremental(directory);
+    };
+
     /**
      * Emits values from map and reduce functions.
      */
@@ -182,7 +305,63 @@
             throw new Error('Cannot use non-string keys to emit values. Detected type: "'
                 + (typeof arg0) + '".');
         }
-        return scope._result.add(arg0, arg1);
+        if (viewsCreated) {
+            arg1 = detachViews(arg1); // a view cannot be stored
+        }
+        scope._mr.recordEmit(arg0, arg1, false);
+        if (scope._mr.isFolding()) {
+            scope._mr.foldValue(scope._result, arg0, arg1);
+            return;
+        }
+        scope._result.add(arg0, arg1);
+        if (scope._mr.shouldCombine(scope._result)) {
+            scope._mr.runCombine(scope._result);
+        }
+    };
+
+    /**
+     * Emits a number. Compared with emit(), the number is stored in a primitive
+     * array which takes much less memory. In case the respective reduce function
+     * is declared as additive, only a running sum is kept for each key.
+     * Reduce receives the numbers as an array of numbers.
+     *
+     * @param {string} key
+     * @param {number} value
+     */
+    scope.emitNumber = function (key, value) {
+        if (typeof key !== 'string') {
+            throw new Error('Cannot use non-string keys to emit values. Detected type: "'
+                + (typeof key) + '".');
+        }
+        if (typeof value !== 'number') {
+            throw new Error('emitNumber() accepts only numbers. Detected type: "'
+                + (typeof value) + '".');
+        }
+        scope._mr.recordEmit(key, value, true);
+        if (scope._mr.isFolding()) {
+            scope._mr.foldValue(scope._result, key, value);
+            return;
+        }
+        if (scope._mr.isOutputAdditive()) {
+            scope._result.addToSum(key, value);
+
+        } else {
+            scope._result.addNumber(key, value);
+        }
+        if (scope._mr.shouldCombine(scope._result)) {
+            scope._mr.runCombine(scope._result);
+        }
+    };
+
+    /**
+     * Emits an occurrence count (1 by default) of a key. This is just
+     * a shortcut for emitNumber(key, 1).
+     *
+     * @param {string} key
+     * @param {number} [num]
+     */
+    scope.emitCount = function (key, num) {
+        scope.emitNumber(key, num === undefined ? 1 : num);
     };
 
     /**
@@ -349,6 +528,12 @@
 
         iterator._javaIterator = reader.getIterator(chunkId);
 
+        iterator.close = function () {
+            if (iterator._javaIterator instanceof java.io.Closeable) {
+                iterator._javaIterator.close();
+            }
+        };
+
         iterator.hasNext = function () {
             return iterator._javaIterator.hasNext();
         };
@@ -394,6 +579,29 @@
         );
     };
 
+    /**
+     * Reads lines of all the files in a directory (searched just like in directoryReader).
+     * Files are split into chunks of the same size in bytes - large files are split at line
+     * boundaries and small files are packed together. Each item is an object
+     * {path: ..., line: ...}.
+     *
+     * @param {string|array} pathInfo a directory path or a list of directory paths to be searched
+     * @param {number} chunkId
+     * @param {string|RegExp} [filter] an optional regular expression specifying names to be accepted
+     * @returns {BaseIterator}
+     */
+    scope.orzo.directoryLineReader = function (pathInfo, chunkId, filter) {
+        return generalDirectoryReader(
+            pathInfo,
+            chunkId,
+            filter,
+            'directoryLineReader',
+            function (x) {
+                return {path: String(x[0]), line: String(x[1])};
+            }
+        );
+    };
+
     /**
      * Reads all the files in a directory (just like directoryReader) and generates all the
      * file pairs. Order is ignored which means pairs [A, B] and [B, A] are equivalent and only
@@ -460,6 +668,44 @@
     }
 
 
+    /**
+     * Makes an iterator read its items in advance by a dedicated thread (in batches
+     * passed via a bounded buffer) so I/O and decompression overlap with processing
+     * of already read items. The iterator must be backed by Java (e.g. any of the file
+     * and directory readers) and it must not be used directly anymore.
+     *
+     * @param {BaseIterator} iterator an iterator to be wrapped
+     * @param {number} [batchSize=1024] number of items read at once
+     * @param {number} [numBatches=4] max. number of batches read in advance
+     * @return {BaseIterator} the same iterator now reading in advance
+     */
+    scope.orzo.readAhead = function (iterator, batchSize, numBatches) {
+        var ReadAheadIterator = Java.type('net.orzo.lib.ReadAheadIterator'),
+            wrap = function (javaItr) {
+                return scope._lib.readAhead(javaItr,
+                    batchSize || ReadAheadIterator.DEFAULT_BATCH_SIZE,
+                    numBatches || ReadAheadIterator.DEFAULT_NUM_BATCHES);
+            };
+
+        if (iterator._javaReader) {
+            iterator._javaReader = wrap(iterator._javaReader);
+
+        } else if (iterator._javaIterator) {
+            iterator._javaIterator = wrap(iterator._javaIterator);
+            iterator.close = function () {
+                iterator._javaIterator.close();
+            };
+
+        } else if (iterator instanceof java.util.Iterator) {
+            return createReader(wrap(iterator));
+
+        } else {
+            throw new Error('Only iterators backed by Java can read in advance');
+        }
+        return iterator;
+    };
+
+
     /**
      * Obtains an iterator which reads provided file (specified by path) line by
      * line. Iterator can be accessed by a classic method pair hasNext()
@@ -473,6 +719,18 @@
     };
 
 
+    /**
+     * Obtains an iterator which reads provided file line by line (just like fileReader)
+     * with the file mapped into memory. This is suitable for large local files.
+     *
+     * @param  {string} path path to a file
+     * @param  {string} [encoding=UTF-8]
+     * @return a file iterator
+     */
+    scope.orzo.mmapFileReader = function (path, encoding) {
+        return createReader(scope._lib.files.mmapFileReader(path, encoding || 'UTF-8'));
+    };
+
     scope.orzo.gzipFileReader = function (path, encoding) {
         return createReader(scope._lib.files.gzipFileReader(path, encoding || 'UTF-8'));
     }
@@ -484,20 +742,51 @@
     /**
      * Creates or returns existing file chunk reader identified by the file path and chunkId.
      *
+     * By default, the file is split into interleaved chunks of chunkSize lines. Passing
+     * an object {splitBy: 'bytes'} instead of chunkSize splits the file into numChunks
+     * contiguous byte ranges of the same size (aligned to lines) which means each reader
+     * reads only its own part of the file. An additional option {mmap: true} reads the byte
+     * range from the file mapped into memory (implies the 'bytes' mode). An option {gzip: true}
+     * reads a gzip file consisting of multiple members (e.g. concatenated gzip files or BGZF)
+     * where each reader decompresses members starting within its byte range. A single-member
+     * file is read by the first reader only - in such case the reader reads ahead (see
+     * orzo.readAhead) so at least decompression overlaps with processing. The gzipFileReader
+     * is not read ahead unless wrapped by orzo.readAhead explicitly.
+     *
      * @param {string} path path to the file we want to read
      * @param {number} chunkId index of required chunk (starts from zero)
-     * @param {number} [chunkSize=null] chunk size in lines; if omitted then automatic estimation is performed
-     * @param {number} [startLine=0] first line to read (0 by default)
+     * @param {number|{splitBy:string}} [chunkSize=null] chunk size in lines; if omitted then automatic
+     * estimation is performed; an object specifies options ('splitBy': 'lines' (default) or 'bytes')
+     * @param {number} [startLine=0] first line to read (0 by default; not supported in 'bytes' mode)
      * @return {BaseIterator}
      */
     scope.orzo.fileChunkReader = function (path, chunkId, chunkSize, startLine) {
         var iterator = {},
-            fcrFactory;
+            fcrFactory,
+            options = {};
 
+        if (chunkSize !== null && typeof chunkSize === 'object') {
+            options = chunkSize;
+            chunkSize = options.chunkSize;
+        }
         fcrFactory = scope._lib.files.filePartReaderFactory(path, scope.env.numChunks,
             chunkSize ? chunkSize : null, startLine ? startLine : 0);
 
-        iterator._javaIterator = fcrFactory.createInstance(chunkId);
+        if (options.gzip) {
+            iterator._javaIterator = fcrFactory.createGzipInstance(chunkId);
+
+        } else if (options.mmap) {
+            iterator._javaIterator = fcrFactory.createMappedInstance(chunkId);
+
+        } else if (options.splitBy === 'bytes') {
+            iterator._javaIterator = fcrFactory.createByteRangeInstance(chunkId);
+
+        } else if (!options.splitBy || options.splitBy === 'lines') {
+            iterator._javaIterator = fcrFactory.createInstance(chunkId);
+
+        } else {
+            throw new Error('Unknown split mode: ' + options.splitBy);
+        }
 
         iterator.hasNext = function () {
             return iterator._javaIterator.hasNext();
@@ -520,6 +809,9 @@
             return value;
         };
 
+        if (options.gzip && chunkId === 0 && !fcrFactory.isGzipSplittable()) {
+            scope.orzo.readAhead(iterator);
+        }
         return iterator;
     };
 
@@ -59,6 +59,11 @@ public final class App {
 
     private final List<Service> services;
 
+    /**
+     * Task manager of the service mode (stopped along with the services)
+     */
+    private TaskManager taskManager;
+
     private final static String DEMO_SCRIPT = "net/orzo/demo1.js";
 
     /**
@@ -107,6 +112,9 @@ public final class App {
      */
     public void stopServices() {
         this.services.stream().forEach(Service::stop);
+        if (this.taskManager != null) {
+            this.taskManager.shutdown();
+        }
     }
 
     /**
@@ -197,6 +205,7 @@ public final class App {
                         app.services.add(injector.getInstance(RedisStorage.class));
                     }
 
+                    app.taskManager = injector.getInstance(TaskManager.class);
                     Runtime.getRuntime().addShutdownHook(new ShutdownHook(app));
                     app.startServices();
 
@@ -210,6 +219,7 @@ public final class App {
                             cmd.getOptionValue("p", null));
                     TaskManager tm = new TaskManager(conf);
                     tm.startTaskSync(tm.registerTask(scriptId, new String[0]));
+                    tm.shutdown();
 
                 } else if (cmd.getArgs().length > 0) { // Command line mode
                     File userScriptFile = new File(cmd.getArgs()[0]);
@@ -239,6 +249,7 @@ public final class App {
                         tm.getTask(taskId).getFirstError().getErrors().stream().forEach(
                                 System.err::println);
                     }
+                    tm.shutdown();
 
 
                 } else {
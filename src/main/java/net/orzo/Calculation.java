@@ -17,24 +17,38 @@ package net.orzo;
 
 import static net.orzo.Util.normalizePath;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
-import java.util.concurrent.Callable;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.script.ScriptException;
 
-import com.google.common.collect.Lists;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import net.orzo.scripting.CompiledScriptCache;
 import net.orzo.scripting.EnvParams;
 import net.orzo.scripting.JsEngineAdapter;
+import net.orzo.scripting.JsEnginePool;
+import net.orzo.scripting.SourceCode;
 
+import net.orzo.service.ProcessingConf;
 import net.orzo.service.TaskEvent;
 import net.orzo.service.TaskStatus;
+import net.orzo.service.WorkerPool;
+import net.orzo.spill.CheckpointStorage;
+import net.orzo.spill.KeyValues;
+import net.orzo.spill.RunFile;
+import net.orzo.spill.SpillStorage;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +66,19 @@ public class Calculation extends Observable {
     private static final Logger LOG = LoggerFactory
             .getLogger(Calculation.class);
 
+    /**
+     * Emitted data are split into more partitions than there are reduce
+     * workers so the partitions can be distributed among the workers
+     * according to their actual size (see {@link PartitionBalancer}).
+     */
+    private static final int PARTITIONS_PER_REDUCE_WORKER = 4;
+
+    /**
+     * How long (in milliseconds) idle map workers wait before they ask
+     * for a straggler again
+     */
+    private static final long STRAGGLER_POLL_INTERVAL = 100;
+
     private final CalculationParams params;
 
     /**
@@ -68,10 +95,74 @@ public class Calculation extends Observable {
 
     private final SharedServices sharedServices;
 
+    private final JsEnginePool enginePool;
+
+    private final ProcessingConf processingConf;
+
+    /**
+     * Queue of the calculation's units in the process-wide worker pool
+     */
+    private final WorkerPool.Group workers;
+
+    /**
+     * Scripts compiled once and shared by all the workers and phases
+     * of the calculation (borrowed from the engine pool)
+     */
+    private CompiledScriptCache scriptCache;
+
+    private int numReduceWorkers;
+
+    /**
+     * Where workers write data exceeding their memory threshold
+     * (null if spilling is disabled)
+     */
+    private SpillStorage spillStorage;
+
+    /**
+     * Canonical instances and ids of keys emitted by all the workers
+     * (null if disabled)
+     */
+    private KeyDictionary keyDictionary;
+
+    /**
+     * Outputs of finished phases of the calculation (null if disabled)
+     */
+    private CheckpointStorage checkpoints;
+
+    /**
+     * Whether to continue from a checkpoint of a failed run
+     */
+    private boolean resumeFailed;
+
+    /**
+     * Absolute paths of files read by MAP
+     */
+    private Set<String> inputFiles = new TreeSet<>();
+
+    private final CalculationMetrics metrics;
+
+    /**
+     * Heap usage watch (null if disabled)
+     */
+    private final MemoryPressure memoryPressure;
+
     /**
      *
      */
-    public Calculation(CalculationParams params, SharedServices sharedServices) {
+    public Calculation(CalculationParams params, SharedServices sharedServices,
+                       JsEnginePool enginePool, ProcessingConf processingConf,
+                       WorkerPool.Group workers) {
+        this(params, sharedServices, enginePool, processingConf, workers, null);
+    }
+
+    /**
+     * @param memoryPressure if not null then workers' data are spilled (or
+     *                       emitting is slowed down) when memory is short and
+     *                       the calculation may be stopped
+     */
+    public Calculation(CalculationParams params, SharedServices sharedServices,
+                       JsEnginePool enginePool, ProcessingConf processingConf,
+                       WorkerPool.Group workers, MemoryPressure memoryPressure) {
         this.startTime = System.currentTimeMillis() / 1000.;
         this.params = params;
         this.inputValues = params.inputValues;
@@ -81,22 +172,223 @@ public class Calculation extends Observable {
             this.modulesPaths.add(params.optionalModulesPath);
         }
         this.sharedServices = sharedServices;
+        this.enginePool = enginePool;
+        this.processingConf = processingConf;
+        this.workers = workers;
+        this.metrics = new CalculationMetrics();
+        this.memoryPressure = memoryPressure;
+    }
+
+    /**
+     * Returns performance metrics of the calculation (updated
+     * while the calculation runs)
+     */
+    public CalculationMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Makes the calculation continue from a checkpoint of a previous failed
+     * run (with the same scripts and arguments and unchanged input files).
+     * Otherwise (default), existing checkpoints of the calculation are
+     * discarded and it starts from the beginning.
+     */
+    public void setResumeFailed(boolean resumeFailed) {
+        this.resumeFailed = resumeFailed;
     }
 
     /**
      * Starts and controls the calculation.
      */
     public Object run() throws CalculationException {
-        IntermediateResults currentResults;
-        ScriptObjectMirror prepareData = runPrepare();
-        int numReduceFunctions = ((Double)prepareData.get("numReduceFunctions")).intValue();
-		currentResults = runMap(prepareData);
+        List<PartitionedResults> currentResults;
+        this.scriptCache = this.enginePool.borrow(this.params.userScript);
+        try {
+            if (this.processingConf.internKeys) {
+                this.keyDictionary = new KeyDictionary();
+            }
+            if (this.processingConf.spillThreshold > 0) {
+                this.spillStorage = new SpillStorage(this.processingConf.spillDirectory,
+                        this.processingConf.spillThreshold, this.keyDictionary);
+            }
+            ScriptObjectMirror prepareData = runPrepare();
+            int numReduceFunctions = ((Double) prepareData.get("numReduceFunctions")).intValue();
+            this.numReduceWorkers = getNumReduceWorkers(prepareData);
+            if (this.numReduceWorkers > getNumWorkers()) {
+                LOG.warn(String.format("Requested number of reduce workers (%d) exceeds the size "
+                        + "of the worker pool, using %d", this.numReduceWorkers, getNumWorkers()));
+                this.numReduceWorkers = getNumWorkers();
+            }
+            this.checkpoints = createCheckpointStorage();
+            int firstReduce = 0;
+            int lastPhase = -1;
+            if (this.checkpoints != null) {
+                if (this.resumeFailed && this.checkpoints.hasSameInputs()) {
+                    lastPhase = this.checkpoints.getLastPhase();
+                }
+                if (lastPhase < 0 || lastPhase > numReduceFunctions) {
+                    this.checkpoints.delete(); // a stale checkpoint (if any)
+                    lastPhase = -1;
+                }
+            }
+            if (lastPhase >= 0) {
+                LOG.info(String.format("Resuming from checkpoint of phase %d", lastPhase));
+                currentResults = this.checkpoints.load(lastPhase);
+                firstReduce = lastPhase;
+
+            } else {
+                currentResults = runMap(prepareData);
+                checkMemoryLimit();
+                saveCheckpoint(0, currentResults);
+            }
+
+            for (int i = firstReduce; i < numReduceFunctions && totalSize(currentResults) > 0; i++) {
+                currentResults = runReduce(currentResults, i);
+                checkMemoryLimit();
+                saveCheckpoint(i + 1, currentResults);
+            }
+            Object ans = runFinish(currentResults);
+            if (this.checkpoints != null) {
+                this.checkpoints.delete();
+            }
+            return ans;
+
+        } catch (IOException ex) {
+            throw new CalculationException("Failed to initialize intermediate data storage: "
+                    + ex.getMessage(), ex);
+
+        } catch (MemoryLimitExceededException ex) {
+            throw new CalculationException(ex.getMessage(), ex);
+
+        } catch (CalculationException ex) {
+            if (this.memoryPressure != null && this.memoryPressure.isStopped()) {
+                // errors of workers stopped by the memory limit are not that informative
+                throw new CalculationException("Calculation stopped due to the memory limit: "
+                        + ex.getMessage(), ex);
+            }
+            throw ex;
+
+        } finally {
+            if (this.spillStorage != null) {
+                this.spillStorage.close();
+                this.spillStorage = null;
+            }
+            this.keyDictionary = null;
+            this.checkpoints = null;
+            this.enginePool.release(this.scriptCache);
+            this.scriptCache = null;
+        }
+    }
+
+    /**
+     * Returns a storage of phase outputs of the calculation (identified by
+     * its scripts and arguments - see {@link #createCalculationHash()}) or null
+     * if checkpoints are disabled
+     */
+    private CheckpointStorage createCheckpointStorage() {
+        if (this.processingConf.checkpointDirectory == null) {
+            return null;
+        }
+        return new CheckpointStorage(this.processingConf.checkpointDirectory,
+                createCalculationHash(), this.processingConf.checkpointMaxAge * 60000L);
+    }
+
+    /**
+     * Stores results of a finished phase. A failure only disables
+     * further checkpoints, the calculation itself continues.
+     */
+    private void saveCheckpoint(int phase, List<PartitionedResults> results) {
+        if (this.checkpoints != null) {
+            try {
+                if (phase == 0) {
+                    this.checkpoints.saveInputs(this.inputFiles);
+                }
+                this.checkpoints.save(phase, results);
+
+            } catch (IOException ex) {
+                LOG.warn(String.format("Failed to store checkpoint of phase %d: %s", phase,
+                        ex.getMessage()), ex);
+                this.checkpoints.delete();
+                this.checkpoints = null;
+            }
+        }
+    }
+
+    /**
+     * Returns total number of values in all the results
+     */
+    private static int totalSize(List<PartitionedResults> results) {
+        int ans = 0;
+        for (PartitionedResults item : results) {
+            ans += item.size();
+        }
+        return ans;
+    }
+
+    /**
+     * Returns max. number of reduce workers as configured by user's script
+     */
+    private static int getNumReduceWorkers(ScriptObjectMirror conf) {
+        Object numReduceWorkers = conf.get("numReduceWorkers");
+        if (numReduceWorkers instanceof Number) {
+            return Math.max(1, ((Number) numReduceWorkers).intValue());
+        }
+        return 1;
+    }
+
+    /**
+     * Returns max. number of threads processing a phase of the calculation
+     */
+    private int getNumWorkers() {
+        return this.workers.getPool().getNumThreads();
+    }
+
+    /**
+     * Returns number of partitions emitted data are split into.
+     */
+    private int getNumPartitions() {
+        return this.numReduceWorkers * PARTITIONS_PER_REDUCE_WORKER;
+    }
+
+    /**
+     * Creates an empty output of a worker
+     */
+    private PartitionedResults createResults(int numPartitions) {
+        return new PartitionedResults(numPartitions, this.spillStorage,
+                this.processingConf.offHeapResults, this.keyDictionary, this.memoryPressure);
+    }
 
-        for (int i = 0; i < numReduceFunctions && currentResults.size() > 0; i++) {
-			currentResults = runReduce(prepareData, currentResults, i);
-		}
-		return runFinish(currentResults);
+    /**
+     * Stops the calculation in case it has been chosen to release memory
+     * (workers stop on their own, this handles a phase which finished
+     * in the meantime)
+     *
+     * @throws MemoryLimitExceededException
+     */
+    private void checkMemoryLimit() {
+        if (this.memoryPressure != null && this.memoryPressure.isStopped()) {
+            this.memoryPressure.check(false);
+        }
+    }
 
+    /**
+     * Creates a hash identifying the whole calculation. Any change of the user
+     * script, the bootstrap scripts or the input arguments produces a different
+     * value.
+     */
+    private String createCalculationHash() {
+        StringBuilder ans = new StringBuilder();
+        SourceCode[] scripts = new SourceCode[] {this.params.userenvScript,
+                this.params.datalibScript, this.params.calculationScript, this.params.userScript};
+        for (SourceCode script : scripts) {
+            ans.append(script != null ? script.getContentsHash() : "").append('\n');
+        }
+        if (this.inputValues != null) {
+            for (String arg : this.inputValues) {
+                ans.append('\n').append(arg);
+            }
+        }
+        return DigestUtils.sha1Hex(ans.toString());
     }
 
     private EnvParams createEnvParams() {
@@ -104,6 +396,8 @@ public class Calculation extends Observable {
         envParams.workingDir = normalizePath(System.getProperty("user.dir"));
         envParams.scriptName = normalizePath(this.params.userScript
                 .getFullyQualifiedName());
+        envParams.scriptHash = this.params.userScript.getContentsHash();
+        envParams.calculationHash = createCalculationHash();
         envParams.inputArgs = this.inputValues;
         envParams.modulesPaths = this.modulesPaths;
         envParams.startTimestamp = this.startTime;
@@ -115,167 +409,278 @@ public class Calculation extends Observable {
      * functions are registered but no real processing is done yet).
      */
     private ScriptObjectMirror runPrepare() throws CalculationException {
+        CalculationMetrics.Phase phase = this.metrics.startPhase("prepare", 1);
+        CalculationMetrics.Worker workerMetrics = phase.getWorker(0);
+        workerMetrics.startMeasure();
+        long setupStart = System.nanoTime();
         JsEngineAdapter jsEngine = new JsEngineAdapter(createEnvParams(),
-                this.sharedServices);
+                this.sharedServices, null, this.scriptCache);
         jsEngine.beginWork();
         try {
             jsEngine.runCode(this.params.calculationScript,
                     this.params.userenvScript, this.params.datalibScript);
             jsEngine.runFunction("prepare");
+            workerMetrics.addSetupTime(System.nanoTime() - setupStart);
             jsEngine.runCode(this.params.userScript);
             return (ScriptObjectMirror) jsEngine.runFunction("getParams");
 
         } catch (NoSuchMethodException | ScriptException ex) {
             throw new CalculationException("Failed to perform PREPARE: "
                     + ex.getMessage(), ex);
+
+        } finally {
+            workerMetrics.stopMeasure();
+            phase.finish();
         }
     }
 
     /**
-     * Runs the MAP phase. Input is given by user's script,output is
-     * {@link IntermediateResults} which stores respective keys and lists of
-     * values.
+     * Runs the MAP phase. Input is given by user's script, output is
+     * a list of {@link PartitionedResults} (one for each worker) which
+     * store respective keys and lists of values split by keys' hashes.
+     * Data chunks are distributed dynamically among a limited number of
+     * workers (see {@link ChunkQueue}).
      *
      * @return key => [value1, value2,..., valueN] for all emitted keys and
      * values
      */
-    private IntermediateResults runMap(ScriptObjectMirror conf)
+    private List<PartitionedResults> runMap(ScriptObjectMirror conf)
             throws CalculationException {
-        ExecutorService executor;
-        List<Future<IntermediateResults>> threadList = new ArrayList<>();
-        Callable<IntermediateResults> worker;
-        IntermediateResults mapResults = new IntermediateResults();
-        int numWorkers = (int) conf.get("numChunks");
+        CompletionService<Boolean> completion = new ExecutorCompletionService<>(this.workers);
+        Map<Future<Boolean>, MapWorker> running = new HashMap<>();
+        List<MapWorker> mapWorkers = new ArrayList<>();
+        ChunkQueue chunks = new ChunkQueue((int) conf.get("numChunks"),
+                this.processingConf.speculativeMapSlowdown);
+        int numWorkers = Math.max(1, Math.min(chunks.getNumChunks(), getNumWorkers()));
+        int numPartitions = getNumPartitions();
+        CalculationMetrics.Phase phase = this.metrics.startPhase("map", numWorkers);
 
         setChanged();
-        notifyObservers(new TaskEvent(TaskStatus.RUNNING_MAP));
+        notifyObservers(new TaskEvent(TaskStatus.RUNNING_MAP, String.format("chunks: %d, workers: %d",
+                chunks.getNumChunks(), numWorkers), phase));
 
-        executor = Executors.newFixedThreadPool(numWorkers);
         EnvParams workerEnvParams;
         for (int i = 0; i < numWorkers; i++) {
             workerEnvParams = createEnvParams();
             workerEnvParams.workerId = i;
             JsEngineAdapter jsEngine = new JsEngineAdapter(workerEnvParams,
-                    this.sharedServices, new IntermediateResults());
-            worker = new MapWorker(jsEngine, this.params);
-            Future<IntermediateResults> submit = executor.submit(worker);
-            threadList.add(submit);
+                    this.sharedServices, createResults(numPartitions), this.scriptCache);
+            MapWorker worker = new MapWorker(jsEngine, workerEnvParams, chunks, this.params,
+                    () -> createResults(numPartitions), phase.getWorker(i));
+            mapWorkers.add(worker);
+            running.put(completion.submit(worker), worker);
         }
 
+        // a worker processes one chunk per unit and then it is resubmitted
+        // (so other calculations' units may run in between); idle workers
+        // (speculative mode) do not occupy the pool while waiting - they are
+        // resubmitted once a chunk is finished or after a poll interval;
+        // the first failure stops the phase (nothing is resubmitted and
+        // the outstanding units are cancelled)
         List<Exception> errors = new ArrayList<>();
-        for (int i = 0; i < threadList.size(); i++) {
+        List<MapWorker> idle = new ArrayList<>();
+        while (running.size() > 0 || idle.size() > 0) {
+            Future<Boolean> done;
             try {
-                mapResults.addAll(threadList.get(i).get());
-                threadList.get(i).get().getData().clear(); // TODO does this make a difference?
+                done = idle.isEmpty() ? completion.take()
+                        : completion.poll(STRAGGLER_POLL_INTERVAL, TimeUnit.MILLISECONDS);
 
-            } catch (InterruptedException | ExecutionException e) {
+            } catch (InterruptedException e) {
                 errors.add(e);
-                LOG.error(String.format("Worker[%d]: %s", i, e.getMessage()), e);
+                LOG.error(String.format("MAP interrupted: %s", e.getMessage()), e);
+                break;
+            }
+            boolean wakeIdle = done == null;
+            if (done != null) {
+                MapWorker worker = running.remove(done);
+                try {
+                    boolean callAgain = done.get();
+                    if (callAgain && worker.isIdle()) {
+                        idle.add(worker);
+
+                    } else {
+                        wakeIdle = true; // a chunk has been processed or the queue is finished
+                        if (callAgain) {
+                            running.put(completion.submit(worker), worker);
+                        }
+                    }
+
+                } catch (InterruptedException | ExecutionException e) {
+                    errors.add(e);
+                    LOG.error(String.format("Worker[%d]: %s", mapWorkers.indexOf(worker),
+                            e.getMessage()), e);
+                    break;
+                }
+            }
+            if (wakeIdle) {
+                for (MapWorker worker : idle) {
+                    running.put(completion.submit(worker), worker);
+                }
+                idle.clear();
             }
         }
-        executor.shutdown();
+        phase.finish();
         if (errors.size() > 0) {
+            for (Future<Boolean> item : running.keySet()) {
+                item.cancel(true);
+            }
             throw new ParallelException("Failed to perform MAP", errors);
         }
+        List<PartitionedResults> mapResults = new ArrayList<>();
+        for (MapWorker worker : mapWorkers) {
+            mapResults.addAll(worker.getResults());
+            this.inputFiles.addAll(worker.getInputFiles());
+        }
+        if (chunks.getNumSpeculated() > 0) {
+            LOG.info(String.format("Chunks processed speculatively: %d, speculative attempts finished first: %d",
+                    chunks.getNumSpeculated(), chunks.getNumSpeculativeWins()));
+        }
         return mapResults;
     }
 
     /**
-     * Runs the REDUCE phase. Input is given by the result of thee MAP phase.
+     * Runs the REDUCE phase. Input is given by the result of the MAP phase
+     * (or a previous REDUCE phase). Partitions of the input data are
+     * distributed among reduce workers according to their size (see
+     * {@link PartitionBalancer}). Partitions are passed to the workers as they
+     * are - a reduce pass which keeps keys produces partitions consisting of
+     * a single part each, so chained passes need no merging.
      *
      * @return key => "object" for all emitted keys and values
      */
-    private IntermediateResults runReduce(ScriptObjectMirror prepareData,
-            IntermediateResults mapResults, int functionIdx) throws ParallelException {
+    private List<PartitionedResults> runReduce(List<PartitionedResults> prevResults,
+            int functionIdx) throws ParallelException {
+        long phaseStart = System.nanoTime();
+        PartitionBalancer balancer = new PartitionBalancer(prevResults, this.numReduceWorkers);
+        CalculationMetrics.Phase phase = this.metrics.startPhase(
+                String.format("reduce %d", functionIdx + 1), balancer.getNumWorkers());
         setChanged();
-        notifyObservers(new TaskEvent(TaskStatus.RUNNING_REDUCE));
+        notifyObservers(new TaskEvent(TaskStatus.RUNNING_REDUCE, balancer.getReport(), phase));
+        if (balancer.getHotKeys().size() > 0) {
+            LOG.warn(String.format("Skewed reduce input (%01.2f), keys %s cannot be split among workers",
+                    balancer.getSkew(), balancer.getHotKeys().keySet()));
+        }
 
-        ExecutorService executor;
-        List<Future<IntermediateResults>> threadList = new ArrayList<>();
-        IntermediateResults reduceResults = new IntermediateResults();
-        int numWorkers = (int) prepareData.get("numReduceWorkers");
+        List<Future<PartitionedResults>> threadList = new ArrayList<>();
+        List<PartitionedResults> reduceResults = new ArrayList<>();
+        int numPartitions = prevResults.get(0).getNumPartitions();
+        int numWorkers = balancer.getNumWorkers();
+        List<List<List<IntermediateResults>>> workerPartitions = new ArrayList<>();
+        List<List<List<RunFile>>> workerRuns = new ArrayList<>();
+        int numJoined = 0;
 
-        List<List<String>> splitKeys = groupResults(mapResults, numWorkers);
-        numWorkers = splitKeys.size(); // groupResults may have decided to optimize num of groups
-        LOG.info(String.format("Calculated number of reduce workers: %d", numWorkers));
+        for (int i = 0; i < numWorkers; i++) {
+            List<List<IntermediateResults>> parts = new ArrayList<>();
+            List<List<RunFile>> runs = new ArrayList<>();
+            for (int partitionIdx : balancer.getPartitions(i)) {
+                parts.add(PartitionedResults.collectPartition(prevResults, partitionIdx));
+                runs.add(PartitionedResults.collectRuns(prevResults, partitionIdx));
+                if (parts.get(parts.size() - 1).size() + runs.get(runs.size() - 1).size() > 1) {
+                    numJoined++;
+                }
+            }
+            workerPartitions.add(parts);
+            workerRuns.add(runs);
+        }
+        LOG.info(String.format("Calculated number of reduce workers: %d, partitions joined from more parts: %d",
+                numWorkers, numJoined));
+        phase.setShuffleTime(System.nanoTime() - phaseStart);
 
-        executor = Executors.newFixedThreadPool(numWorkers);
         for (int i = 0; i < numWorkers; i++) {
             EnvParams workerEnvParams = createEnvParams();
             workerEnvParams.workerId = i;
             JsEngineAdapter jsEngine = new JsEngineAdapter(workerEnvParams,
-                    this.sharedServices, new IntermediateResults());
+                    this.sharedServices, createResults(numPartitions), this.scriptCache);
             ReduceWorker reduceWorker = new ReduceWorker(jsEngine,
-                    mapResults, splitKeys.get(i), functionIdx, this.params);
-            Future<IntermediateResults> submit = executor.submit(reduceWorker);
+                    workerPartitions.get(i), workerRuns.get(i), functionIdx, this.params,
+                    phase.getWorker(i));
+            Future<PartitionedResults> submit = this.workers.submit(reduceWorker);
             threadList.add(submit);
         }
 
         List<Exception> errors = new ArrayList<>();
         for (int i = 0; i < numWorkers; i++) {
             try {
-                reduceResults.addAll(threadList.get(i).get());
+                reduceResults.add(threadList.get(i).get());
 
             } catch (InterruptedException | ExecutionException e) {
                 errors.add(e);
                 LOG.error(String.format("Worker[%d]: %s", i, e.getMessage()), e);
             }
         }
-        executor.shutdown();
+        phase.finish();
         if (errors.size() > 0) {
             throw new ParallelException("Failed to perform REDUCE.", errors);
         }
         return reduceResults;
     }
 
-    private Object runFinish(IntermediateResults reduceResults)
+    private Object runFinish(List<PartitionedResults> reduceResults)
             throws CalculationException {
+        CalculationMetrics.Phase phase = this.metrics.startPhase("finish", 1);
+        CalculationMetrics.Worker workerMetrics = phase.getWorker(0);
+        long phaseStart = System.nanoTime();
         setChanged();
-        notifyObservers(new TaskEvent(TaskStatus.RUNNING_FINISH));
+        notifyObservers(new TaskEvent(TaskStatus.RUNNING_FINISH, null, phase));
 
         Object ans;
+        workerMetrics.startMeasure();
         EnvParams envParams = createEnvParams();
-        JsEngineAdapter jse = new JsEngineAdapter(envParams, this.sharedServices);
-        FinalResults fr = new FinalResults(reduceResults);
-
+        JsEngineAdapter jse = new JsEngineAdapter(envParams, this.sharedServices, null,
+                this.scriptCache);
         jse.beginWork();
         try {
+            IntermediateResults finalData = new IntermediateResults();
+            for (PartitionedResults item : reduceResults) {
+                item.setValueFactory(jse.getValueFactory());
+                for (int i = 0; i < item.getNumPartitions(); i++) {
+                    finalData.addAll(item.getPartition(i));
+                    workerMetrics.addItemsRead(0, loadRuns(item.getRuns(i), finalData, jse));
+                }
+            }
+            FinalResults fr = new FinalResults(finalData);
+            workerMetrics.addItemsRead(finalData.size(), 0);
+            phase.setShuffleTime(System.nanoTime() - phaseStart);
+
+            long setupStart = System.nanoTime();
             jse.runCode(this.params.calculationScript,
                     this.params.userenvScript, this.params.datalibScript);
             jse.runFunction("initFinish");
+            workerMetrics.addSetupTime(System.nanoTime() - setupStart);
             jse.runCode(this.params.userScript);
             ans = jse.runFunction("runFinish", fr);
 
-        } catch (NoSuchMethodException | ScriptException ex) {
+        } catch (NoSuchMethodException | ScriptException | IOException ex) {
             throw new CalculationException("Failed to perform FINISH: "
                     + ex.getMessage(), ex);
+
+        } finally {
+            workerMetrics.stopMeasure();
+            phase.finish();
         }
         jse.endWork();
         return ans;
     }
 
     /**
+     * Reads spilled data back to memory (final results are always
+     * processed in memory)
+     *
+     * @return number of read bytes
      */
-    private List<List<String>> groupResults(
-            IntermediateResults originalResults, int numGroups) {
-        /*
-         * Note: In terms of performance, it is essential to split
-         * keys so each worker has roughly the same amount of items to
-         * process. Unfortunately, the current solution does not contain
-         * any such optimization.
-         */
-        List<String> keys = new ArrayList<>(originalResults.keys());
-        int calcNumGroups = Math.min(numGroups, keys.size()); // cannot use more workers than keys
-
-        if (keys.size() > 0) {
-            int itemsPerChunk = (int) Math.ceil(keys.size() / (float)calcNumGroups);
-            return Lists.partition(keys, itemsPerChunk);
-
-        } else {
-            List<List<String>> ans = new ArrayList();
-            ans.add(keys);
-            return ans;
+    private static long loadRuns(List<RunFile> runs, IntermediateResults target,
+                                 JsEngineAdapter jse) throws IOException {
+        long ans = 0;
+        for (RunFile run : runs) {
+            ans += run.getFile().length();
+            try (RunFile.Reader reader = run.open(jse.getValueFactory())) {
+                while (reader.hasNext()) {
+                    KeyValues item = reader.next();
+                    target.addMultiple(item.getKey(), item.getValues());
+                }
+            }
         }
+        return ans;
     }
 
 }
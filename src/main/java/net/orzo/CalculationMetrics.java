@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Performance metrics of a calculation. Each phase (PREPARE, MAP, each
+ * REDUCE pass and FINISH) records its duration and metrics of all its
+ * workers - wall and CPU time, time spent by setting up a JavaScript
+ * engine, number of read items and bytes, number of emitted values and
+ * produced keys and an approximate size of memory retained by the worker's
+ * results.
+ *
+ * Metrics are updated while the calculation runs (phases are added once
+ * they start) which means they can be read at any time but the values of
+ * a running phase may be incomplete.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class CalculationMetrics {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final List<Phase> phases;
+
+    public CalculationMetrics() {
+        this.phases = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Returns CPU time of the current thread in nanoseconds (or -1 if
+     * not supported)
+     */
+    private static long currentThreadCpuTime() {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+                && THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+            return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Creates and registers a new phase
+     *
+     * @param name phase name (e.g. "map", "reduce 1")
+     * @param numWorkers number of workers of the phase
+     */
+    public Phase startPhase(String name, int numWorkers) {
+        Phase ans = new Phase(name, numWorkers);
+        this.phases.add(ans);
+        return ans;
+    }
+
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(this.phases);
+    }
+
+    /**
+     * Metrics of a single phase
+     */
+    public static class Phase {
+
+        private final String name;
+
+        private final long started;
+
+        private final transient long startNanos;
+
+        private double wallTime;
+
+        /**
+         * Time spent by preparing data for workers (e.g. assigning and collecting
+         * partitions of REDUCE input)
+         */
+        private double shuffleTime;
+
+        private final List<Worker> workers;
+
+        private Phase(String name, int numWorkers) {
+            this.name = name;
+            this.started = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+            this.workers = new ArrayList<>(numWorkers);
+            for (int i = 0; i < numWorkers; i++) {
+                this.workers.add(new Worker(i));
+            }
+        }
+
+        /**
+         * Records the phase's duration
+         */
+        public void finish() {
+            this.wallTime = toMillis(System.nanoTime() - this.startNanos);
+        }
+
+        /**
+         * Records time spent by preparing data for the workers
+         */
+        public void setShuffleTime(long nanos) {
+            this.shuffleTime = toMillis(nanos);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Returns start time of the phase (in milliseconds since the epoch)
+         */
+        public long getStarted() {
+            return this.started;
+        }
+
+        /**
+         * Returns duration of the phase in milliseconds (0 if it is still running)
+         */
+        public double getWallTime() {
+            return this.wallTime;
+        }
+
+        public double getShuffleTime() {
+            return this.shuffleTime;
+        }
+
+        /**
+         * Returns total time (in milliseconds) the workers spent by setting up
+         * their engines
+         */
+        public double getSetupTime() {
+            double ans = 0;
+            for (Worker worker : this.workers) {
+                ans += worker.setupTime;
+            }
+            return ans;
+        }
+
+        public Worker getWorker(int idx) {
+            return this.workers.get(idx);
+        }
+
+        public List<Worker> getWorkers() {
+            return Collections.unmodifiableList(this.workers);
+        }
+    }
+
+    /**
+     * Metrics of a single worker. A worker is expected to be updated
+     * by a single thread at a time.
+     */
+    public static class Worker {
+
+        private final int workerId;
+
+        private double wallTime;
+
+        private double cpuTime;
+
+        private double setupTime;
+
+        private long itemsRead;
+
+        private long bytesRead;
+
+        private long emits;
+
+        private long keys;
+
+        private long retainedSize;
+
+        private transient long measureStart;
+
+        private transient long measureCpuStart;
+
+        public Worker(int workerId) {
+            this.workerId = workerId;
+        }
+
+        /**
+         * Starts measuring of wall and CPU time of the current thread
+         */
+        public void startMeasure() {
+            this.measureStart = System.nanoTime();
+            this.measureCpuStart = currentThreadCpuTime();
+        }
+
+        /**
+         * Adds wall and CPU time elapsed since {@link #startMeasure()} (the method
+         * must be called by the same thread)
+         */
+        public void stopMeasure() {
+            this.wallTime += toMillis(System.nanoTime() - this.measureStart);
+            long cpu = currentThreadCpuTime();
+            if (cpu >= 0 && this.measureCpuStart >= 0) {
+                this.cpuTime += toMillis(cpu - this.measureCpuStart);
+            }
+        }
+
+        public void addSetupTime(long nanos) {
+            this.setupTime += toMillis(nanos);
+        }
+
+        /**
+         * @param numItems number of items passed to user's function
+         * @param numBytes number of bytes read (may be approximate)
+         */
+        public void addItemsRead(long numItems, long numBytes) {
+            this.itemsRead += numItems;
+            this.bytesRead += numBytes;
+        }
+
+        /**
+         * Records properties of the worker's output
+         */
+        public void addOutput(PartitionedResults results) {
+            this.emits += results.getNumEmitted();
+            this.keys += results.numKeys();
+            this.retainedSize += results.estimateRetainedSize();
+        }
+
+        public int getWorkerId() {
+            return this.workerId;
+        }
+
+        /**
+         * Returns wall time in milliseconds
+         */
+        public double getWallTime() {
+            return this.wallTime;
+        }
+
+        /**
+         * Returns CPU time in milliseconds
+         */
+        public double getCpuTime() {
+            return this.cpuTime;
+        }
+
+        /**
+         * Returns time (in milliseconds) spent by setting up the engine and
+         * loading scripts
+         */
+        public double getSetupTime() {
+            return this.setupTime;
+        }
+
+        public long getItemsRead() {
+            return this.itemsRead;
+        }
+
+        public long getBytesRead() {
+            return this.bytesRead;
+        }
+
+        public long getEmits() {
+            return this.emits;
+        }
+
+        public long getKeys() {
+            return this.keys;
+        }
+
+        /**
+         * Returns an approximate size (in bytes) of memory retained by
+         * the worker's results
+         */
+        public long getRetainedSize() {
+            return this.retainedSize;
+        }
+    }
+}
@@ -45,4 +45,10 @@ public class CalculationParams {
      */
     public String[] inputValues;
 
+    /**
+     * Identifies the task the calculation belongs to (it is used to find
+     * checkpoints of previous runs of the same task)
+     */
+    public String taskId;
+
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A shared queue of data chunks (identified by their indices) processed
+ * by map workers. Each worker takes a next chunk once it finishes its previous
+ * one which means the number of chunks is independent of the number of
+ * workers and a single slow chunk does not block the others.
+ *
+ * Optionally, the queue supports speculative execution. Each chunk is
+ * processed within an {@link Attempt} which counts items consumed from
+ * the chunk. Once there are no more unprocessed chunks, an idle worker may ask
+ * for a "straggler" - a running chunk with a progress rate far behind rates of
+ * already finished chunks - and process it again. The attempt which finishes
+ * first wins, the other one finds out it should stop via
+ * {@link Attempt#itemProcessed()}.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ChunkQueue {
+
+    private final int numChunks;
+
+    private final AtomicInteger nextChunk;
+
+    /**
+     * How many times a chunk's progress rate must be lower than a median
+     * rate of finished chunks to be considered a straggler (0 = no speculative
+     * execution)
+     */
+    private final double slowdown;
+
+    private final long[] startTimes;
+
+    private final AtomicLongArray numItems;
+
+    private final AtomicIntegerArray completed;
+
+    private final boolean[] speculated;
+
+    private final List<Long> durations;
+
+    private final List<Double> rates;
+
+    private int numCompleted;
+
+    private int numSpeculated;
+
+    private int numSpeculativeWins;
+
+    /**
+     * Processing of a single chunk by a worker
+     */
+    public class Attempt {
+
+        private final int chunkIdx;
+
+        private final boolean speculative;
+
+        private Attempt(int chunkIdx, boolean speculative) {
+            this.chunkIdx = chunkIdx;
+            this.speculative = speculative;
+        }
+
+        public int getChunkIdx() {
+            return this.chunkIdx;
+        }
+
+        public boolean isSpeculative() {
+            return this.speculative;
+        }
+
+        /**
+         * Records a processed item of the chunk (only items of non-speculative
+         * attempts are counted).
+         *
+         * @return false if the chunk has been already finished by another
+         * attempt and this one should stop
+         */
+        public boolean itemProcessed() {
+            if (!this.speculative) {
+                ChunkQueue.this.numItems.incrementAndGet(this.chunkIdx);
+            }
+            return ChunkQueue.this.completed.get(this.chunkIdx) == 0;
+        }
+
+        /**
+         * Marks the chunk as finished
+         *
+         * @return true if this attempt is the first one to finish the chunk
+         * (i.e. its output should be used)
+         */
+        public boolean complete() {
+            return ChunkQueue.this.complete(this);
+        }
+    }
+
+    public ChunkQueue(int numChunks) {
+        this(numChunks, 0);
+    }
+
+    /**
+     * @param numChunks number of chunks
+     * @param slowdown how many times a chunk must be slower than finished
+     *                 chunks to be processed speculatively (0 = never)
+     */
+    public ChunkQueue(int numChunks, double slowdown) {
+        this.numChunks = numChunks;
+        this.nextChunk = new AtomicInteger(0);
+        this.slowdown = slowdown;
+        this.startTimes = new long[numChunks];
+        this.numItems = new AtomicLongArray(numChunks);
+        this.completed = new AtomicIntegerArray(numChunks);
+        this.speculated = new boolean[numChunks];
+        this.durations = new ArrayList<>();
+        this.rates = new ArrayList<>();
+    }
+
+    /**
+     * Returns an index of a next unprocessed chunk or -1 if there are
+     * no more chunks
+     */
+    public int next() {
+        int ans = this.nextChunk.getAndIncrement();
+        return ans < this.numChunks ? ans : -1;
+    }
+
+    public int getNumChunks() {
+        return this.numChunks;
+    }
+
+    public boolean isSpeculative() {
+        return this.slowdown > 0;
+    }
+
+    /**
+     * Starts processing of a chunk
+     *
+     * @param speculative true if the chunk is a straggler processed again
+     */
+    public synchronized Attempt attempt(int chunkIdx, boolean speculative) {
+        if (!speculative) {
+            this.startTimes[chunkIdx] = System.currentTimeMillis();
+        }
+        return new Attempt(chunkIdx, speculative);
+    }
+
+    private synchronized boolean complete(Attempt attempt) {
+        if (!this.completed.compareAndSet(attempt.chunkIdx, 0, 1)) {
+            return false;
+        }
+        this.numCompleted++;
+        if (attempt.speculative) {
+            this.numSpeculativeWins++;
+
+        } else {
+            long duration = Math.max(1, System.currentTimeMillis() - this.startTimes[attempt.chunkIdx]);
+            this.durations.add(duration);
+            this.rates.add((double) this.numItems.get(attempt.chunkIdx) / duration);
+        }
+        return true;
+    }
+
+    private static <T extends Comparable<T>> T median(List<T> values) {
+        List<T> tmp = new ArrayList<>(values);
+        Collections.sort(tmp);
+        return tmp.get(tmp.size() / 2);
+    }
+
+    /**
+     * Returns an index of a running chunk which has been running longer than
+     * a finished chunk typically needs and which is processed much slower than
+     * the finished chunks. Each chunk is returned at most once. If there is
+     * no such chunk (or speculative execution is disabled) -1 is returned.
+     */
+    public synchronized int nextStraggler() {
+        if (!isSpeculative() || this.durations.isEmpty() || this.nextChunk.get() < this.numChunks) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        long medianDuration = median(this.durations);
+        double medianRate = median(this.rates);
+        int ans = -1;
+        double ansRate = Double.MAX_VALUE;
+        for (int i = 0; i < this.numChunks; i++) {
+            if (this.completed.get(i) == 0 && !this.speculated[i] && this.startTimes[i] > 0) {
+                long elapsed = Math.max(1, now - this.startTimes[i]);
+                double rate = (double) this.numItems.get(i) / elapsed;
+                if (elapsed > medianDuration && rate * this.slowdown < medianRate && rate < ansRate) {
+                    ans = i;
+                    ansRate = rate;
+                }
+            }
+        }
+        if (ans >= 0) {
+            this.speculated[ans] = true;
+            this.numSpeculated++;
+        }
+        return ans;
+    }
+
+    /**
+     * Tests whether all the chunks have been finished
+     */
+    public synchronized boolean isFinished() {
+        return this.numCompleted == this.numChunks;
+    }
+
+    /**
+     * Returns number of chunks processed speculatively
+     */
+    public synchronized int getNumSpeculated() {
+        return this.numSpeculated;
+    }
+
+    /**
+     * Returns number of chunks where a speculative attempt finished first
+     */
+    public synchronized int getNumSpeculativeWins() {
+        return this.numSpeculativeWins;
+    }
+}
@@ -35,11 +35,14 @@ public class CmdConfig implements ServiceConfig {
 
     private final String geoipDbPath;
 
+    private final ProcessingConf processingConf;
+
     public CmdConfig(String scriptId, SourceCode userScript, String libPath,
                      String geoipDbPath) {
         this.scriptId = scriptId;
         this.scriptConfig = new InternalScriptConfig(userScript, libPath);
         this.geoipDbPath = geoipDbPath;
+        this.processingConf = new ProcessingConf();
     }
 
     @Override
@@ -82,5 +85,10 @@ public class CmdConfig implements ServiceConfig {
         return this.geoipDbPath;
     }
 
+    @Override
+    public ProcessingConf getProcessingConf() {
+        return this.processingConf;
+    }
+
 
 }
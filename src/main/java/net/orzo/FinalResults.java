@@ -16,19 +16,33 @@
 package net.orzo;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
 
 import jdk.nashorn.internal.runtime.ScriptFunction;
 
 /**
+ * Provides access to the final results of a calculation (i.e. to the output
+ * of the last REDUCE phase) in the FINISH phase.
+ *
+ * Keys are sorted only once (on the first request) and the sorted index
+ * is reused. Top N keys by a value are selected via bounded heaps without
+ * sorting all the keys (large key sets are processed in parallel).
+ *
  * @author Tomas Machalek <tomas.machalek@gmail.com>
  */
 @SuppressWarnings("restriction")
 public class FinalResults {
 
+    /**
+     * Key sets with at least this number of keys are searched for top N keys
+     * in parallel
+     */
+    static final int PARALLEL_TOP_THRESHOLD = 100000;
+
     /**
      * To make Nashorn expose FinalResults' 'sorted' property (which is an
      * anonymous class) a public interface must be defined.
@@ -42,6 +56,11 @@ public class FinalResults {
      */
     private final IntermediateResults results;
 
+    /**
+     * Lazily created sorted index of keys
+     */
+    private String[] sortedKeys;
+
     /**
      *
      */
@@ -55,23 +74,23 @@ public class FinalResults {
      *
      * @param key a result entry key
      */
-    public Collection<Object> get(String key) {
-        return this.results.getData().get(key);
+    public List<Object> get(String key) {
+        return this.results.values(key);
     }
 
     /**
      *
      */
     public boolean contains(String key) {
-        return this.results.getData().containsKey(key);
+        return this.results.containsKey(key);
     }
 
     /**
      *
      */
-    public List<Object> keys(boolean sorted) {
+    public List<String> keys(boolean sorted) {
         if (sorted) {
-            return sortedKeys();
+            return Collections.unmodifiableList(Arrays.asList(sortedKeys()));
 
         } else {
             return new ArrayList<>(this.results.keys());
@@ -80,11 +99,116 @@ public class FinalResults {
 
     /**
      */
-    private List<Object> sortedKeys() {
-        List<Object> keys = new ArrayList<>(this.results.keys());
+    private synchronized String[] sortedKeys() {
+        if (this.sortedKeys == null) {
+            String[] keys = this.results.keys().toArray(new String[0]);
+            Arrays.parallelSort(keys);
+            this.sortedKeys = keys;
+        }
+        return this.sortedKeys;
+    }
+
+    /**
+     * Returns a value of the key used to rank keys in case no custom ranking
+     * is provided - the first value of the key in case it is a number
+     * (NaN otherwise).
+     */
+    private double defaultScore(String key) {
+        List<Object> values = this.results.values(key);
+        if (values instanceof NumericValueList) {
+            return ((NumericValueList) values).getNumber(0);
+
+        } else if (values.size() > 0 && values.get(0) instanceof Number) {
+            return ((Number) values.get(0)).doubleValue();
+        }
+        return Double.NaN;
+    }
 
-        Comparator<Object> cmp = (Object o1, Object o2) -> o1.toString().compareTo(o2.toString());
-        Collections.sort(keys, cmp);
-        return keys;
+    /**
+     * Returns (at most) n keys with the highest first value. Keys with
+     * a non-numeric first value are ignored.
+     */
+    public List<String> top(int n) {
+        String[] keys = this.results.keys().toArray(new String[0]);
+        double[] scores = new double[keys.length];
+        IntStream range = IntStream.range(0, keys.length);
+        if (keys.length >= PARALLEL_TOP_THRESHOLD) {
+            range = range.parallel();
+        }
+        range.forEach(i -> scores[i] = defaultScore(keys[i]));
+        return selectTop(keys, scores, n);
+    }
+
+    /**
+     * Returns (at most) n keys with the highest scores. Keys with
+     * a NaN score are ignored.
+     *
+     * @param keys keys to be ranked
+     * @param scores scores of respective keys
+     */
+    public List<String> top(int n, List<String> keys, double[] scores) {
+        if (keys.size() != scores.length) {
+            throw new IllegalArgumentException("Number of keys and scores must be the same");
+        }
+        return selectTop(keys.toArray(new String[0]), scores, n);
+    }
+
+    /**
+     * Orders by score (higher first), ties are ordered by key
+     */
+    private static int compareItems(String[] keys, double[] scores, int i1, int i2) {
+        int ans = Double.compare(scores[i2], scores[i1]);
+        return ans != 0 ? ans : keys[i1].compareTo(keys[i2]);
+    }
+
+    /**
+     * Finds top n items of a range using a min-heap of max. size n
+     *
+     * @return indices of the found items (unordered)
+     */
+    private static List<Integer> selectTopInRange(String[] keys, double[] scores, int n,
+                                                  int from, int to) {
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, n),
+                (i1, i2) -> compareItems(keys, scores, i2, i1));
+        for (int i = from; i < to; i++) {
+            if (Double.isNaN(scores[i])) {
+                continue;
+            }
+            if (heap.size() < n) {
+                heap.add(i);
+
+            } else if (compareItems(keys, scores, i, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        return new ArrayList<>(heap);
+    }
+
+    /**
+     * Selects top n keys by their scores. Large arrays are split into segments
+     * searched in parallel and their candidates are merged.
+     */
+    static List<String> selectTop(String[] keys, double[] scores, int n) {
+        List<Integer> candidates = new ArrayList<>();
+        if (n > 0) {
+            if (keys.length < PARALLEL_TOP_THRESHOLD) {
+                candidates.addAll(selectTopInRange(keys, scores, n, 0, keys.length));
+
+            } else {
+                int numSegments = Runtime.getRuntime().availableProcessors() * 4;
+                int segmentSize = (keys.length + numSegments - 1) / numSegments;
+                IntStream.range(0, numSegments).parallel()
+                        .mapToObj(i -> selectTopInRange(keys, scores, n, i * segmentSize,
+                                Math.min(keys.length, (i + 1) * segmentSize)))
+                        .forEachOrdered(candidates::addAll);
+            }
+        }
+        Collections.sort(candidates, (i1, i2) -> compareItems(keys, scores, i1, i2));
+        List<String> ans = new ArrayList<>();
+        for (int idx : candidates.subList(0, Math.min(n, candidates.size()))) {
+            ans.add(keys[idx]);
+        }
+        return ans;
     }
 }
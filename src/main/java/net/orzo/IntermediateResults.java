@@ -15,43 +15,78 @@
  */
 package net.orzo;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.*;
+import net.orzo.spill.ValueCodec;
 
 /**
  * Represents intermediate results of a single worker thread. These results are
  * merged before the <i>reduce</i> function is applied. It basically wraps
  * {@link Multimap} object and provides only required methods.
  *
+ * Numbers added via {@link #addNumber(String, double)} are stored separately
+ * in primitive arrays (see {@link NumericValueList}). Methods returning values
+ * of a key transparently join both kinds of values.
+ *
  * @author Tomas Machalek <tomas.machalek@gmail.com>
  */
 public class IntermediateResults {
 
+    /**
+     * Approximate memory needed by a key entry (a string object, a hash map
+     * entry and a list of values) excluding the key's characters
+     */
+    private static final int ESTIMATED_KEY_OVERHEAD = 120;
+
+    /**
+     * Approximate memory needed by a non-numeric value (a reference and
+     * a small object)
+     */
+    private static final int ESTIMATED_VALUE_SIZE = 32;
+
     /**
      *
      */
     private final ListMultimap<String, Object> data;
 
+    /**
+     * Numbers stored without boxing
+     */
+    private final Map<String, NumericValueList> numbers;
+
+    /**
+     * Total number of values stored in {@link #numbers}
+     */
+    private int numNumbers;
+
     /**
      *
      */
     @Override
     public String toString() {
-        return this.data.toString();
+        if (this.numbers.isEmpty()) {
+            return this.data.toString();
+        }
+        return String.format("%s, numbers: %s", this.data, this.numbers);
     }
 
     public IntermediateResults(ListMultimap<String, Object> data) {
         this.data = data;
+        this.numbers = new HashMap<>();
     }
 
     /**
      *
      */
     public IntermediateResults() {
-        this.data = ArrayListMultimap.create();
+        this(ArrayListMultimap.create());
     }
 
     /**
@@ -59,7 +94,7 @@ public class IntermediateResults {
      * @return
      */
     public int size() {
-        return this.data.size();
+        return this.data.size() + this.numNumbers;
     }
 
     /**
@@ -76,41 +111,221 @@ public class IntermediateResults {
         this.data.put(key, value);
     }
 
+    /**
+     * Adds a number with specified key. The number is stored in a primitive
+     * array (i.e. without boxing).
+     *
+     * @throws NullPointerException if a null key is used
+     */
+    public void addNumber(String key, double value) {
+        if (key == null) {
+            throw new NullPointerException("Cannot add null key");
+        }
+        this.numbers.computeIfAbsent(key, k -> new NumericValueList()).addNumber(value);
+        this.numNumbers++;
+    }
+
+    /**
+     * Adds a number to a running sum of the key's numbers. This is intended for
+     * reduce functions processing only a sum of values (additive reduce) where
+     * there is no need to store individual values.
+     *
+     * @throws NullPointerException if a null key is used
+     */
+    public void addToSum(String key, double value) {
+        NumericValueList values = this.numbers.get(key);
+        if (values == null || values.size() == 0) {
+            addNumber(key, value);
+
+        } else {
+            values.addToLast(value);
+        }
+    }
+
+    /**
+     * Replaces all the values of the key by a single value. This is intended
+     * for accumulators of fold-style reduce where only one value per key is
+     * ever stored.
+     *
+     * @throws NullPointerException if a null key is used
+     */
+    public void set(String key, Object value) {
+        if (value instanceof Double || value instanceof Integer || value instanceof Long) {
+            NumericValueList nums = this.numbers.get(key);
+            if (nums != null && nums.size() == 1 && !this.data.containsKey(key)) {
+                nums.setLast(((Number) value).doubleValue());
+
+            } else {
+                discard(key);
+                addNumber(key, ((Number) value).doubleValue());
+            }
+
+        } else {
+            List<Object> values = this.data.get(key);
+            if (values.size() == 1 && !this.numbers.containsKey(key)) {
+                values.set(0, value);
+
+            } else {
+                discard(key);
+                add(key, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the most recently added value of the key (or null if there is
+     * no such key). In case the key has both numbers and other values,
+     * the last number is returned.
+     */
+    public Object getLast(String key) {
+        NumericValueList nums = this.numbers.get(key);
+        if (nums != null && nums.size() > 0) {
+            return nums.getNumber(nums.size() - 1);
+        }
+        List<Object> values = this.data.get(key);
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
     public void addMultiple(String key, List<?> values) {
-        this.data.putAll(key, values);
+        if (values instanceof NumericValueList) {
+            if (key == null) {
+                throw new NullPointerException("Cannot add null key");
+            }
+            this.numbers.computeIfAbsent(key, k -> new NumericValueList()).addAll(values);
+            this.numNumbers += values.size();
+
+        } else {
+            this.data.putAll(key, values);
+        }
     }
 
     /**
+     * Removes all the values of the key and returns them
+     *
      * @param key
      * @return
      */
-    public List<?> remove(String key) {
-        return new ArrayList<>(this.data.removeAll(key));
+    public List<Object> remove(String key) {
+        NumericValueList nums = this.numbers.remove(key);
+        if (nums == null) {
+            return new ArrayList<>(this.data.removeAll(key));
+        }
+        this.numNumbers -= nums.size();
+        List<Object> values = this.data.removeAll(key);
+        if (values.isEmpty()) {
+            return nums;
+        }
+        List<Object> ans = new ArrayList<>(values);
+        ans.addAll(nums);
+        return ans;
+    }
+
+    /**
+     * Removes all the values of the key without returning them
+     */
+    public void discard(String key) {
+        this.data.removeAll(key);
+        NumericValueList nums = this.numbers.remove(key);
+        if (nums != null) {
+            this.numNumbers -= nums.size();
+        }
+    }
+
+    /**
+     * Sets how stored arrays, objects and dates are decoded. This applies
+     * only to implementations storing values in an encoded form
+     * (e.g. {@link OffHeapIntermediateResults}), values stored as they are
+     * are not affected.
+     */
+    public void setValueFactory(ValueCodec.ValueFactory valueFactory) {
+    }
+
+    /**
+     * Removes all the keys and values
+     */
+    public void clear() {
+        this.data.clear();
+        this.numbers.clear();
+        this.numNumbers = 0;
     }
 
     /**
      * Returns set of all keys (i.e. values are unique)
      */
     public Set<String> keys() {
-        return this.data.keySet();
+        if (this.numbers.isEmpty()) {
+            return this.data.keySet();
+        }
+        return Sets.union(this.data.keySet(), this.numbers.keySet());
+    }
+
+    /**
+     * Returns a rough estimate of memory (in bytes) retained by the keys and
+     * values. Each non-numeric value is counted with a fixed size regardless
+     * of its actual contents.
+     */
+    public long estimateRetainedSize() {
+        long ans = 0;
+        for (String key : keys()) {
+            ans += ESTIMATED_KEY_OVERHEAD + 2L * key.length();
+        }
+        return ans + (long) this.data.size() * ESTIMATED_VALUE_SIZE
+                + (long) this.numNumbers * Double.BYTES;
     }
 
     /**
      * @return
      */
     public int numKeys() {
-        return this.data.keySet().size();
+        return keys().size();
     }
 
     /**
-     * Returns all results attached to the specified key
+     * Tests whether there is at least one value of the key
+     */
+    public boolean containsKey(String key) {
+        return this.data.containsKey(key) || this.numbers.containsKey(key);
+    }
+
+    /**
+     * Returns all results attached to the specified key. In case the key has
+     * both numbers added via {@link #addNumber(String, double)} and other
+     * values, a snapshot of all the values is returned. Otherwise the returned
+     * list is a view of the stored values.
      */
     public List<Object> values(String key) {
-        return this.data.get(key);
+        NumericValueList nums = this.numbers.get(key);
+        if (nums == null) {
+            return this.data.get(key);
+
+        } else if (!this.data.containsKey(key)) {
+            return nums;
+        }
+        List<Object> ans = new ArrayList<>(this.data.get(key));
+        ans.addAll(nums);
+        return ans;
     }
 
     /**
-     *
+     * Returns numbers of the key stored without boxing (or null if there
+     * are none)
+     */
+    protected NumericValueList numericValues(String key) {
+        return this.numbers.get(key);
+    }
+
+    /**
+     * Writes all the values of the key encoded by {@link ValueCodec}
+     */
+    public void writeValues(String key, DataOutput out) throws IOException {
+        for (Object value : values(key)) {
+            ValueCodec.write(out, value);
+        }
+    }
+
+    /**
+     * Returns stored values except for numbers added via
+     * {@link #addNumber(String, double)}
      */
     public Multimap<String, Object> getData() {
         return this.data;
@@ -133,6 +348,9 @@ public class IntermediateResults {
                     "Cannot add self as a result to merge");
         }
         this.data.putAll(another.data);
+        for (Map.Entry<String, NumericValueList> item : another.numbers.entrySet()) {
+            addMultiple(item.getKey(), item.getValue());
+        }
     }
 
 }
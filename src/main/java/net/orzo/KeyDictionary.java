@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A symbol table of emitted keys shared by all the workers of a calculation.
+ * Each distinct key is stored only once (workers store the canonical
+ * instance returned by {@link #intern(String)} instead of their own copies)
+ * and it is assigned a compact integer id which can be used instead of
+ * the string (e.g. in spill files).
+ *
+ * The table is split into stripes (selected by a key's hash) with their own
+ * locks so workers adding keys concurrently rarely block each other. Ids are
+ * interleaved among stripes: id = local index * number of stripes + stripe
+ * index.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class KeyDictionary {
+
+    public static final int DEFAULT_NUM_STRIPES = 64;
+
+    private final Stripe[] stripes;
+
+    /**
+     * A part of the table guarded by its own lock
+     */
+    private static class Stripe {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private final List<String> keys = new ArrayList<>();
+    }
+
+    public KeyDictionary(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be >= 1");
+        }
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    public KeyDictionary() {
+        this(DEFAULT_NUM_STRIPES);
+    }
+
+    private int stripeIdx(String key) {
+        int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % this.stripes.length;
+    }
+
+    /**
+     * Returns an id of the key. A new id is assigned in case the key is
+     * not stored yet.
+     *
+     * @throws NullPointerException in case of a null key
+     */
+    public int idOf(String key) {
+        int stripeIdx = stripeIdx(key);
+        Stripe stripe = this.stripes[stripeIdx];
+        synchronized (stripe) {
+            Integer localIdx = stripe.ids.get(key);
+            if (localIdx == null) {
+                localIdx = stripe.keys.size();
+                stripe.ids.put(key, localIdx);
+                stripe.keys.add(key);
+            }
+            return localIdx * this.stripes.length + stripeIdx;
+        }
+    }
+
+    /**
+     * Returns a canonical instance of the key (the key is stored in case
+     * it is not stored yet).
+     *
+     * @throws NullPointerException in case of a null key
+     */
+    public String intern(String key) {
+        Stripe stripe = this.stripes[stripeIdx(key)];
+        synchronized (stripe) {
+            Integer localIdx = stripe.ids.get(key);
+            if (localIdx == null) {
+                stripe.ids.put(key, stripe.keys.size());
+                stripe.keys.add(key);
+                return key;
+            }
+            return stripe.keys.get(localIdx);
+        }
+    }
+
+    /**
+     * Returns a key identified by the id
+     *
+     * @throws IllegalArgumentException in case of an unknown id
+     */
+    public String keyOf(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException(String.format("Invalid key id %d", id));
+        }
+        Stripe stripe = this.stripes[id % this.stripes.length];
+        int localIdx = id / this.stripes.length;
+        synchronized (stripe) {
+            if (localIdx >= stripe.keys.size()) {
+                throw new IllegalArgumentException(String.format("Unknown key id %d", id));
+            }
+            return stripe.keys.get(localIdx);
+        }
+    }
+
+    /**
+     * Returns number of stored keys
+     */
+    public int size() {
+        int ans = 0;
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                ans += stripe.keys.size();
+            }
+        }
+        return ans;
+    }
+}
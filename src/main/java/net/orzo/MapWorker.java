@@ -15,44 +15,202 @@
  */
 package net.orzo;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
+import net.orzo.scripting.EnvParams;
 import net.orzo.scripting.JsEngineAdapter;
 
 /**
- * Handles a processing thread of a single data chunk. The result is returned as
- * {@link IntermediateResults} object.
+ * Handles a processing slot of the MAP phase. The worker takes data chunks
+ * from a shared queue until there are no more of them. User's script is
+ * loaded only once, each chunk is then processed with its own workerId.
+ * Results of all the processed chunks are available as a single
+ * {@link PartitionedResults} object.
+ *
+ * Each call processes a single chunk so the worker can be resubmitted to
+ * a shared thread pool and threads are fairly shared among calculations.
+ *
+ * In case the queue supports speculative execution, each chunk is emitted
+ * into its own results (so the output of an attempt which loses can be
+ * dropped) and once there are no unprocessed chunks, the worker processes
+ * stragglers of other workers until all the chunks are finished.
  * 
  * @author Tomas Machalek <tomas.machalek@gmail.com>
  * 
  */
-public class MapWorker implements Callable<IntermediateResults> {
+public class MapWorker implements Callable<Boolean> {
 
     private final JsEngineAdapter jsEngine;
 
+    private final EnvParams envParams;
+
+    private final ChunkQueue chunks;
+
     private final CalculationParams params;
 
     /**
-     *
+     * Creates results for a single chunk (speculative mode only)
+     */
+    private final Supplier<PartitionedResults> chunkResults;
+
+    private final List<PartitionedResults> results;
+
+    private final CalculationMetrics.Worker metrics;
+
+    private boolean initialized;
+
+    private boolean finished;
+
+    /**
+     * True if the last call found neither a chunk nor a straggler to process
+     */
+    private boolean idle;
+
+    /**
+     * @param jsEngine a JS engine the worker will be using to process its task
+     * @param envParams environment parameters of the engine (the workerId
+     *                  is updated for each processed chunk)
+     * @param chunks a queue of chunks shared by all the map workers
+     * @param params
+     */
+    public MapWorker(JsEngineAdapter jsEngine, EnvParams envParams, ChunkQueue chunks,
+                     CalculationParams params) {
+        this(jsEngine, envParams, chunks, params, null, new CalculationMetrics.Worker(envParams.workerId));
+    }
+
+    /**
+     * @param jsEngine a JS engine the worker will be using to process its task
+     * @param envParams environment parameters of the engine (the workerId
+     *                  is updated for each processed chunk)
+     * @param chunks a queue of chunks shared by all the map workers
+     * @param params
+     * @param chunkResults creates results for each processed chunk (required
+     *                     if the queue supports speculative execution)
+     * @param metrics where the worker's performance metrics are recorded
      */
-    public MapWorker(JsEngineAdapter jsEngine, CalculationParams params) {
+    public MapWorker(JsEngineAdapter jsEngine, EnvParams envParams, ChunkQueue chunks,
+                     CalculationParams params, Supplier<PartitionedResults> chunkResults,
+                     CalculationMetrics.Worker metrics) {
         this.jsEngine = jsEngine;
+        this.envParams = envParams;
+        this.chunks = chunks;
         this.params = params;
+        this.chunkResults = chunkResults;
+        this.results = new ArrayList<>();
+        this.metrics = metrics;
+        if (chunks.isSpeculative() && chunkResults == null) {
+            throw new IllegalArgumentException("Speculative execution requires results per chunk");
+        }
     }
 
     /**
+     * Processes a next chunk from the queue (the script is loaded first if
+     * necessary). Once the queue is exhausted, COMBINE is run.
      *
+     * @return true if the worker should be called again, false if it is finished
      */
     @Override
-    public IntermediateResults call() throws Exception {
-        this.jsEngine.beginWork();
-        this.jsEngine.runCode(this.params.calculationScript, this.params.userenvScript,
-                this.params.datalibScript);
-        this.jsEngine.runFunction("initMap");
-        this.jsEngine.runCode(this.params.userScript);
-        this.jsEngine.runFunction("runMap");
+    public Boolean call() throws Exception {
+        if (this.finished) {
+            return false;
+        }
+        this.metrics.startMeasure();
+        try {
+            if (!this.initialized) {
+                long setupStart = System.nanoTime();
+                this.jsEngine.beginWork();
+                this.jsEngine.runCode(this.params.calculationScript, this.params.userenvScript,
+                        this.params.datalibScript);
+                this.jsEngine.runFunction("initMap");
+                this.metrics.addSetupTime(System.nanoTime() - setupStart);
+                this.jsEngine.runCode(this.params.userScript);
+                this.initialized = true;
+            }
+            if (this.chunks.isSpeculative()) {
+                return callSpeculative();
+            }
+            int chunkIdx = this.chunks.next();
+            if (chunkIdx >= 0) {
+                this.envParams.workerId = chunkIdx;
+                this.jsEngine.runFunction("runMap", chunkIdx, null, this.metrics);
+                return true;
+            }
+            this.jsEngine.runFunction("runCombine");
+            this.jsEngine.endWork();
+            this.results.add(this.jsEngine.getResults());
+            this.metrics.addOutput(this.jsEngine.getResults());
+            this.finished = true;
+            return false;
+
+        } finally {
+            this.metrics.stopMeasure();
+        }
+    }
+
+    private boolean callSpeculative() throws Exception {
+        boolean speculative = false;
+        int chunkIdx = this.chunks.next();
+        if (chunkIdx < 0) {
+            chunkIdx = this.chunks.nextStraggler();
+            speculative = true;
+        }
+        this.idle = chunkIdx < 0 && !this.chunks.isFinished();
+        if (chunkIdx >= 0) {
+            PartitionedResults chunkOutput = this.chunkResults.get();
+            ChunkQueue.Attempt attempt = this.chunks.attempt(chunkIdx, speculative);
+            this.envParams.workerId = chunkIdx;
+            this.jsEngine.setResults(chunkOutput);
+            if (Boolean.TRUE.equals(this.jsEngine.runFunction("runMap", chunkIdx, attempt,
+                    this.metrics))) {
+                this.jsEngine.runFunction("runCombine");
+                if (attempt.complete()) {
+                    this.results.add(chunkOutput);
+                    this.metrics.addOutput(chunkOutput);
+                }
+            }
+            return true;
+
+        } else if (this.idle) {
+            return true; // the caller decides when to try again
+        }
         this.jsEngine.endWork();
-        return this.jsEngine.getIntermediateResults();
+        this.finished = true;
+        return false;
+    }
+
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    /**
+     * Returns absolute paths of the files read by the worker
+     */
+    public Set<String> getInputFiles() {
+        return this.jsEngine.getInputFiles();
+    }
+
+    /**
+     * Tests whether the worker has nothing to do at the moment (speculative
+     * mode only) - all the chunks are taken but some of them are still being
+     * processed by other workers. Such a worker should be called again later
+     * (once a chunk is finished or a straggler may appear).
+     */
+    public boolean isIdle() {
+        return this.idle;
+    }
+
+    /**
+     * Returns results of all the processed chunks (a single object or,
+     * in case of speculative execution, one object per chunk won by
+     * the worker)
+     */
+    public List<PartitionedResults> getResults() {
+        return Collections.unmodifiableList(this.results);
     }
 
 }
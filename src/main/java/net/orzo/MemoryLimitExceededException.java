@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+/**
+ * Thrown when a calculation is stopped to prevent the whole process from
+ * running out of memory.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MemoryLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = -3856320563196413716L;
+
+    public MemoryLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+/**
+ * Allows code holding large amounts of data (e.g. results of workers)
+ * to react to a shortage of heap memory.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public interface MemoryPressure {
+
+    /**
+     * Tests current memory pressure. In case memory is short and the caller
+     * cannot release any data, the method may block for a while to slow
+     * down producers of new data.
+     *
+     * @param canRelease true if the caller is able to release data it holds
+     *                   (e.g. by spilling them to disk)
+     * @return true if the caller should release data it holds
+     * @throws MemoryLimitExceededException in case the calculation must be stopped
+     */
+    boolean check(boolean canRelease);
+
+    /**
+     * Tests whether the calculation has been stopped to release memory
+     */
+    boolean isStopped();
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of numbers backed by a primitive array. It stores values emitted via
+ * emitNumber() and emitCount() without any boxing (which takes roughly five
+ * times less memory than a list of Double objects).
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class NumericValueList extends AbstractList<Object> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private double[] values;
+
+    private int size;
+
+    public NumericValueList() {
+        this.values = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends a number
+     */
+    public void addNumber(double value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
+        this.values[this.size++] = value;
+        this.modCount++;
+    }
+
+    /**
+     * Adds a number to the last value of the list (or appends the number in
+     * case the list is empty). This allows keeping a running sum instead of
+     * storing individual values.
+     */
+    public void addToLast(double value) {
+        if (this.size == 0) {
+            addNumber(value);
+
+        } else {
+            this.values[this.size - 1] += value;
+        }
+    }
+
+    /**
+     * Replaces the last value of the list (or appends the number in case
+     * the list is empty).
+     */
+    public void setLast(double value) {
+        if (this.size == 0) {
+            addNumber(value);
+
+        } else {
+            this.values[this.size - 1] = value;
+        }
+    }
+
+    /**
+     * Returns index-th number
+     */
+    public double getNumber(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, size: %d", index, this.size));
+        }
+        return this.values[index];
+    }
+
+    /**
+     * Returns a copy of the numbers as a primitive array (which can
+     * be efficiently converted to a JavaScript array)
+     */
+    public double[] toDoubleArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    /**
+     * @throws IllegalArgumentException in case the value is not a number
+     */
+    @Override
+    public boolean add(Object value) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Only numbers can be added to NumericValueList");
+        }
+        addNumber(((Number) value).doubleValue());
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<?> values) {
+        if (values instanceof NumericValueList) {
+            NumericValueList other = (NumericValueList) values;
+            int newSize = this.size + other.size;
+            if (newSize > this.values.length) {
+                this.values = Arrays.copyOf(this.values, Math.max(newSize, this.values.length * 2));
+            }
+            System.arraycopy(other.values, 0, this.values, this.size, other.size);
+            this.size = newSize;
+            this.modCount++;
+            return other.size > 0;
+        }
+        return super.addAll(values);
+    }
+
+    @Override
+    public Object get(int index) {
+        return getNumber(index);
+    }
+
+    @Override
+    public Object remove(int index) {
+        double ans = getNumber(index);
+        System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+        this.size--;
+        this.modCount++;
+        return ans;
+    }
+
+    @Override
+    public void clear() {
+        this.size = 0;
+        this.modCount++;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+}
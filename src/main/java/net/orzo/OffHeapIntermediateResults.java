@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Multimaps;
+import net.orzo.offheap.ArenaValueList;
+import net.orzo.offheap.ValueArena;
+import net.orzo.spill.ValueCodec;
+
+/**
+ * Intermediate results storing values outside of the Java heap. Keys
+ * remain on heap, each of them with a compact list of addresses of its
+ * encoded values (see {@link ValueArena}). Values are decoded lazily each
+ * time they are accessed which makes emitting a little slower but it removes
+ * most of the garbage collector's work during the MAP phase.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class OffHeapIntermediateResults extends IntermediateResults {
+
+    private final ValueArena arena;
+
+    /**
+     * The map backing the multimap - it provides direct access to the
+     * address lists
+     */
+    private final Map<String, Collection<Object>> lists;
+
+    /**
+     *
+     */
+    public OffHeapIntermediateResults() {
+        this(new ValueArena(), new HashMap<>());
+    }
+
+    private OffHeapIntermediateResults(ValueArena arena, Map<String, Collection<Object>> lists) {
+        super(Multimaps.newListMultimap(lists, () -> new ArenaValueList(arena)));
+        this.arena = arena;
+        this.lists = lists;
+    }
+
+    @Override
+    public void setValueFactory(ValueCodec.ValueFactory valueFactory) {
+        this.arena.setValueFactory(valueFactory);
+    }
+
+    /**
+     * Writes all the values of the key encoded by {@link ValueCodec} without
+     * creating any script objects.
+     */
+    @Override
+    public void writeValues(String key, DataOutput out) throws IOException {
+        Collection<Object> values = this.lists.get(key);
+        if (values != null) {
+            ArenaValueList arenaValues = (ArenaValueList) values;
+            for (int i = 0; i < arenaValues.size(); i++) {
+                arenaValues.copyTo(i, out);
+            }
+        }
+        NumericValueList numbers = numericValues(key);
+        if (numbers != null) {
+            for (int i = 0; i < numbers.size(); i++) {
+                ValueCodec.write(out, numbers.getNumber(i));
+            }
+        }
+    }
+
+    /**
+     * Returns number of bytes allocated outside of the heap
+     */
+    public long getAllocatedBytes() {
+        return this.arena.getAllocatedBytes();
+    }
+
+    /**
+     * Includes values stored outside of the heap
+     */
+    @Override
+    public long estimateRetainedSize() {
+        return super.estimateRetainedSize() + getAllocatedBytes();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        this.arena.clear();
+    }
+}
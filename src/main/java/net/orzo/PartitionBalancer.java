@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.orzo.spill.RunFile;
+
+/**
+ * Assigns partitions of emitted data to reduce workers in a way that each
+ * worker processes roughly the same number of values. Emitted data are split
+ * into more partitions than there are workers and the partitions are
+ * distributed using the LPT (longest processing time first) rule - the
+ * largest unassigned partition always goes to the least loaded worker.
+ *
+ * Because all the values of a key must be processed by a single worker, a key
+ * with a huge number of values cannot be split. Such "hot" keys are at least
+ * detected and reported.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class PartitionBalancer {
+
+    /**
+     * Max. number of hot keys listed in a report
+     */
+    private static final int MAX_REPORTED_HOT_KEYS = 5;
+
+    private final List<List<Integer>> assignment;
+
+    private final long[] workerLoads;
+
+    private final Map<String, Long> hotKeys;
+
+    /**
+     *
+     */
+    private static class WorkerLoad implements Comparable<WorkerLoad> {
+
+        private final int idx;
+
+        private long load;
+
+        WorkerLoad(int idx) {
+            this.idx = idx;
+        }
+
+        @Override
+        public int compareTo(WorkerLoad o) {
+            int ans = Long.compare(this.load, o.load);
+            return ans != 0 ? ans : Integer.compare(this.idx, o.idx);
+        }
+    }
+
+    /**
+     * @param results results of the previous phase (all the workers)
+     * @param numWorkers max. number of reduce workers
+     */
+    public PartitionBalancer(List<PartitionedResults> results, int numWorkers) {
+        int numPartitions = results.size() > 0 ? results.get(0).getNumPartitions() : 0;
+        long[] partitionSizes = new long[numPartitions];
+        List<Integer> nonEmpty = new ArrayList<>();
+
+        for (int i = 0; i < numPartitions; i++) {
+            for (PartitionedResults item : results) {
+                partitionSizes[i] += item.partitionSize(i);
+            }
+            if (partitionSizes[i] > 0) {
+                nonEmpty.add(i);
+            }
+        }
+        Collections.sort(nonEmpty, (p1, p2) -> Long.compare(partitionSizes[p2], partitionSizes[p1]));
+
+        int calcNumWorkers = Math.min(numWorkers, nonEmpty.size()); // cannot use more workers than partitions
+        this.assignment = new ArrayList<>();
+        this.workerLoads = new long[calcNumWorkers];
+        PriorityQueue<WorkerLoad> loads = new PriorityQueue<>();
+        for (int i = 0; i < calcNumWorkers; i++) {
+            this.assignment.add(new ArrayList<>());
+            loads.add(new WorkerLoad(i));
+        }
+        for (int partitionIdx : nonEmpty) {
+            WorkerLoad worker = loads.poll();
+            this.assignment.get(worker.idx).add(partitionIdx);
+            worker.load += partitionSizes[partitionIdx];
+            this.workerLoads[worker.idx] = worker.load;
+            loads.add(worker);
+        }
+        this.hotKeys = findHotKeys(results, partitionSizes, getMeanLoad());
+    }
+
+    /**
+     * Searches for keys which have at least as many values as an average
+     * worker has to process. Only partitions large enough to contain such
+     * a key are examined. Values held in memory are counted exactly, spilled
+     * values only for the keys recorded as the largest ones of their runs
+     * (see {@link RunFile#getLargestKeys()}).
+     */
+    private static Map<String, Long> findHotKeys(List<PartitionedResults> results,
+                                                 long[] partitionSizes, double meanLoad) {
+        Map<String, Long> ans = new HashMap<>();
+        for (int i = 0; i < partitionSizes.length; i++) {
+            if (partitionSizes[i] < meanLoad || meanLoad == 0) {
+                continue;
+            }
+            Map<String, Long> counts = new HashMap<>();
+            for (PartitionedResults item : results) {
+                IntermediateResults partition = item.getPartition(i);
+                for (String key : partition.keys()) {
+                    counts.merge(key, (long) partition.values(key).size(), Long::sum);
+                }
+                for (RunFile run : item.getRuns(i)) {
+                    run.getLargestKeys().forEach((key, count) -> counts.merge(key, (long) count, Long::sum));
+                }
+            }
+            counts.forEach((key, count) -> {
+                if (count >= meanLoad) {
+                    ans.put(key, count);
+                }
+            });
+        }
+        return ans;
+    }
+
+    /**
+     * Returns number of workers with assigned work
+     */
+    public int getNumWorkers() {
+        return this.assignment.size();
+    }
+
+    /**
+     * Returns partitions (their indices) assigned to a worker
+     */
+    public List<Integer> getPartitions(int workerIdx) {
+        return this.assignment.get(workerIdx);
+    }
+
+    /**
+     * Returns an average number of values per worker
+     */
+    public double getMeanLoad() {
+        long total = 0;
+        for (long load : this.workerLoads) {
+            total += load;
+        }
+        return this.workerLoads.length > 0 ? (double) total / this.workerLoads.length : 0;
+    }
+
+    /**
+     * Returns a number of values the most loaded worker has to process
+     */
+    public long getMaxLoad() {
+        long ans = 0;
+        for (long load : this.workerLoads) {
+            ans = Math.max(ans, load);
+        }
+        return ans;
+    }
+
+    /**
+     * Returns ratio between the most loaded worker and an average worker
+     * (1 = perfectly balanced work)
+     */
+    public double getSkew() {
+        double mean = getMeanLoad();
+        return mean > 0 ? getMaxLoad() / mean : 1;
+    }
+
+    /**
+     * Returns keys with so many values that they alone exceed an average
+     * load of a worker (key => number of values)
+     */
+    public Map<String, Long> getHotKeys() {
+        return this.hotKeys;
+    }
+
+    /**
+     * Returns a human readable report of the assignment
+     */
+    public String getReport() {
+        List<Map.Entry<String, Long>> keys = new ArrayList<>(this.hotKeys.entrySet());
+        Collections.sort(keys, (e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+        List<String> items = new ArrayList<>();
+        for (Map.Entry<String, Long> item : keys.subList(0, Math.min(keys.size(), MAX_REPORTED_HOT_KEYS))) {
+            items.add(String.format("%s (%d)", item.getKey(), item.getValue()));
+        }
+        return String.format("workers: %d, max. load: %d, mean load: %01.1f, skew: %01.2f, hot keys: [%s]",
+                getNumWorkers(), getMaxLoad(), getMeanLoad(), getSkew(), String.join(", ", items));
+    }
+}
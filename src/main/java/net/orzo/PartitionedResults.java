@@ -0,0 +1,518 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Iterators;
+import net.orzo.spill.RunFile;
+import net.orzo.spill.SpillStorage;
+import net.orzo.spill.ValueCodec;
+
+/**
+ * Represents results emitted by a single worker split into a fixed number of
+ * partitions. A partition of an emitted key is determined by the key's hash
+ * which means that all the values of a key (no matter which worker emitted
+ * them) end up in partitions with the same index. A reduce worker can therefore
+ * process its partition without any global merge of all the results.
+ *
+ * The class provides the same methods as {@link IntermediateResults} so it can
+ * be used by scripts (via emit()) in the same way.
+ *
+ * In case a {@link SpillStorage} is provided and the number of values held
+ * in memory exceeds its threshold, all the partitions are written to sorted
+ * run files and cleared. Methods accessing keys and values then see only
+ * the data still held in memory, the spilled data must be read via
+ * {@link #getRuns(int)}.
+ *
+ * In case a {@link MemoryPressure} is provided, it is consulted regularly
+ * while data are added - under a memory pressure the data are spilled sooner
+ * (or, with no spill storage available, adding is slowed down).
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class PartitionedResults {
+
+    private final IntermediateResults[] partitions;
+
+    private final SpillStorage spillStorage;
+
+    /**
+     * Heap usage watch (null = not watched)
+     */
+    private final MemoryPressure memoryPressure;
+
+    private final List<List<RunFile>> runs;
+
+    /**
+     * Provides canonical instances of keys (null = keys are stored as they are)
+     */
+    private final KeyDictionary keyDictionary;
+
+    /**
+     * How often (in number of added values) the memory pressure is tested
+     */
+    private static final int PRESSURE_CHECK_INTERVAL = 4096;
+
+    /**
+     * Number of values added since the last check of the spill threshold
+     */
+    private int addedSinceCheck;
+
+    /**
+     * Number of values emitted so far
+     */
+    private long numEmitted;
+
+    /**
+     * Number of values added since the last spill or {@link #resetNumBuffered()}
+     * (a cheap estimate used to trigger the combine)
+     */
+    private int numBuffered;
+
+    /**
+     *
+     */
+    public PartitionedResults(int numPartitions) {
+        this(numPartitions, null, false, null);
+    }
+
+    /**
+     * @param spillStorage where data are written once they exceed the
+     *                     storage's threshold (null disables spilling)
+     * @param offHeap if true then values are stored outside of the Java
+     *                heap (see {@link OffHeapIntermediateResults})
+     * @param keyDictionary if not null then keys are replaced by their canonical
+     *                      instances shared by all the workers
+     */
+    public PartitionedResults(int numPartitions, SpillStorage spillStorage, boolean offHeap,
+                              KeyDictionary keyDictionary) {
+        this(numPartitions, spillStorage, offHeap, keyDictionary, null);
+    }
+
+    /**
+     * @param spillStorage where data are written once they exceed the
+     *                     storage's threshold (null disables spilling)
+     * @param offHeap if true then values are stored outside of the Java
+     *                heap (see {@link OffHeapIntermediateResults})
+     * @param keyDictionary if not null then keys are replaced by their canonical
+     *                      instances shared by all the workers
+     * @param memoryPressure if not null then data are spilled (or adding is slowed
+     *                       down) when memory is short
+     */
+    public PartitionedResults(int numPartitions, SpillStorage spillStorage, boolean offHeap,
+                              KeyDictionary keyDictionary, MemoryPressure memoryPressure) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be >= 1");
+        }
+        this.partitions = new IntermediateResults[numPartitions];
+        this.runs = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            this.partitions[i] = offHeap ? new OffHeapIntermediateResults() : new IntermediateResults();
+            this.runs.add(new ArrayList<>());
+        }
+        this.spillStorage = spillStorage;
+        this.keyDictionary = keyDictionary;
+        this.memoryPressure = memoryPressure;
+    }
+
+    /**
+     * Returns a canonical instance of the key in case a key dictionary
+     * is used
+     */
+    private String canonical(String key) {
+        return this.keyDictionary != null && key != null ? this.keyDictionary.intern(key) : key;
+    }
+
+    /**
+     * Returns an index of a partition the key belongs to
+     */
+    public static int partitionOf(String key, int numPartitions) {
+        return Math.floorMod(key.hashCode(), numPartitions);
+    }
+
+    /**
+     *
+     */
+    @Override
+    public String toString() {
+        return String.format("PartitionedResults {partitions: %d, keys: %d, values: %d}",
+                this.partitions.length, numKeys(), size());
+    }
+
+    /**
+     *
+     */
+    public int getNumPartitions() {
+        return this.partitions.length;
+    }
+
+    /**
+     *
+     */
+    public IntermediateResults getPartition(int idx) {
+        return this.partitions[idx];
+    }
+
+    /**
+     * Sets how values of all the partitions are decoded
+     * (see {@link IntermediateResults#setValueFactory(ValueCodec.ValueFactory)})
+     */
+    public void setValueFactory(ValueCodec.ValueFactory valueFactory) {
+        for (IntermediateResults partition : this.partitions) {
+            partition.setValueFactory(valueFactory);
+        }
+    }
+
+    /**
+     *
+     */
+    private IntermediateResults partitionFor(String key) {
+        if (key == null) {
+            throw new NullPointerException("Cannot add null key");
+        }
+        return this.partitions[partitionOf(key, this.partitions.length)];
+    }
+
+    /**
+     * Adds new value with specified key
+     *
+     * @param key
+     * @param value any value as required by user's script
+     * @throws NullPointerException if a null key is used
+     */
+    public void add(String key, Object value) {
+        partitionFor(key).add(canonical(key), value);
+        this.numEmitted++;
+        this.numBuffered++;
+        checkSpill(1);
+    }
+
+    /**
+     * Adds a number stored without boxing
+     * (see {@link IntermediateResults#addNumber(String, double)})
+     */
+    public void addNumber(String key, double value) {
+        partitionFor(key).addNumber(canonical(key), value);
+        this.numEmitted++;
+        this.numBuffered++;
+        checkSpill(1);
+    }
+
+    /**
+     * Adds a number to a running sum of the key
+     * (see {@link IntermediateResults#addToSum(String, double)})
+     */
+    public void addToSum(String key, double value) {
+        partitionFor(key).addToSum(canonical(key), value);
+        this.numEmitted++;
+        this.numBuffered++;
+        checkSpill(1);
+    }
+
+    /**
+     * Replaces all the values of the key by a single value
+     * (see {@link IntermediateResults#set(String, Object)})
+     */
+    public void set(String key, Object value) {
+        IntermediateResults partition = partitionFor(key);
+        boolean isNew = !partition.containsKey(key);
+        partition.set(canonical(key), value);
+        this.numEmitted++;
+        this.numBuffered++;
+        if (isNew) {
+            checkSpill(1);
+        }
+    }
+
+    /**
+     * Returns the most recently added value of the key which is held in memory
+     * (see {@link IntermediateResults#getLast(String)})
+     */
+    public Object getLast(String key) {
+        return partitionFor(key).getLast(key);
+    }
+
+    /**
+     *
+     */
+    public void addMultiple(String key, List<?> values) {
+        partitionFor(key).addMultiple(canonical(key), values);
+        this.numEmitted += values.size();
+        this.numBuffered += values.size();
+        checkSpill(values.size());
+    }
+
+    /**
+     * Spills the data in case the number of values held in memory
+     * exceeds the threshold or the memory pressure requires it. To keep
+     * adding cheap, the actual size is tested only after each "threshold"
+     * added values (or more often if the memory pressure is watched).
+     *
+     * @throws UncheckedIOException
+     * @throws MemoryLimitExceededException
+     */
+    private void checkSpill(int numAdded) {
+        if (this.spillStorage == null && this.memoryPressure == null) {
+            return;
+        }
+        this.addedSinceCheck += numAdded;
+        int interval = this.spillStorage != null ? this.spillStorage.getThreshold() : Integer.MAX_VALUE;
+        if (this.memoryPressure != null) {
+            interval = Math.min(interval, PRESSURE_CHECK_INTERVAL);
+        }
+        if (this.addedSinceCheck >= interval) {
+            this.addedSinceCheck = 0;
+            boolean release = this.memoryPressure != null
+                    && this.memoryPressure.check(this.spillStorage != null);
+            if (this.spillStorage != null) {
+                int size = memorySize();
+                if (size >= this.spillStorage.getThreshold()
+                        || release && size >= PRESSURE_CHECK_INTERVAL) {
+                    try {
+                        spill();
+
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all the values held in memory into run files (one for each
+     * non-empty partition) and removes them from memory.
+     */
+    public void spill() throws IOException {
+        if (this.spillStorage == null) {
+            throw new IllegalStateException("Spill storage not available");
+        }
+        for (int i = 0; i < this.partitions.length; i++) {
+            if (this.partitions[i].size() > 0) {
+                this.runs.get(i).add(this.spillStorage.spill(this.partitions[i]));
+                this.partitions[i].clear();
+            }
+        }
+        this.numBuffered = 0;
+    }
+
+    /**
+     * Adds an already written run file to a partition (e.g. when results
+     * are restored from a checkpoint)
+     */
+    public void addRun(int idx, RunFile run) {
+        this.runs.get(idx).add(run);
+    }
+
+    /**
+     * Returns run files of spilled data of a partition
+     */
+    public List<RunFile> getRuns(int idx) {
+        return this.runs.get(idx);
+    }
+
+    /**
+     * Tests whether any data has been spilled
+     */
+    public boolean hasSpilled() {
+        for (List<RunFile> items : this.runs) {
+            if (items.size() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds all keys and values from an {@link IntermediateResults} instance
+     * (each key is placed into its proper partition).
+     */
+    public void addAll(IntermediateResults another) {
+        if (another == null) {
+            throw new IllegalArgumentException("Cannot add null IntermediateResults");
+        }
+        for (String key : another.keys()) {
+            addMultiple(key, another.values(key));
+        }
+    }
+
+    /**
+     * Removes all the values of the key and returns them
+     */
+    public List<?> remove(String key) {
+        if (key == null) {
+            return new ArrayList<>();
+        }
+        return partitionFor(key).remove(key);
+    }
+
+    /**
+     * Returns all results attached to the specified key
+     */
+    public List<Object> values(String key) {
+        return partitionFor(key).values(key);
+    }
+
+    /**
+     * Returns a (read-only) view of all the keys from all the partitions
+     * (spilled keys are not included)
+     */
+    public Set<String> keys() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                List<Iterator<String>> items = new ArrayList<>();
+                for (IntermediateResults partition : PartitionedResults.this.partitions) {
+                    items.add(partition.keys().iterator());
+                }
+                return Iterators.unmodifiableIterator(Iterators.concat(items.iterator()));
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && partitionFor((String) o).keys().contains(o);
+            }
+
+            @Override
+            public int size() {
+                int ans = 0;
+                for (IntermediateResults partition : PartitionedResults.this.partitions) {
+                    ans += partition.numKeys();
+                }
+                return ans;
+            }
+        };
+    }
+
+    /**
+     * Returns total number of values in all the partitions (including
+     * spilled values)
+     */
+    public int size() {
+        int ans = 0;
+        for (int i = 0; i < this.partitions.length; i++) {
+            ans += partitionSize(i);
+        }
+        return ans;
+    }
+
+    /**
+     * Returns number of values of a partition (including spilled values)
+     */
+    public int partitionSize(int idx) {
+        int ans = this.partitions[idx].size();
+        for (RunFile run : this.runs.get(idx)) {
+            ans += run.getNumValues();
+        }
+        return ans;
+    }
+
+    /**
+     * Returns number of values held in memory
+     */
+    public int memorySize() {
+        int ans = 0;
+        for (IntermediateResults partition : this.partitions) {
+            ans += partition.size();
+        }
+        return ans;
+    }
+
+    /**
+     * Returns total number of keys in all the partitions. In case some data
+     * has been spilled, the number is only an upper estimate as a key may
+     * be present in multiple runs.
+     */
+    public int numKeys() {
+        int ans = 0;
+        for (int i = 0; i < this.partitions.length; i++) {
+            ans += this.partitions[i].numKeys();
+            for (RunFile run : this.runs.get(i)) {
+                ans += run.getNumKeys();
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Returns number of values added so far (including values which have
+     * been replaced or summed up)
+     */
+    public long getNumEmitted() {
+        return this.numEmitted;
+    }
+
+    /**
+     * Returns number of values added since the last spill or reset. Unlike
+     * {@link #memorySize()}, the value is obtained in constant time.
+     */
+    public int getNumBuffered() {
+        return this.numBuffered;
+    }
+
+    /**
+     * Resets the number of buffered values (e.g. once the values have been combined)
+     */
+    public void resetNumBuffered() {
+        this.numBuffered = 0;
+    }
+
+    /**
+     * Returns an approximate size (in bytes) of memory retained by the data
+     * held in memory (see {@link IntermediateResults#estimateRetainedSize()})
+     */
+    public long estimateRetainedSize() {
+        long ans = 0;
+        for (IntermediateResults partition : this.partitions) {
+            ans += partition.estimateRetainedSize();
+        }
+        return ans;
+    }
+
+    /**
+     * Returns idx-th partitions of all the provided results (i.e. all the data
+     * a single reduce worker needs to process).
+     */
+    public static List<IntermediateResults> collectPartition(List<PartitionedResults> results,
+                                                             int idx) {
+        List<IntermediateResults> ans = new ArrayList<>();
+        for (PartitionedResults item : results) {
+            if (item.getPartition(idx).size() > 0) {
+                ans.add(item.getPartition(idx));
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Returns run files of idx-th partitions of all the provided results
+     */
+    public static List<RunFile> collectRuns(List<PartitionedResults> results, int idx) {
+        List<RunFile> ans = new ArrayList<>();
+        for (PartitionedResults item : results) {
+            ans.addAll(item.getRuns(idx));
+        }
+        return ans;
+    }
+}
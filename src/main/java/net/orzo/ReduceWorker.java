@@ -15,60 +15,246 @@
  */
 package net.orzo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import net.orzo.scripting.JsEngineAdapter;
+import net.orzo.spill.KeyValues;
+import net.orzo.spill.KeyValuesMerger;
+import net.orzo.spill.RunFile;
 
 /**
- * Handles a processing thread of the REDUCE phase.
+ * Handles a processing thread of the REDUCE phase. The worker owns its
+ * partitions of the data (i.e. respective partitions of all the results
+ * produced by the previous phase) which means no other worker accesses them.
+ *
+ * Partitions are processed one by one. Because keys are assigned to
+ * partitions by their hashes, a key emitted by a reduce function under
+ * the same name stays in the same partition. In chained reduce passes which
+ * keep the key space, each partition then comes from a single worker of the
+ * previous pass and it is processed as it is (without any merging). Only
+ * partitions assembled from more workers (i.e. the key space has changed)
+ * join values of their keys.
+ *
+ * In case some of the data has been spilled to disk (or stored off-heap),
+ * keys of a partition are streamed in a sorted order from both the memory
+ * and the run files.
+ *
+ * Keys are passed to the JavaScript side in batches to reduce the number of
+ * (relatively expensive) Java to JavaScript calls.
  *
  * @author Tomas Machalek <tomas.machalek@gmail.com>
  */
-public class ReduceWorker implements Callable<IntermediateResults> {
+public class ReduceWorker implements Callable<PartitionedResults> {
+
+    /**
+     * Max. number of keys processed by a single call of the reduce function
+     */
+    public static final int REDUCE_BATCH_SIZE = 256;
 
     private final CalculationParams params;
 
-    private final IntermediateResults mapResults;
+    private final List<List<IntermediateResults>> partitions;
 
-    private final List<String> keys;
+    private final List<List<RunFile>> partitionRuns;
 
     private final int functionIdx;
 
     private final JsEngineAdapter jsEngine;
 
+    private final CalculationMetrics.Worker metrics;
+
     /**
      * @param jsEngine
      *      a JS engine the worker will be using to process its task
-     * @param mapResults
-     *      an object holding all the merged results from map phase
-     * @param keys
-     *      a subset of keys from mapResults which will be processed by this worker
+     * @param partitions
+     *      partitions of results from the previous phase assigned to the worker
+     *      (each partition is a list of non-empty parts produced by the workers
+     *      of the phase)
+     * @param partitionRuns
+     *      spilled parts of the respective partitions
      * @param functionIdx
      *      which reduce function will be used (user may define one or more reduce functions
      *      to be able to perform re-reduce)
      * @param params
+     * @param metrics where the worker's performance metrics are recorded
      */
-    public ReduceWorker(JsEngineAdapter jsEngine, IntermediateResults mapResults,
-                        List<String> keys, int functionIdx, CalculationParams params) {
-        this.mapResults = mapResults;
-        this.keys = keys;
+    public ReduceWorker(JsEngineAdapter jsEngine, List<List<IntermediateResults>> partitions,
+                        List<List<RunFile>> partitionRuns, int functionIdx,
+                        CalculationParams params, CalculationMetrics.Worker metrics) {
+        this.partitions = partitions;
+        this.partitionRuns = partitionRuns;
         this.functionIdx = functionIdx;
         this.jsEngine = jsEngine;
         this.params = params;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Tests whether some of the parts store values in an encoded form. Such
+     * parts are not joined (which would decode all the values at once), they
+     * are streamed instead.
+     */
+    private static boolean hasEncodedParts(List<IntermediateResults> parts) {
+        for (IntermediateResults item : parts) {
+            if (item instanceof OffHeapIntermediateResults) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keys and respective values waiting to be passed to the reduce function
+     */
+    private static class Batch {
+
+        private final String[] keys = new String[REDUCE_BATCH_SIZE];
+
+        private final Object[] values = new Object[REDUCE_BATCH_SIZE];
+
+        private int size;
+
+        boolean add(String key, List<Object> values) {
+            this.keys[this.size] = key;
+            this.values[this.size] = values;
+            this.size++;
+            return this.size == REDUCE_BATCH_SIZE;
+        }
+    }
+
+    /**
+     * Passes all the batched keys to the reduce function and empties the batch.
+     */
+    private void runBatch(Batch batch) throws Exception {
+        if (batch.size > 0) {
+            long numValues = 0;
+            for (int i = 0; i < batch.size; i++) {
+                numValues += ((List<?>) batch.values[i]).size();
+            }
+            this.metrics.addItemsRead(numValues, 0);
+            this.jsEngine.runFunction("runReduceBatch", batch.keys, batch.values, batch.size,
+                    this.functionIdx);
+            Arrays.fill(batch.keys, 0, batch.size, null);
+            Arrays.fill(batch.values, 0, batch.size, null);
+            batch.size = 0;
+        }
+    }
+
+    /**
+     * Returns all the values of the key stored in the parts of a partition.
+     * In case there is only one part containing the key, its values are not
+     * copied.
+     */
+    private static List<Object> joinValues(List<IntermediateResults> parts, String key) {
+        List<Object> ans = null;
+        boolean copied = false;
+        for (IntermediateResults part : parts) {
+            if (part.containsKey(key)) {
+                if (ans == null) {
+                    ans = part.values(key);
+
+                } else {
+                    if (!copied) {
+                        ans = new ArrayList<>(ans);
+                        copied = true;
+                    }
+                    ans.addAll(part.values(key));
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Reduces a partition held in memory. Values are passed to the script
+     * as views of the stored lists so they must stay untouched until the whole
+     * pass is finished (see {@link #call()}).
+     */
+    private void reduceInMemory(List<IntermediateResults> parts, Batch batch) throws Exception {
+        List<String> keys;
+        if (parts.size() == 1) {
+            keys = new ArrayList<>(parts.get(0).keys());
+
+        } else {
+            Set<String> allKeys = new LinkedHashSet<>();
+            for (IntermediateResults part : parts) {
+                allKeys.addAll(part.keys());
+            }
+            keys = new ArrayList<>(allKeys);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            List<Object> values = parts.size() == 1
+                    ? parts.get(0).values(keys.get(i)) : joinValues(parts, keys.get(i));
+            if (batch.add(keys.get(i), values) || i == keys.size() - 1) {
+                runBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Reduces a partition by streaming its keys in a sorted order from all
+     * the parts and run files.
+     */
+    private void reduceStreamed(List<IntermediateResults> parts, List<RunFile> runs,
+                                Batch batch) throws Exception {
+        try (KeyValuesMerger merger = new KeyValuesMerger()) {
+            for (IntermediateResults item : parts) {
+                item.setValueFactory(this.jsEngine.getValueFactory());
+                merger.add(KeyValuesMerger.sortedView(item));
+            }
+            for (RunFile run : runs) {
+                merger.add(run.open(this.jsEngine.getValueFactory()));
+                this.metrics.addItemsRead(0, run.getFile().length());
+            }
+            while (merger.hasNext()) {
+                KeyValues item = merger.next();
+                if (batch.add(item.getKey(), item.getValues())) {
+                    runBatch(batch);
+                }
+            }
+            runBatch(batch);
+        }
     }
 
     @Override
-    public IntermediateResults call() throws Exception {
-        this.jsEngine.beginWork();
-        this.jsEngine.runCode(this.params.calculationScript, this.params.userenvScript,
-                this.params.datalibScript);
-        this.jsEngine.runFunction("initReduce");
-        this.jsEngine.runCode(this.params.userScript);
-        for (String key : this.keys) {
-            this.jsEngine.runFunction("runReduce", key, this.mapResults.values(key), this.functionIdx);
-            this.mapResults.remove(key);
+    public PartitionedResults call() throws Exception {
+        this.metrics.startMeasure();
+        try {
+            long setupStart = System.nanoTime();
+            this.jsEngine.beginWork();
+            this.jsEngine.runCode(this.params.calculationScript, this.params.userenvScript,
+                    this.params.datalibScript);
+            this.jsEngine.runFunction("initReduce");
+            this.metrics.addSetupTime(System.nanoTime() - setupStart);
+            this.jsEngine.runCode(this.params.userScript);
+            Batch batch = new Batch();
+            List<IntermediateResults> reducedInMemory = new ArrayList<>();
+            for (int i = 0; i < this.partitions.size(); i++) {
+                List<IntermediateResults> parts = this.partitions.get(i);
+                List<RunFile> runs = this.partitionRuns.get(i);
+                if (runs.isEmpty() && !hasEncodedParts(parts)) {
+                    reduceInMemory(parts, batch);
+                    reducedInMemory.addAll(parts);
+
+                } else {
+                    reduceStreamed(parts, runs, batch);
+                }
+            }
+            // views of the values may be held by the script until the pass ends
+            // (emitted values never contain them - see emit() in userenv.js)
+            for (IntermediateResults part : reducedInMemory) {
+                part.clear();
+            }
+            this.metrics.addOutput(this.jsEngine.getResults());
+            return this.jsEngine.getResults();
+
+        } finally {
+            this.metrics.stopMeasure();
         }
-        return this.jsEngine.getIntermediateResults();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads lines starting within a byte range [start, end) of a file. A line
+ * belongs to the range its first byte lies in - a reader starting in the
+ * middle of a line skips the rest of the line and a reader reads a line
+ * crossing its end offset completely. Readers of adjacent ranges therefore
+ * together return each line exactly once and no byte outside of a range
+ * (except for the partial lines at its boundaries) is read or decoded.
+ *
+ * Lines are separated by "\n" or "\r\n".
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ByteRangeLineReader implements Iterator<String>, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    private final long end;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * File offset of the buffer's first byte
+     */
+    private long bufferOffset;
+
+    private byte[] line;
+
+    private String nextLine;
+
+    private boolean finished;
+
+    /**
+     * @param file a file to be read
+     * @param start an offset where the range starts (inclusive)
+     * @param end an offset where the range ends (exclusive)
+     * @param charset encoding of the file
+     */
+    public ByteRangeLineReader(File file, long start, long end, Charset charset) throws IOException {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException(String.format("Invalid byte range [%d, %d)", start, end));
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.charset = charset;
+        this.end = Math.min(end, this.channel.size());
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+        this.line = new byte[256];
+        if (start > 0) {
+            // the range starts with a new line only if the previous byte ends a line
+            this.bufferOffset = start - 1;
+            int b;
+            do {
+                b = readByte();
+            } while (b != '\n' && b != -1);
+
+        } else {
+            this.bufferOffset = 0;
+        }
+        fetchLine();
+    }
+
+    /**
+     * Returns the file offset of the next unread byte
+     */
+    private long position() {
+        return this.bufferOffset + this.buffer.position();
+    }
+
+    private int readByte() throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            this.bufferOffset += this.buffer.limit();
+            this.buffer.clear();
+            int numRead = 0;
+            while (numRead == 0) {
+                numRead = this.channel.read(this.buffer, this.bufferOffset);
+            }
+            this.buffer.flip();
+            if (numRead < 0) {
+                return -1;
+            }
+        }
+        return this.buffer.get() & 0xff;
+    }
+
+    private void fetchLine() {
+        this.nextLine = null;
+        if (this.finished) {
+            return;
+        }
+        try {
+            if (position() >= this.end) {
+                close();
+                return;
+            }
+            int length = 0;
+            int b = readByte();
+            if (b == -1) {
+                close();
+                return;
+            }
+            while (b != '\n' && b != -1) {
+                if (length == this.line.length) {
+                    this.line = Arrays.copyOf(this.line, this.line.length * 2);
+                }
+                this.line[length++] = (byte) b;
+                b = readByte();
+            }
+            if (length > 0 && this.line[length - 1] == '\r') {
+                length--;
+            }
+            this.nextLine = new String(this.line, 0, length, this.charset);
+
+        } catch (IOException ex) {
+            close();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.nextLine != null;
+    }
+
+    @Override
+    public String next() {
+        if (this.nextLine == null) {
+            throw new NoSuchElementException();
+        }
+        String ans = this.nextLine;
+        fetchLine();
+        return ans;
+    }
+
+    /**
+     * Unsupported operation (does nothing)
+     */
+    @Override
+    public void remove() {
+    }
+
+    @Override
+    public void close() {
+        this.finished = true;
+        try {
+            this.channel.close();
+
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads lines of all the files found in searched directories (just like
+ * {@link DirectoryReader}) and splits them into chunks of the same size
+ * in bytes. Files are treated as a single concatenated stream which is split
+ * into numChunks byte ranges - large files are split at line boundaries
+ * (see {@link ByteRangeLineReader}) and small files are packed together.
+ *
+ * Each line is returned along with a path of its file as an array
+ * [path, line].
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class DirectoryLineReader {
+
+    private final DirectoryReader directoryReader;
+
+    private final int numChunks;
+
+    private List<File> files;
+
+    /**
+     * Offsets of the files within the concatenated stream (plus total size)
+     */
+    private long[] offsets;
+
+    /**
+     * A part of a file belonging to a chunk
+     */
+    private static class Segment {
+
+        private final File file;
+
+        private final long start;
+
+        private final long end;
+
+        Segment(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Iterates over lines of segments of a chunk
+     */
+    private static class SegmentLineIterator implements Iterator<String[]>, Closeable {
+
+        private final Iterator<Segment> segments;
+
+        private ByteRangeLineReader currReader;
+
+        private String currPath;
+
+        SegmentLineIterator(List<Segment> segments) {
+            this.segments = segments.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.currReader == null || !this.currReader.hasNext()) {
+                if (!this.segments.hasNext()) {
+                    return false;
+                }
+                Segment segment = this.segments.next();
+                try {
+                    this.currReader = new ByteRangeLineReader(segment.file, segment.start, segment.end,
+                            StandardCharsets.UTF_8);
+
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                this.currPath = segment.file.getPath();
+            }
+            return true;
+        }
+
+        @Override
+        public String[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return new String[] { this.currPath, this.currReader.next() };
+        }
+
+        @Override
+        public void close() {
+            if (this.currReader != null) {
+                this.currReader.close();
+            }
+        }
+    }
+
+    /**
+     * @param pathList a list of directories to be searched
+     * @param numChunks number of chunks
+     * @param filter a regular expression to filter accepted files, null is also ok
+     */
+    public DirectoryLineReader(String[] pathList, int numChunks, String filter) {
+        this.directoryReader = new DirectoryReader(pathList, numChunks, filter);
+        this.numChunks = numChunks;
+    }
+
+    private void init() {
+        if (this.files == null) {
+            List<String> paths = this.directoryReader.getFileList();
+            this.files = new ArrayList<>();
+            this.offsets = new long[paths.size() + 1];
+            for (int i = 0; i < paths.size(); i++) {
+                File file = new File(paths.get(i));
+                this.files.add(file);
+                this.offsets[i + 1] = this.offsets[i] + file.length();
+            }
+        }
+    }
+
+    /**
+     * Returns paths of all the files read by the chunks
+     */
+    public List<String> getFiles() {
+        init();
+        List<String> ans = new ArrayList<>();
+        for (File file : this.files) {
+            ans.add(file.getPath());
+        }
+        return ans;
+    }
+
+    /**
+     * Returns a total size of all the files
+     */
+    public long getTotalSize() {
+        init();
+        return this.offsets[this.offsets.length - 1];
+    }
+
+    /**
+     *
+     * @param idx iterator id (valid values are from interval [0, numChunks-1])
+     */
+    public Iterator<String[]> getIterator(int idx) {
+        if (idx < 0 || idx >= this.numChunks) {
+            throw new IllegalArgumentException(String.format(
+                    "A chunk id must be from interval [%d,  %d], obtained: %d",
+                    0, this.numChunks - 1, idx));
+        }
+        long total = getTotalSize();
+        long start = total * idx / this.numChunks;
+        long end = total * (idx + 1) / this.numChunks;
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < this.files.size(); i++) {
+            long fileStart = this.offsets[i];
+            long fileEnd = this.offsets[i + 1];
+            if (fileStart < end && fileEnd > start) {
+                segments.add(new Segment(this.files.get(i), Math.max(start, fileStart) - fileStart,
+                        Math.min(end, fileEnd) - fileStart));
+            }
+        }
+        return new SegmentLineIterator(segments);
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,11 +70,7 @@ public class DirectoryReader {
     public Iterator<String> getIterator(int idx) {
         int rightIdx;
 
-        if (this.fileList == null) {
-            this.fileList = fetchFileList();
-            this.filesPerChunk = (int) Math.ceil((float)this.fileList.size()
-                    / this.numChunks);
-        }
+        getFileList();
         rightIdx = Math.min(this.filesPerChunk * (idx + 1),
                 this.fileList.size());
 
@@ -85,6 +82,18 @@ public class DirectoryReader {
         }
     }
 
+    /**
+     * Returns a sorted list of all the matching files
+     */
+    List<String> getFileList() {
+        if (this.fileList == null) {
+            this.fileList = fetchFileList();
+            this.filesPerChunk = (int) Math.ceil((float)this.fileList.size()
+                    / this.numChunks);
+        }
+        return this.fileList;
+    }
+
     /**
      * Lists all files in a specified directory (including contents of
      * subdirectories)
@@ -18,12 +18,17 @@ package net.orzo.data;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Using this class you can define multiple readers of a (large) line-separated
  * text file. Each reader reads only a part of the file. The part has a form of
  * scattered chunks of the same size. Please see {@link FilePartReader} for
  * details.
+ *
+ * Alternatively, the file can be split into contiguous byte ranges of
+ * the same size (see {@link #createByteRangeInstance(int)}) which means
+ * each reader reads (and decodes) only its own part of the file.
  * 
  * @author Tomas Machalek <tomas.machalek@gmail.com>
  * @see FilePartReader
@@ -97,17 +102,7 @@ public class FilePartReaderFactory {
         PositionAwareLineIterator itr;
         int offset;
 
-        if (!this.file.exists()) {
-            throw new FileNotFoundException(String.format(
-                    "File %s does not exist.", this.file));
-
-        } else if (readerId >= this.numReaders || readerId < 0) {
-            throw new IllegalArgumentException(
-                    String.format(
-                            "A reader id must be from interval [%d,  %d], obtained: %d",
-                            0, this.numReaders - 1, readerId));
-        }
-
+        checkReaderId(readerId);
         try {
             offset = calcInitOffset(readerId);
             itr = PositionAwareLineIterator.create(this.file, "UTF-8");
@@ -120,6 +115,120 @@ public class FilePartReaderFactory {
         return new FilePartReader(itr, this.numReaders, this.linesPerChunk);
     }
 
+    /**
+     * Returns a reader of a contiguous byte range of the file. The file is split
+     * into numReaders ranges of the same size and a line belongs to the range
+     * its first byte lies in (see {@link ByteRangeLineReader}). Chunk size
+     * is not applicable here and the initial line skipping is not supported.
+     *
+     * @throws FileNotFoundException
+     * @throws IllegalArgumentException in case the readerId is incorrect
+     */
+    public ByteRangeLineReader createByteRangeInstance(int readerId)
+            throws FilePartReaderFactoryException, FileNotFoundException {
+        checkReaderId(readerId);
+        if (this.startFromLine > 0) {
+            throw new IllegalArgumentException("Initial line skipping is not supported in byte range mode");
+        }
+        long size = this.file.length();
+        try {
+            return new ByteRangeLineReader(this.file, calcRangeOffset(size, readerId),
+                    calcRangeOffset(size, readerId + 1), StandardCharsets.UTF_8);
+
+        } catch (IOException ex) {
+            throw new FilePartReaderFactoryException(String.format(
+                    "Failed to get chunk iterator [%s]", readerId), ex);
+        }
+    }
+
+    /**
+     * Returns a reader of a contiguous byte range of the file just like
+     * {@link #createByteRangeInstance(int)} but the file is mapped into memory
+     * (see {@link MappedLineReader}).
+     *
+     * @throws FileNotFoundException
+     * @throws IllegalArgumentException in case the readerId is incorrect
+     */
+    public MappedLineReader createMappedInstance(int readerId)
+            throws FilePartReaderFactoryException, FileNotFoundException {
+        checkReaderId(readerId);
+        if (this.startFromLine > 0) {
+            throw new IllegalArgumentException("Initial line skipping is not supported in byte range mode");
+        }
+        long size = this.file.length();
+        try {
+            return new MappedLineReader(this.file, calcRangeOffset(size, readerId),
+                    calcRangeOffset(size, readerId + 1), StandardCharsets.UTF_8);
+
+        } catch (IOException ex) {
+            throw new FilePartReaderFactoryException(String.format(
+                    "Failed to get chunk iterator [%s]", readerId), ex);
+        }
+    }
+
+    /**
+     * Returns a reader of gzip members starting within a contiguous byte range
+     * of a (multi-member) gzip file (see {@link GzipMemberLineReader}). Ranges
+     * are defined just like in case of {@link #createByteRangeInstance(int)}.
+     *
+     * @throws FileNotFoundException
+     * @throws IllegalArgumentException in case the readerId is incorrect
+     */
+    public GzipMemberLineReader createGzipInstance(int readerId)
+            throws FilePartReaderFactoryException, FileNotFoundException {
+        checkReaderId(readerId);
+        if (this.startFromLine > 0) {
+            throw new IllegalArgumentException("Initial line skipping is not supported in byte range mode");
+        }
+        long size = this.file.length();
+        try {
+            return new GzipMemberLineReader(this.file, calcRangeOffset(size, readerId),
+                    calcRangeOffset(size, readerId + 1), StandardCharsets.UTF_8);
+
+        } catch (IOException ex) {
+            throw new FilePartReaderFactoryException(String.format(
+                    "Failed to get chunk iterator [%s]", readerId), ex);
+        }
+    }
+
+    /**
+     * Tests whether readers of a gzip file other than the first one obtain
+     * any data (i.e. whether the file has a member starting behind the first
+     * byte range). If not, the whole file is decompressed by the first reader.
+     *
+     * @throws FilePartReaderFactoryException
+     */
+    public boolean isGzipSplittable() throws FilePartReaderFactoryException {
+        if (this.numReaders < 2) {
+            return false;
+        }
+        try {
+            return GzipMemberLineReader.hasMemberAfter(this.file,
+                    calcRangeOffset(this.file.length(), 1));
+
+        } catch (IOException ex) {
+            throw new FilePartReaderFactoryException(String.format(
+                    "Failed to search for gzip members of %s", this.file), ex);
+        }
+    }
+
+    private long calcRangeOffset(long size, int readerId) {
+        return size * readerId / this.numReaders;
+    }
+
+    private void checkReaderId(int readerId) throws FileNotFoundException {
+        if (!this.file.exists()) {
+            throw new FileNotFoundException(String.format(
+                    "File %s does not exist.", this.file));
+
+        } else if (readerId >= this.numReaders || readerId < 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "A reader id must be from interval [%d,  %d], obtained: %d",
+                            0, this.numReaders - 1, readerId));
+        }
+    }
+
     /**
      *
      */
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads lines of gzip members starting within a byte range [start, end) of
+ * a gzip file consisting of multiple members (concatenated gzip files,
+ * BGZF files). This allows multiple readers to decompress a single file
+ * in parallel.
+ *
+ * A reader finds its first member by searching for a gzip header at or after
+ * the start offset. Each candidate is verified by decompressing it (a whole
+ * member with its checksum or at least a reasonable amount of data) so a
+ * random match inside of compressed data is not accepted. As members do not
+ * have to end with a complete line, a reader (except for the one starting at
+ * zero) skips data up to the first line separator and the reader of
+ * the previous range continues behind its last member up to the same line
+ * separator. Readers of adjacent ranges therefore together return each line
+ * exactly once.
+ *
+ * A file with a single member is read completely by the reader starting
+ * at zero, the other readers return nothing (see {@link #hasMemberAfter(File, long)}).
+ *
+ * Lines are separated by "\n" or "\r\n".
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class GzipMemberLineReader implements Iterator<String>, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A candidate member producing this number of bytes without an error
+     * is accepted even if it has not been decompressed completely
+     */
+    private static final int VERIFY_LIMIT = 256 * 1024;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    private final long end;
+
+    private final Inflater inflater;
+
+    private final CRC32 crc;
+
+    private final byte[] input;
+
+    /**
+     * File offset of the input buffer's first byte
+     */
+    private long inputOffset;
+
+    private int inputPos;
+
+    private int inputLimit;
+
+    private final byte[] output;
+
+    private int outputPos;
+
+    private int outputLimit;
+
+    /**
+     * Number of decompressed bytes of the current member
+     */
+    private long memberSize;
+
+    private boolean inMember;
+
+    /**
+     * True once all the members starting within the range are decompressed
+     */
+    private boolean boundaryReached;
+
+    /**
+     * True until the first line separator is found (readers not starting at zero)
+     */
+    private boolean skipping;
+
+    private byte[] line;
+
+    private int lineLength;
+
+    private String nextLine;
+
+    private boolean lastLine;
+
+    private boolean finished;
+
+    /**
+     * @param file a gzip file to be read
+     * @param start an offset where the range starts (inclusive)
+     * @param end an offset where the range ends (exclusive)
+     * @param charset encoding of the decompressed data
+     */
+    public GzipMemberLineReader(File file, long start, long end, Charset charset) throws IOException {
+        this(file, checkRange(start, end), charset);
+        try {
+            long firstMember = start > 0 ? findMember(start) : start;
+            if (firstMember < 0 || firstMember >= this.end) {
+                close();
+                return;
+            }
+            seek(firstMember);
+            if (!readHeader()) {
+                throw new IOException(String.format("%s is not a gzip file", file));
+            }
+            startMember();
+            this.skipping = start > 0;
+
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+        fetchLine();
+    }
+
+    private GzipMemberLineReader(File file, long end, Charset charset) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.charset = charset;
+        this.end = Math.min(end, this.channel.size());
+        this.inflater = new Inflater(true);
+        this.crc = new CRC32();
+        this.input = new byte[BUFFER_SIZE];
+        this.output = new byte[BUFFER_SIZE];
+        this.line = new byte[256];
+    }
+
+    private static long checkRange(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException(String.format("Invalid byte range [%d, %d)", start, end));
+        }
+        return end;
+    }
+
+    /**
+     * Tests whether a gzip member starts at or after the offset, i.e. whether
+     * readers of ranges starting there obtain any data. In case of a single
+     * member file, this means scanning the rest of the file.
+     */
+    public static boolean hasMemberAfter(File file, long offset) throws IOException {
+        try (GzipMemberLineReader probe = new GzipMemberLineReader(file, Long.MAX_VALUE,
+                StandardCharsets.UTF_8)) {
+            return probe.findMember(offset) >= 0;
+        }
+    }
+
+    private long position() {
+        return this.inputOffset + this.inputPos;
+    }
+
+    private void seek(long offset) {
+        this.inputOffset = offset;
+        this.inputPos = 0;
+        this.inputLimit = 0;
+    }
+
+    private boolean fill() throws IOException {
+        this.inputOffset += this.inputLimit;
+        this.inputPos = 0;
+        this.inputLimit = 0;
+        int numRead = 0;
+        while (numRead == 0) {
+            numRead = this.channel.read(ByteBuffer.wrap(this.input), this.inputOffset);
+        }
+        if (numRead < 0) {
+            return false;
+        }
+        this.inputLimit = numRead;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (this.inputPos == this.inputLimit && !fill()) {
+            return -1;
+        }
+        return this.input[this.inputPos++] & 0xff;
+    }
+
+    private boolean skipBytes(int num) throws IOException {
+        for (int i = 0; i < num; i++) {
+            if (readByte() < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean skipString() throws IOException {
+        int b;
+        do {
+            b = readByte();
+        } while (b > 0);
+        return b == 0;
+    }
+
+    private long readIntLE() throws IOException {
+        long ans = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = readByte();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of gzip data");
+            }
+            ans |= (long) b << (8 * i);
+        }
+        return ans;
+    }
+
+    /**
+     * Reads a gzip member header at the current position
+     *
+     * @return false if there is no valid header
+     */
+    private boolean readHeader() throws IOException {
+        if (readByte() != 0x1f || readByte() != 0x8b || readByte() != 8) {
+            return false;
+        }
+        int flags = readByte();
+        if (flags < 0 || (flags & 0xe0) != 0 || !skipBytes(6)) {
+            return false;
+        }
+        if ((flags & FEXTRA) != 0) {
+            int lo = readByte();
+            int hi = readByte();
+            if (lo < 0 || hi < 0 || !skipBytes(lo | hi << 8)) {
+                return false;
+            }
+        }
+        if ((flags & FNAME) != 0 && !skipString()) {
+            return false;
+        }
+        if ((flags & FCOMMENT) != 0 && !skipString()) {
+            return false;
+        }
+        return (flags & FHCRC) == 0 || skipBytes(2);
+    }
+
+    private void startMember() {
+        this.inflater.reset();
+        this.crc.reset();
+        this.memberSize = 0;
+        this.inMember = true;
+    }
+
+    /**
+     * Decompresses a next part of the current member into the output buffer
+     *
+     * @return number of decompressed bytes
+     */
+    private int inflate() throws IOException, DataFormatException {
+        if (this.inflater.needsInput()) {
+            if (this.inputPos == this.inputLimit && !fill()) {
+                throw new EOFException("Unexpected end of gzip data");
+            }
+            this.inflater.setInput(this.input, this.inputPos, this.inputLimit - this.inputPos);
+            this.inputPos = this.inputLimit;
+        }
+        int ans = this.inflater.inflate(this.output, 0, this.output.length);
+        this.crc.update(this.output, 0, ans);
+        this.memberSize += ans;
+        if (this.inflater.finished()) {
+            this.inputPos = this.inputLimit - this.inflater.getRemaining();
+            this.inMember = false;
+        }
+        return ans;
+    }
+
+    /**
+     * Tests whether the member trailer matches the decompressed data
+     */
+    private boolean checkTrailer() throws IOException {
+        return readIntLE() == this.crc.getValue() && readIntLE() == (this.memberSize & 0xffffffffL);
+    }
+
+    /**
+     * Tests whether a valid gzip member starts at the offset
+     */
+    private boolean verifyMember(long offset) throws IOException {
+        seek(offset);
+        if (!readHeader()) {
+            return false;
+        }
+        startMember();
+        try {
+            while (this.inMember && this.memberSize < VERIFY_LIMIT) {
+                inflate();
+            }
+            return this.inMember || checkTrailer();
+
+        } catch (DataFormatException | EOFException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Searches for the first valid member starting at or after the offset
+     *
+     * @return the member's offset, a value >= end in case there is no member
+     * in the range or -1 if there is no member at all
+     */
+    private long findMember(long from) throws IOException {
+        long candidate = from;
+        while (true) {
+            seek(candidate);
+            int prev2 = -1;
+            int prev1 = -1;
+            int b;
+            while ((b = readByte()) >= 0 && !(prev2 == 0x1f && prev1 == 0x8b && b == 8)) {
+                prev2 = prev1;
+                prev1 = b;
+            }
+            if (b < 0) {
+                return -1;
+            }
+            candidate = position() - 3;
+            if (candidate >= this.end || verifyMember(candidate)) {
+                return candidate;
+            }
+            candidate++;
+        }
+    }
+
+    /**
+     * Fills the output buffer with next decompressed data
+     *
+     * @return false if there are no more data
+     */
+    private boolean fillOutput() throws IOException {
+        try {
+            while (true) {
+                if (!this.inMember) {
+                    if (position() >= this.end) {
+                        this.boundaryReached = true;
+                    }
+                    if (!readHeader()) {
+                        return false; // end of file (or trailing garbage)
+                    }
+                    startMember();
+                }
+                int numRead = inflate();
+                if (!this.inMember && !checkTrailer()) {
+                    throw new IOException(String.format("Corrupted gzip member (checksum mismatch) before offset %d",
+                            position()));
+                }
+                if (numRead > 0) {
+                    this.outputPos = 0;
+                    this.outputLimit = numRead;
+                    return true;
+                }
+            }
+
+        } catch (DataFormatException ex) {
+            throw new IOException(String.format("Corrupted gzip data before offset %d", position()), ex);
+        }
+    }
+
+    private void appendToLine(int from, int length) {
+        if (this.lineLength + length > this.line.length) {
+            this.line = Arrays.copyOf(this.line, Math.max(this.lineLength + length, this.line.length * 2));
+        }
+        System.arraycopy(this.output, from, this.line, this.lineLength, length);
+        this.lineLength += length;
+    }
+
+    private String decodeLine() {
+        int length = this.lineLength;
+        if (length > 0 && this.line[length - 1] == '\r') {
+            length--;
+        }
+        this.lineLength = 0;
+        return new String(this.line, 0, length, this.charset);
+    }
+
+    private void fetchLine() {
+        this.nextLine = null;
+        if (this.finished) {
+            return;
+        }
+        if (this.lastLine) {
+            close();
+            return;
+        }
+        try {
+            while (true) {
+                if (this.outputPos == this.outputLimit && !fillOutput()) {
+                    if (!this.skipping && this.lineLength > 0) {
+                        this.nextLine = decodeLine();
+                        this.lastLine = true;
+
+                    } else {
+                        close();
+                    }
+                    return;
+                }
+                int i = this.outputPos;
+                while (i < this.outputLimit && this.output[i] != '\n') {
+                    i++;
+                }
+                if (!this.skipping) {
+                    appendToLine(this.outputPos, i - this.outputPos);
+                }
+                if (i == this.outputLimit) {
+                    this.outputPos = i;
+                    continue;
+                }
+                this.outputPos = i + 1;
+                if (this.skipping) {
+                    this.skipping = false;
+                    if (this.boundaryReached) {
+                        close();
+                        return;
+                    }
+
+                } else {
+                    // a line crossing the range's boundary is the last one
+                    this.lastLine = this.boundaryReached;
+                    this.nextLine = decodeLine();
+                    return;
+                }
+            }
+
+        } catch (IOException ex) {
+            close();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.nextLine != null;
+    }
+
+    @Override
+    public String next() {
+        if (this.nextLine == null) {
+            throw new NoSuchElementException();
+        }
+        String ans = this.nextLine;
+        fetchLine();
+        return ans;
+    }
+
+    /**
+     * Unsupported operation (does nothing)
+     */
+    @Override
+    public void remove() {
+    }
+
+    @Override
+    public void close() {
+        if (!this.finished) {
+            this.finished = true;
+            this.inflater.end();
+            try {
+                this.channel.close();
+
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
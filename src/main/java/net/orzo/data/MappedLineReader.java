@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads lines of a byte range [start, end) of a file mapped into memory.
+ * Line boundaries are searched directly in the mapped memory and only
+ * the returned lines are decoded (pure ASCII lines of an ASCII compatible
+ * encoding are converted without a decoder). Files of any size are supported
+ * as the file is mapped via windows of a limited size. Ranges follow the
+ * same rules as {@link ByteRangeLineReader}.
+ *
+ * Lines are separated by "\n" or "\r\n". Please note that mapped windows
+ * are released by the garbage collector (there is no explicit unmapping).
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MappedLineReader implements Iterator<String>, Closeable {
+
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    /**
+     * True if ASCII bytes can be converted to characters directly
+     */
+    private final boolean asciiCompatible;
+
+    private final long fileSize;
+
+    private final long end;
+
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+
+    /**
+     * File offset of the mapped window
+     */
+    private long windowStart;
+
+    /**
+     * File offset of the next line
+     */
+    private long position;
+
+    private byte[] line;
+
+    private String nextLine;
+
+    private boolean finished;
+
+    /**
+     * @param file a file to be read
+     * @param start an offset where the range starts (inclusive)
+     * @param end an offset where the range ends (exclusive)
+     * @param charset encoding of the file
+     */
+    public MappedLineReader(File file, long start, long end, Charset charset) throws IOException {
+        this(file, start, end, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedLineReader(File file, long start, long end, Charset charset, int windowSize)
+            throws IOException {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException(String.format("Invalid byte range [%d, %d)", start, end));
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.charset = charset;
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+        this.fileSize = this.channel.size();
+        this.end = Math.min(end, this.fileSize);
+        this.windowSize = windowSize;
+        this.line = new byte[256];
+        if (start > 0 && start < this.end) {
+            // the range starts with a new line only if the previous byte ends a line
+            long newline = findNewline(start - 1);
+            this.position = newline >= 0 ? newline + 1 : this.fileSize;
+
+        } else {
+            this.position = start;
+        }
+        fetchLine();
+    }
+
+    /**
+     * Returns a path of the read file
+     */
+    public String getPath() {
+        return this.file.getPath();
+    }
+
+    private boolean isMapped(long offset) {
+        return this.window != null && offset >= this.windowStart
+                && offset < this.windowStart + this.window.limit();
+    }
+
+    private void map(long offset) throws IOException {
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                Math.min(this.windowSize, this.fileSize - offset));
+        this.windowStart = offset;
+    }
+
+    /**
+     * Returns an offset of the first "\n" found at or after the offset "from"
+     * (or -1 if there is none). In case the line continues behind the mapped
+     * window, the next window is mapped from the "from" offset so the whole
+     * line fits into a single window (if possible).
+     */
+    private long findNewline(long from) throws IOException {
+        long i = from;
+        if (!isMapped(i)) {
+            map(i);
+        }
+        while (true) {
+            int limit = this.window.limit();
+            for (int idx = (int) (i - this.windowStart); idx < limit; idx++) {
+                if (this.window.get(idx) == '\n') {
+                    return this.windowStart + idx;
+                }
+            }
+            i = this.windowStart + limit;
+            if (i >= this.fileSize) {
+                return -1;
+            }
+            map(from > this.windowStart ? from : i);
+        }
+    }
+
+    /**
+     * Copies bytes of a line into the line buffer
+     */
+    private void copyLine(long from, int length) throws IOException {
+        if (length > this.line.length) {
+            this.line = Arrays.copyOf(this.line, Math.max(length, this.line.length * 2));
+        }
+        int copied = 0;
+        while (copied < length) {
+            long offset = from + copied;
+            if (!isMapped(offset)) {
+                map(offset);
+            }
+            int idx = (int) (offset - this.windowStart);
+            int num = Math.min(length - copied, this.window.limit() - idx);
+            this.window.position(idx);
+            this.window.get(this.line, copied, num);
+            copied += num;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private String decodeLine(int length) {
+        if (this.asciiCompatible) {
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                if (this.line[i] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                return new String(this.line, 0, 0, length);
+            }
+        }
+        return new String(this.line, 0, length, this.charset);
+    }
+
+    private void fetchLine() {
+        this.nextLine = null;
+        if (this.finished) {
+            return;
+        }
+        if (this.position >= this.end) {
+            close();
+            return;
+        }
+        try {
+            long newline = findNewline(this.position);
+            long lineEnd = newline >= 0 ? newline : this.fileSize;
+            long length = lineEnd - this.position;
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException(String.format("Line at offset %d is too long", this.position));
+            }
+            copyLine(this.position, (int) length);
+            if (length > 0 && this.line[(int) length - 1] == '\r') {
+                length--;
+            }
+            this.nextLine = decodeLine((int) length);
+            this.position = lineEnd + 1;
+
+        } catch (IOException ex) {
+            close();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.nextLine != null;
+    }
+
+    @Override
+    public String next() {
+        if (this.nextLine == null) {
+            throw new NoSuchElementException();
+        }
+        String ans = this.nextLine;
+        fetchLine();
+        return ans;
+    }
+
+    /**
+     * Unsupported operation (does nothing)
+     */
+    @Override
+    public void remove() {
+    }
+
+    @Override
+    public void close() {
+        this.finished = true;
+        this.window = null;
+        try {
+            this.channel.close();
+
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
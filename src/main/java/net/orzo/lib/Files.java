@@ -16,14 +16,20 @@
 package net.orzo.lib;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.Collections;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 
+import net.orzo.data.DirectoryLineReader;
 import net.orzo.data.DirectoryReader;
 import net.orzo.data.FilePairGenerator;
 import net.orzo.data.FilePartReaderFactory;
+import net.orzo.data.MappedLineReader;
 import net.orzo.data.TwoGroupFilePairGenerator;
 
 import org.apache.commons.io.FileUtils;
@@ -42,12 +48,30 @@ public class Files {
 
     private static final Logger LOG = LoggerFactory.getLogger(Files.class);
 
+    /**
+     * Absolute paths of files opened by the readers
+     */
+    private final Set<String> inputFiles = ConcurrentHashMap.newKeySet();
+
+    private void registerInput(String path) {
+        this.inputFiles.add(new File(path).getAbsolutePath());
+    }
+
+    /**
+     * Returns absolute paths of all the files read via readers created
+     * by this object (i.e. inputs of a calculation)
+     */
+    public Set<String> getInputFiles() {
+        return Collections.unmodifiableSet(this.inputFiles);
+    }
+
     /**
      * Obtains an iterator which reads provided file (specified by path) line by
      * line. Iterator can be accessed by a classic method pair <i>hasNext()</li>
      * and <i>next()</i>.
      */
     public FileIterator<Object> fileReader(final String path, final String encoding) throws IOException {
+        registerInput(path);
         final LineIterator itr = FileUtils.lineIterator(new File(path), encoding);
         return new FileIterator<Object>() {
 
@@ -81,8 +105,44 @@ public class Files {
         };
     }
 
+    /**
+     * Obtains an iterator which reads provided file line by line just like
+     * {@link #fileReader(String, String)} but the file is mapped into memory
+     * and only returned lines are decoded (see {@link MappedLineReader}).
+     * This is suitable for large local files.
+     */
+    public FileIterator<Object> mmapFileReader(final String path, final String encoding) throws IOException {
+        registerInput(path);
+        final File file = new File(path);
+        final MappedLineReader itr = new MappedLineReader(file, 0, file.length(),
+                Charset.forName(encoding));
+        return new FileIterator<Object>() {
+
+            @Override
+            public boolean hasNext() {
+                return itr.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return itr.next();
+            }
+
+            @Override
+            public void close() {
+                itr.close();
+            }
+
+            @Override
+            public String getPath() {
+                return path;
+            }
+        };
+    }
+
 
     public FileIterator<Object> reversedFileReader(final String path, final String encoding) throws IOException {
+        registerInput(path);
         return new FileIterator<Object>() {
 
             private ReversedLinesFileReader rlf = new ReversedLinesFileReader(new File(path),
@@ -134,6 +194,7 @@ public class Files {
 
 
     public FileIterator<Object> gzipFileReader(final String path, final String encoding) throws IOException {
+        registerInput(path);
         try {
             final GZIPInputStream gis = new GZIPInputStream(new FileInputStream(path));
             final Reader reader = new InputStreamReader(gis, encoding);
@@ -201,6 +262,7 @@ public class Files {
      */
     public synchronized FilePartReaderFactory filePartReaderFactory(
             String path, int numReaders, Integer chunkSize, Integer startLine) {
+        registerInput(path);
         return new FilePartReaderFactory(new File(path), numReaders, chunkSize,
                 startLine);
     }
@@ -219,6 +281,22 @@ public class Files {
         return new DirectoryReader(pathList, numChunks, filter);
     }
 
+    /**
+     * Scans recursively a directory and splits lines of all the found files
+     * into numChunks parts of the same size in bytes.
+     *
+     * @param pathList  list of directories to start search in
+     * @param numChunks A number of chunks to be produced
+     * @param filter    a regular expression to specify accepted files
+     * @see DirectoryLineReader
+     */
+    public DirectoryLineReader directoryLineReader(String[] pathList, int numChunks,
+                                                   String filter) {
+        DirectoryLineReader ans = new DirectoryLineReader(pathList, numChunks, filter);
+        ans.getFiles().forEach(this::registerInput);
+        return ans;
+    }
+
     /**
      * @param pathList
      * @param numChunks
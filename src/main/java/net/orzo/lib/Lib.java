@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandle;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import com.mysql.jdbc.MySQLConnection;
@@ -28,6 +29,8 @@ import net.orzo.data.Database;
 import net.orzo.data.MySqlDb;
 import net.orzo.data.Web;
 import net.orzo.data.graphics.GreyscalePicture;
+import net.orzo.spill.MapOutputCache;
+import net.orzo.spill.ValueCodec;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -129,6 +132,30 @@ public class Lib {
     }
 
 
+    /**
+     * Opens a directory with cached outputs of MAP for individual input files
+     *
+     * @param directory cache directory
+     * @param calculationHash identifies the calculation producing cached outputs
+     * @param valueFactory creates JavaScript values when cached outputs are replayed
+     */
+    public MapOutputCache mapOutputCache(String directory, String calculationHash,
+                                         ValueCodec.ValueFactory valueFactory) throws IOException {
+        return new MapOutputCache(directory, calculationHash, valueFactory);
+    }
+
+    /**
+     * Wraps an iterator so its items are read in advance by a dedicated thread
+     *
+     * @param source an iterator to be wrapped
+     * @param batchSize number of items passed at once
+     * @param numBatches max. number of batches read in advance
+     * @see ReadAheadIterator
+     */
+    public ReadAheadIterator<Object> readAhead(Iterator<Object> source, int batchSize, int numBatches) {
+        return new ReadAheadIterator<>(source, batchSize, numBatches);
+    }
+
     public Database connectToDb(String type, String uri) throws SQLException {
         if (type.equals("mysql")) {
             return new MySqlDb().connect(uri);
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.lib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps an iterator and reads its items in advance in a dedicated thread.
+ * Items are passed to the consumer in batches via a bounded queue so
+ * blocking I/O (including decompression) of the source overlaps with
+ * processing of already read items.
+ *
+ * Errors of the source are rethrown to the consumer once it reaches them.
+ * In case the iterator is closed before it is exhausted, the reading thread
+ * stops. The source (if it is a {@link FileIterator} or {@link AutoCloseable})
+ * is closed by the reading thread once it stops.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ReadAheadIterator<T> implements FileIterator<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadAheadIterator.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    public static final int DEFAULT_NUM_BATCHES = 4;
+
+    /**
+     * Marks the end of the source
+     */
+    private static final Object END = new Object();
+
+    private final Iterator<T> source;
+
+    private final int batchSize;
+
+    /**
+     * Read batches (List), an error of the source (Throwable) or END
+     */
+    private final BlockingQueue<Object> batches;
+
+    private final Thread reader;
+
+    private Iterator<T> currBatch;
+
+    private boolean exhausted;
+
+    private volatile boolean closed;
+
+    /**
+     * @param source a wrapped iterator (it must not be used by anyone else)
+     * @param batchSize number of items passed to the consumer at once
+     * @param numBatches max. number of read batches waiting for the consumer
+     */
+    public ReadAheadIterator(Iterator<T> source, int batchSize, int numBatches) {
+        if (batchSize < 1 || numBatches < 1) {
+            throw new IllegalArgumentException("Batch size and number of batches must be >= 1");
+        }
+        this.source = source;
+        this.batchSize = batchSize;
+        this.batches = new ArrayBlockingQueue<>(numBatches);
+        this.currBatch = Collections.emptyIterator();
+        this.reader = new Thread(this::readSource, "orzo-read-ahead");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public ReadAheadIterator(Iterator<T> source) {
+        this(source, DEFAULT_BATCH_SIZE, DEFAULT_NUM_BATCHES);
+    }
+
+    private void readSource() {
+        try {
+            List<T> batch = new ArrayList<>(this.batchSize);
+            while (!this.closed && this.source.hasNext()) {
+                batch.add(this.source.next());
+                if (batch.size() == this.batchSize) {
+                    this.batches.put(batch);
+                    batch = new ArrayList<>(this.batchSize);
+                }
+            }
+            if (batch.size() > 0) {
+                this.batches.put(batch);
+            }
+            this.batches.put(END);
+
+        } catch (InterruptedException ex) {
+            // closed by the consumer
+
+        } catch (RuntimeException | Error ex) {
+            if (!this.closed) {
+                try {
+                    this.batches.put(ex);
+
+                } catch (InterruptedException ex2) {
+                    // closed by the consumer
+                }
+            }
+
+        } finally {
+            closeSource();
+        }
+    }
+
+    private void closeSource() {
+        if (this.source instanceof FileIterator) {
+            ((FileIterator<T>) this.source).close();
+
+        } else if (this.source instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) this.source).close();
+
+            } catch (Exception ex) {
+                LOG.warn(String.format("Failed to close a read-ahead source: %s", ex.getMessage()), ex);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+        while (!this.currBatch.hasNext()) {
+            if (this.exhausted) {
+                return false;
+            }
+            Object item;
+            try {
+                item = this.batches.take();
+
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for data", ex);
+            }
+            if (item == END) {
+                this.exhausted = true;
+
+            } else if (item instanceof RuntimeException) {
+                this.exhausted = true;
+                throw (RuntimeException) item;
+
+            } else if (item instanceof Error) {
+                this.exhausted = true;
+                throw (Error) item;
+
+            } else {
+                this.currBatch = ((List<T>) item).iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.currBatch.next();
+    }
+
+    /**
+     * Stops reading of the source
+     */
+    @Override
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.exhausted = true;
+            this.currBatch = Collections.emptyIterator();
+            this.reader.interrupt();
+        }
+    }
+
+    @Override
+    public String getPath() {
+        return this.source instanceof FileIterator ? ((FileIterator<T>) this.source).getPath() : null;
+    }
+}
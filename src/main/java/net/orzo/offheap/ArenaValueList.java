@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.offheap;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of values stored in a {@link ValueArena}. The list itself holds
+ * only addresses of the values, the values are decoded each time they
+ * are accessed.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ArenaValueList extends AbstractList<Object> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final ValueArena arena;
+
+    private long[] addresses;
+
+    /**
+     * Sizes of values written via {@link #set(int, Object)} which may be
+     * overwritten in place (0 = unknown or shared with another list); created
+     * on the first set() call
+     */
+    private int[] slotSizes;
+
+    private int size;
+
+    public ArenaValueList(ValueArena arena) {
+        this.arena = arena;
+        this.addresses = new long[INITIAL_CAPACITY];
+    }
+
+    private void appendAddress(long address) {
+        if (this.size == this.addresses.length) {
+            this.addresses = Arrays.copyOf(this.addresses, this.addresses.length * 2);
+            if (this.slotSizes != null) {
+                this.slotSizes = Arrays.copyOf(this.slotSizes, this.addresses.length);
+            }
+        }
+        if (this.slotSizes != null) {
+            this.slotSizes[this.size] = 0;
+        }
+        this.addresses[this.size++] = address;
+    }
+
+    @Override
+    public boolean add(Object value) {
+        appendAddress(this.arena.append(value));
+        this.modCount++;
+        return true;
+    }
+
+    /**
+     * Values from a list sharing the same arena are not copied (only their
+     * addresses are).
+     */
+    @Override
+    public boolean addAll(Collection<?> values) {
+        if (values instanceof ArenaValueList && ((ArenaValueList) values).arena == this.arena) {
+            ArenaValueList other = (ArenaValueList) values;
+            for (int i = 0; i < other.size; i++) {
+                appendAddress(other.addresses[i]);
+            }
+            if (other.slotSizes != null) {
+                Arrays.fill(other.slotSizes, 0); // the addresses are shared now
+            }
+            this.modCount++;
+            return other.size > 0;
+        }
+        return super.addAll(values);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, size: %d", index, this.size));
+        }
+        return this.arena.read(this.addresses[index]);
+    }
+
+    /**
+     * Replaces a value. A value previously written by this method is
+     * overwritten in place if the new encoding is not larger (which is
+     * typical for accumulators of fold-style reduce). Otherwise the value
+     * is appended to the arena and space occupied by the replaced value is
+     * released along with the whole arena.
+     */
+    @Override
+    public Object set(int index, Object value) {
+        Object ans = get(index);
+        if (this.slotSizes == null) {
+            this.slotSizes = new int[this.addresses.length];
+        }
+        long address = this.arena.replace(this.addresses[index], this.slotSizes[index], value);
+        if (address != this.addresses[index]) {
+            this.addresses[index] = address;
+            this.slotSizes[index] = this.arena.getLastEncodedSize();
+        }
+        return ans;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object ans = get(index);
+        System.arraycopy(this.addresses, index + 1, this.addresses, index, this.size - index - 1);
+        if (this.slotSizes != null) {
+            System.arraycopy(this.slotSizes, index + 1, this.slotSizes, index, this.size - index - 1);
+        }
+        this.size--;
+        this.modCount++;
+        return ans;
+    }
+
+    @Override
+    public void clear() {
+        this.size = 0;
+        this.modCount++;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Writes index-th value to the output (see {@link ValueArena#copyTo(long, DataOutput)})
+     */
+    public void copyTo(int index, DataOutput out) throws IOException {
+        this.arena.copyTo(this.addresses[index], out);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.offheap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.orzo.spill.ValueCodec;
+
+/**
+ * An append-only storage of encoded values (see {@link ValueCodec}) located
+ * outside of the Java heap. Values are written into direct byte buffers
+ * (chunks) and identified by their address (chunk index and offset packed
+ * into a single long). Space of individual values is never released (a value
+ * can be only overwritten in place by a value with an encoding which is not
+ * larger - see {@link #replace(long, int, Object)}), the whole arena is
+ * released by {@link #clear()}.
+ *
+ * The arena is not thread-safe.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ValueArena {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final int chunkSize;
+
+    private final List<ByteBuffer> chunks;
+
+    private final EncodeBuffer encodeBuffer;
+
+    private final DataOutputStream encodeOutput;
+
+    /**
+     * A buffer providing direct access to its contents (so an encoded value
+     * is not copied to a new array)
+     */
+    private static class EncodeBuffer extends ByteArrayOutputStream {
+
+        byte[] getBuffer() {
+            return this.buf;
+        }
+    }
+
+    /**
+     * Creates objects of decoded values
+     */
+    private ValueCodec.ValueFactory valueFactory;
+
+    /**
+     *
+     */
+    public ValueArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayList<>();
+        this.encodeBuffer = new EncodeBuffer();
+        this.encodeOutput = new DataOutputStream(this.encodeBuffer);
+        this.valueFactory = ValueCodec.JAVA_VALUES;
+    }
+
+    /**
+     *
+     */
+    public ValueArena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Sets how arrays, objects and dates are decoded (typically as objects
+     * of a JavaScript global scope of a worker reading the values)
+     */
+    public void setValueFactory(ValueCodec.ValueFactory valueFactory) {
+        this.valueFactory = valueFactory;
+    }
+
+    /**
+     * Encodes a value into the encode buffer
+     *
+     * @throws UncheckedIOException if the value cannot be encoded
+     */
+    private void encode(Object value) {
+        this.encodeBuffer.reset();
+        try {
+            ValueCodec.write(this.encodeOutput, value);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a value and stores it
+     *
+     * @return address of the stored value
+     * @throws UncheckedIOException if the value cannot be encoded
+     */
+    public long append(Object value) {
+        encode(value);
+        return store();
+    }
+
+    /**
+     * Stores the contents of the encode buffer
+     */
+    private long store() {
+        int size = this.encodeBuffer.size();
+        ByteBuffer chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < size) {
+            chunk = ByteBuffer.allocateDirect(Math.max(size, this.chunkSize));
+            this.chunks.add(chunk);
+        }
+        long address = ((long) (this.chunks.size() - 1) << 32) | chunk.position();
+        chunk.put(this.encodeBuffer.getBuffer(), 0, size);
+        return address;
+    }
+
+    /**
+     * Replaces a stored value. In case the new value's encoding fits into
+     * the space of the original one (of the slotSize bytes), it is overwritten
+     * in place. Otherwise the value is appended. The caller must be the only
+     * holder of the address.
+     *
+     * @param slotSize number of bytes available at the address (0 if unknown)
+     * @return address of the stored value
+     * @throws UncheckedIOException if the value cannot be encoded
+     */
+    public long replace(long address, int slotSize, Object value) {
+        encode(value);
+        if (this.encodeBuffer.size() > slotSize) {
+            return store();
+        }
+        ByteBuffer buff = this.chunks.get((int) (address >>> 32)).duplicate();
+        buff.position((int) address);
+        buff.put(this.encodeBuffer.getBuffer(), 0, this.encodeBuffer.size());
+        return address;
+    }
+
+    /**
+     * Returns number of bytes of the value stored (or replaced) most recently
+     */
+    public int getLastEncodedSize() {
+        return this.encodeBuffer.size();
+    }
+
+    private InputStream openAt(long address) {
+        ByteBuffer buff = this.chunks.get((int) (address >>> 32)).duplicate();
+        buff.flip();
+        buff.position((int) address);
+        return new InputStream() {
+
+            @Override
+            public int read() {
+                return buff.hasRemaining() ? buff.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!buff.hasRemaining()) {
+                    return -1;
+                }
+                int ans = Math.min(len, buff.remaining());
+                buff.get(b, off, ans);
+                return ans;
+            }
+        };
+    }
+
+    /**
+     * Decodes a value stored at the address
+     */
+    public Object read(long address) {
+        try {
+            return ValueCodec.read(new DataInputStream(openAt(address)), this.valueFactory);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a value stored at the address to the output. The value is
+     * decoded to plain Java objects only (which is much cheaper than creating
+     * script objects).
+     */
+    public void copyTo(long address, DataOutput out) throws IOException {
+        ValueCodec.write(out, ValueCodec.read(new DataInputStream(openAt(address)),
+                ValueCodec.JAVA_VALUES));
+    }
+
+    /**
+     * Returns number of bytes allocated by the arena
+     */
+    public long getAllocatedBytes() {
+        long ans = 0;
+        for (ByteBuffer chunk : this.chunks) {
+            ans += chunk.capacity();
+        }
+        return ans;
+    }
+
+    /**
+     * Releases all the stored values. Addresses obtained before
+     * become invalid.
+     */
+    public void clear() {
+        this.chunks.clear();
+    }
+}
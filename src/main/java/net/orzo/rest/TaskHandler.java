@@ -28,6 +28,7 @@ import net.orzo.service.ResourceNotFound;
 import net.orzo.service.StatusResponse;
 import net.orzo.service.TaskException;
 import net.orzo.service.TaskManager;
+import net.orzo.service.TaskSchedulingException;
 
 /**
  * 
@@ -70,7 +71,8 @@ public class TaskHandler extends JsonProvider
 	@Produces("application/json; charset=UTF-8")
 	public String runTask(@PathParam("task") String taskId,
 			@QueryParam("time") @DefaultValue("") String time,
-			@QueryParam("interval") @DefaultValue("0") String interval) {
+			@QueryParam("interval") @DefaultValue("0") String interval,
+			@QueryParam("retry") @DefaultValue("false") boolean retry) {
 		try {
 			if (!time.equals("") && interval != null) {
 				Pattern ptr = Pattern.compile("([0-2]?[0-9]):([0-5][0-9])");
@@ -83,13 +85,17 @@ public class TaskHandler extends JsonProvider
                 int taskInterval = Integer.parseInt(interval);
 				this.taskManager.scheduleTask(taskId, startHour, startMinute, taskInterval);
 
+			} else if (retry) {
+				this.taskManager.retryTask(taskId);
+
 			} else {
 				this.taskManager.startTask(taskId);
 			}
 			return toJson(new StatusResponse(
 					StatusResponse.Status.OK));
 
-		} catch (ResourceNotFound | ArgumentException | NumberFormatException e) {
+		} catch (ResourceNotFound | ArgumentException | NumberFormatException
+				| TaskSchedulingException e) {
 			return toJson(new StatusResponse(
 					StatusResponse.Status.ERROR, e.getMessage(), e));
 		}
@@ -117,4 +123,14 @@ public class TaskHandler extends JsonProvider
 	public String getTask(@PathParam("task") String taskId) {
 		return toJson(new TaskInfo(this.taskManager, this.taskManager.getTask(taskId)));
 	}
+
+	/**
+	 * Returns performance metrics of the task's phases and workers
+	 */
+	@GET
+	@Path("{task}/metrics")
+	@Produces("application/json; charset=UTF-8")
+	public String getTaskMetrics(@PathParam("task") String taskId) {
+		return toJson(this.taskManager.getTask(taskId).getMetrics());
+	}
 }
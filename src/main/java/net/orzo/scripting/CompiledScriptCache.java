@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.scripting;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+
+/**
+ * Holds a single Nashorn engine along with scripts already compiled by it.
+ * Compiled scripts are identified by their name (it is compiled into the code
+ * and reported in errors) and a hash of their contents which means that each
+ * source is parsed and compiled only once no matter how many workers
+ * evaluate it. Because Nashorn binds compiled code to the engine
+ * (and not to a global object), a compiled script can be evaluated in any
+ * number of independent script contexts (see {@link JsEngineAdapter}).
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+@SuppressWarnings("restriction")
+public class CompiledScriptCache {
+
+    private final ScriptEngine engine;
+
+    private final Map<String, CompiledScript> scripts;
+
+    /**
+     *
+     */
+    public CompiledScriptCache() {
+        this.engine = new NashornScriptEngineFactory() // TODO configurable timezone
+                .getScriptEngine(new String[] {"-timezone=" + getCurrentTimezone().getID()});
+        this.scripts = new ConcurrentHashMap<>();
+    }
+
+    private static TimeZone getCurrentTimezone() {
+        Calendar calendar = new GregorianCalendar();
+        return calendar.getTimeZone();
+    }
+
+    /**
+     * Returns an engine all the cached scripts are compiled by
+     */
+    public ScriptEngine getEngine() {
+        return this.engine;
+    }
+
+    private static String createKey(SourceCode code) {
+        return code.getName() + "\n" + code.getContentsHash();
+    }
+
+    /**
+     * Returns a compiled version of the provided source code. In case the
+     * same contents of the same name has been already compiled, the cached
+     * instance is returned.
+     *
+     * @throws ScriptException
+     */
+    public CompiledScript compile(SourceCode code) throws ScriptException {
+        String key = createKey(code);
+        CompiledScript ans = this.scripts.get(key);
+        if (ans == null) {
+            synchronized (this.engine) {
+                ans = this.scripts.get(key);
+                if (ans == null) {
+                    // the file name is read from the engine's default context during compilation
+                    this.engine.put(ScriptEngine.FILENAME, code.getName());
+                    ans = code.compile((Compilable) this.engine);
+                    this.scripts.put(key, ans);
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Tests whether the source code has been already compiled
+     */
+    public boolean contains(SourceCode code) {
+        return this.scripts.containsKey(createKey(code));
+    }
+
+    /**
+     * Returns number of compiled scripts
+     */
+    public int size() {
+        return this.scripts.size();
+    }
+}
@@ -35,6 +35,17 @@ public class EnvParams {
      */
     public String scriptName;
 
+    /**
+     * Identifies a version of the user script (a hash of its contents)
+     */
+    public String scriptHash;
+
+    /**
+     * Identifies the whole calculation, i.e. the user script, the bootstrap
+     * scripts and the input arguments
+     */
+    public String calculationHash;
+
     /**
      *
      */
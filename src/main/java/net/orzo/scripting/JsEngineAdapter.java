@@ -21,26 +21,27 @@ import java.util.*;
 import java.util.function.Function;
 
 import javax.script.Bindings;
-import javax.script.Compilable;
 import javax.script.CompiledScript;
-import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleScriptContext;
 
-import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import jdk.nashorn.api.scripting.NashornException;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
-import net.orzo.IntermediateResults;
+import net.orzo.PartitionedResults;
 import net.orzo.SharedServices;
 import net.orzo.lib.Lib;
+import net.orzo.spill.ValueCodec;
 
 import com.google.common.base.Joiner;
 
 /**
  * Javascript engine wrapper to serve within the application. Please note that
  * it is not thread-safe (i.e. each worker must have its JsEngineAdapter
- * instance).
+ * instance). Multiple adapters may share a single engine (and its compiled
+ * scripts) via {@link CompiledScriptCache} - each adapter then evaluates
+ * the code within its own script context (= own global object).
  * 
  * 
  * @author Tomas Machalek <tomas.machalek@gmail.com>
@@ -56,7 +57,12 @@ public class JsEngineAdapter {
     /**
      *
      */
-    private ScriptEngine engine;
+    private final ScriptEngine engine;
+
+    /**
+     * Already compiled scripts shared among multiple adapters
+     */
+    private final CompiledScriptCache scriptCache;
 
     /**
      *
@@ -77,7 +83,7 @@ public class JsEngineAdapter {
     /**
      *
      */
-    private IntermediateResults intermediateResults;
+    private PartitionedResults results;
 
     /**
      *
@@ -92,13 +98,22 @@ public class JsEngineAdapter {
      */
     public JsEngineAdapter(EnvParams envParams,
                            SharedServices sharedServices,
-                           IntermediateResults intermediateResults) {
+                           PartitionedResults results,
+                           CompiledScriptCache scriptCache) {
         this.envParams = envParams;
         this.sharedServices = sharedServices;
-        this.intermediateResults = intermediateResults;
+        this.results = results;
         this.modules = new HashMap<>();
-        this.engine = new NashornScriptEngineFactory() // TODO configurable timezone
-                .getScriptEngine(new String[] {"-timezone=" + getCurrentTimezone().getID()});
+        this.scriptCache = scriptCache;
+        this.engine = scriptCache.getEngine();
+    }
+
+    /**
+     */
+    public JsEngineAdapter(EnvParams envParams,
+                           SharedServices sharedServices,
+                           PartitionedResults results) {
+        this(envParams, sharedServices, results, new CompiledScriptCache());
     }
 
     /**
@@ -170,17 +185,13 @@ public class JsEngineAdapter {
         beginWork(null);
     }
 
-    private TimeZone getCurrentTimezone() {
-        Calendar calendar = new GregorianCalendar();
-        return calendar.getTimeZone();
-    }
-
     /**
      *
      */
     public void beginWork(Map<String, Object> globals) {
-        this.context = this.engine.getContext();
-        this.scope = this.context.getBindings(ScriptContext.ENGINE_SCOPE);
+        this.context = new SimpleScriptContext();
+        this.scope = this.engine.createBindings();
+        this.context.setBindings(this.scope, ScriptContext.ENGINE_SCOPE);
         this.system = new Lib();
         if (globals != null) {
             for (String globalVar : globals.keySet()) {
@@ -195,8 +206,11 @@ public class JsEngineAdapter {
         this.scope.put("_lib", this.system);
         this.scope.put("_env", this.envParams);
         this.scope.put("_shared", this.sharedServices);
-        if (this.intermediateResults != null) {
-            this.scope.put("_result", this.intermediateResults);
+        ValueCodec.ValueFactory valueFactory = getValueFactory();
+        this.scope.put("_valueFactory", valueFactory);
+        if (this.results != null) {
+            this.results.setValueFactory(valueFactory);
+            this.scope.put("_result", this.results);
         }
     }
 
@@ -227,12 +241,11 @@ public class JsEngineAdapter {
             CompiledScript moduleScript;
 
             // empty module
-            moduleScript = modEnv.compile((Compilable) this.engine);
+            moduleScript = this.scriptCache.compile(modEnv);
             moduleScript.eval(context);
 
             // actual module
-            moduleScript = code.compile((Compilable) this.engine);
-            this.engine.put(ScriptEngine.FILENAME, code.getName());
+            moduleScript = this.scriptCache.compile(code);
             moduleScript.eval(context);
 
             ScriptObjectMirror moduleObj = (ScriptObjectMirror) engineScope
@@ -243,6 +256,42 @@ public class JsEngineAdapter {
         return this.modules.get(code.getFullyQualifiedName());
     }
 
+    /**
+     * Returns a factory creating JavaScript arrays, objects and dates
+     * within the adapter's global scope (please note that {@link #beginWork()}
+     * must be called first).
+     */
+    public ValueCodec.ValueFactory getValueFactory() {
+        final ScriptObjectMirror arrayConstructor = (ScriptObjectMirror) this.scope.get("Array");
+        final ScriptObjectMirror objectConstructor = (ScriptObjectMirror) this.scope.get("Object");
+        final ScriptObjectMirror dateConstructor = (ScriptObjectMirror) this.scope.get("Date");
+        return new ValueCodec.ValueFactory() {
+
+            @Override
+            public Object newArray(List<Object> items) {
+                ScriptObjectMirror ans = (ScriptObjectMirror) arrayConstructor.newObject();
+                for (int i = 0; i < items.size(); i++) {
+                    ans.setSlot(i, items.get(i));
+                }
+                return ans;
+            }
+
+            @Override
+            public Object newObject(Map<String, Object> properties) {
+                ScriptObjectMirror ans = (ScriptObjectMirror) objectConstructor.newObject();
+                for (Map.Entry<String, Object> item : properties.entrySet()) {
+                    ans.setMember(item.getKey(), item.getValue());
+                }
+                return ans;
+            }
+
+            @Override
+            public Object newDate(double time) {
+                return dateConstructor.newObject(time);
+            }
+        };
+    }
+
     /**
      * Sets object within the scripting environment
      *
@@ -268,8 +317,19 @@ public class JsEngineAdapter {
      */
     public Object runFunction(String name, Object... args)
             throws NoSuchMethodException, ScriptException {
-        Invocable inv = (Invocable) this.engine;
-        return inv.invokeFunction(name, args);
+        Object fn = this.scope != null ? this.scope.get(name) : null;
+        if (!(fn instanceof ScriptObjectMirror) || !((ScriptObjectMirror) fn).isFunction()) {
+            throw new NoSuchMethodException(String.format("No such function: %s", name));
+        }
+        try {
+            return ((ScriptObjectMirror) fn).call(this.scope, args);
+
+        } catch (NashornException ex) {
+            ScriptException ans = new ScriptException(ex.getMessage(), ex.getFileName(),
+                    ex.getLineNumber(), ex.getColumnNumber());
+            ans.initCause(ex);
+            throw ans;
+        }
     }
 
     /**
@@ -284,15 +344,31 @@ public class JsEngineAdapter {
                     "Context and/or scope are not initialized.");
         }
         for (SourceCode code : sourceCodes) {
-            this.engine.put(ScriptEngine.FILENAME, code.getName());
-            CompiledScript script = code.compile((Compilable) this.engine);
-            ans = script.eval();
+            CompiledScript script = this.scriptCache.compile(code);
+            ans = script.eval(this.context);
         }
         return ans;
     }
 
+    /**
+     * Returns absolute paths of the files the script has read via
+     * the library readers so far
+     */
+    public Set<String> getInputFiles() {
+        return this.system != null ? this.system.files.getInputFiles() : Collections.emptySet();
+    }
 
-    public IntermediateResults getIntermediateResults() {
-        return this.intermediateResults;
+    public PartitionedResults getResults() {
+        return this.results;
+    }
+
+    /**
+     * Replaces the object emitted values are stored to (please note
+     * that {@link #beginWork()} must be called first)
+     */
+    public void setResults(PartitionedResults results) {
+        this.results = results;
+        this.results.setValueFactory(getValueFactory());
+        this.scope.put("_result", this.results);
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.scripting;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.script.ScriptContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of warmed-up JavaScript engines (along with scripts they have
+ * already compiled). A calculation borrows a single engine and uses it
+ * for all its phases. Once released, the engine can serve another
+ * calculation - in such case the bootstrap scripts and (in case the same
+ * user script is run again) also the user script are already compiled.
+ *
+ * The pool keeps at most maxSize idle engines. An engine is discarded
+ * after it has served maxUses calculations to prevent unlimited growth of
+ * compiled scripts and generated classes.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class JsEnginePool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsEnginePool.class);
+
+    private final int maxSize;
+
+    private final int maxUses;
+
+    private final LinkedList<CompiledScriptCache> idle;
+
+    private final Map<CompiledScriptCache, Integer> numUses;
+
+    /**
+     * @param maxSize max. number of idle engines kept in the pool
+     * @param maxUses number of borrowings after which an engine is discarded
+     */
+    public JsEnginePool(int maxSize, int maxUses) {
+        this.maxSize = maxSize;
+        this.maxUses = maxUses;
+        this.idle = new LinkedList<>();
+        this.numUses = new WeakHashMap<>();
+    }
+
+    /**
+     * Returns an engine from the pool or creates a new one if there is no idle
+     * engine. Engines which have already compiled the provided script are
+     * preferred.
+     *
+     * @param preferredScript a script we want to run (can be null)
+     */
+    public synchronized CompiledScriptCache borrow(SourceCode preferredScript) {
+        CompiledScriptCache ans = null;
+        if (preferredScript != null) {
+            Iterator<CompiledScriptCache> itr = this.idle.iterator();
+            while (itr.hasNext()) {
+                CompiledScriptCache item = itr.next();
+                if (item.contains(preferredScript)) {
+                    itr.remove();
+                    ans = item;
+                    break;
+                }
+            }
+        }
+        if (ans == null && this.idle.size() > 0) {
+            ans = this.idle.removeFirst();
+        }
+        if (ans == null) {
+            ans = new CompiledScriptCache();
+            this.numUses.put(ans, 0);
+            LOG.debug("Created a new JavaScript engine");
+        }
+        this.numUses.put(ans, this.numUses.get(ans) + 1);
+        return ans;
+    }
+
+    /**
+     * Returns the engine back to the pool. Please note that the caller must
+     * not use the engine once it is released.
+     */
+    public synchronized void release(CompiledScriptCache engine) {
+        if (engine == null || !this.numUses.containsKey(engine)) {
+            return;
+        }
+        if (this.numUses.get(engine) >= this.maxUses) {
+            this.numUses.remove(engine);
+            LOG.debug("Discarding JavaScript engine after {} uses", this.maxUses);
+
+        } else if (this.idle.size() >= this.maxSize) {
+            this.numUses.remove(engine);
+
+        } else {
+            // reset whatever may have been left in the default context
+            engine.getEngine().setBindings(engine.getEngine().createBindings(),
+                    ScriptContext.ENGINE_SCOPE);
+            this.idle.addLast(engine);
+        }
+    }
+
+    /**
+     * Returns number of idle engines
+     */
+    public synchronized int numIdle() {
+        return this.idle.size();
+    }
+}
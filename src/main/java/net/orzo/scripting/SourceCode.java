@@ -27,6 +27,7 @@ import javax.script.ScriptException;
 
 import net.orzo.tools.ResourceLoader;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.input.BOMInputStream;
 
 import com.google.common.io.ByteStreams;
@@ -58,6 +59,11 @@ public class SourceCode {
      */
     private final String contents;
 
+    /**
+     * Lazily calculated hash of the contents
+     */
+    private String contentsHash;
+
     /**
      * @param fullyQualifiedName full identification of the script (~ path)
      * @param name               name of the script (~ filename)
@@ -99,6 +105,18 @@ public class SourceCode {
         return contents;
     }
 
+    /**
+     * Returns SHA1 hash of the source code contents. Two source code objects
+     * with the same contents (no matter how they are named) produce the same
+     * hash.
+     */
+    public String getContentsHash() {
+        if (this.contentsHash == null) {
+            this.contentsHash = DigestUtils.sha1Hex(this.contents);
+        }
+        return this.contentsHash;
+    }
+
     /**
      * @throws ScriptException
      */
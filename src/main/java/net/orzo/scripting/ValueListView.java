@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.scripting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import jdk.nashorn.api.scripting.AbstractJSObject;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import net.orzo.NumericValueList;
+
+/**
+ * An array-like view of a list of values passed to a JavaScript function.
+ * Values are not copied into a new JavaScript array, they are read from
+ * the underlying list on access. Iterating methods (forEach, map, filter,
+ * reduce,...) are taken from Array.prototype as they work with any
+ * array-like object.
+ *
+ * Other Array methods (e.g. slice, sort, indexOf) cannot handle foreign
+ * objects in Nashorn. Once such a method is accessed (or the view is
+ * modified), the values are copied to a native array which backs the view
+ * from then on. The original list is never changed.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+@SuppressWarnings("restriction")
+public class ValueListView extends AbstractJSObject {
+
+    /**
+     * Array.prototype methods working with array-like objects
+     */
+    private static final Set<String> GENERIC_METHODS = new HashSet<>(Arrays.asList(
+            "forEach", "map", "filter", "reduce", "reduceRight", "some", "every", "join",
+            "toString"));
+
+    private final List<Object> values;
+
+    private final NumericValueList numbers;
+
+    private final ScriptObjectMirror arrayPrototype;
+
+    /**
+     * A native copy of the values (null until needed)
+     */
+    private ScriptObjectMirror array;
+
+    /**
+     * @param values a list of values (NumericValueList values are read without boxing them
+     *               into an intermediate list)
+     * @param arrayPrototype Array.prototype of the scope the view is used in
+     */
+    public ValueListView(List<Object> values, ScriptObjectMirror arrayPrototype) {
+        this.values = values;
+        this.numbers = values instanceof NumericValueList ? (NumericValueList) values : null;
+        this.arrayPrototype = arrayPrototype;
+    }
+
+    /**
+     * Copies the values to a native array
+     */
+    private ScriptObjectMirror materialize() {
+        if (this.array == null) {
+            ScriptObjectMirror constructor = (ScriptObjectMirror) this.arrayPrototype
+                    .getMember("constructor");
+            ScriptObjectMirror ans = (ScriptObjectMirror) constructor.newObject();
+            for (int i = 0; i < this.values.size(); i++) {
+                ans.setSlot(i, getSlot(i));
+            }
+            this.array = ans;
+        }
+        return this.array;
+    }
+
+    /**
+     * Tests whether the values have been copied to a native array
+     */
+    public boolean isMaterialized() {
+        return this.array != null;
+    }
+
+    public int size() {
+        if (this.array != null) {
+            return ((Number) this.array.getMember("length")).intValue();
+        }
+        return this.values.size();
+    }
+
+    @Override
+    public Object getSlot(int index) {
+        if (this.array != null) {
+            return this.array.getSlot(index);
+        }
+        if (index < 0 || index >= this.values.size()) {
+            return null;
+        }
+        if (this.numbers != null) {
+            return this.numbers.getNumber(index);
+        }
+        return this.values.get(index);
+    }
+
+    @Override
+    public boolean hasSlot(int slot) {
+        if (this.array != null) {
+            return this.array.hasSlot(slot);
+        }
+        return slot >= 0 && slot < this.values.size();
+    }
+
+    @Override
+    public void setSlot(int index, Object value) {
+        materialize().setSlot(index, value);
+    }
+
+    /**
+     * Returns an index encoded in a property name or -1
+     */
+    private static int toIndex(String name) {
+        if (name.isEmpty() || name.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(name);
+    }
+
+    @Override
+    public Object getMember(String name) {
+        if ("length".equals(name)) {
+            return size();
+        }
+        int index = toIndex(name);
+        if (index >= 0) {
+            return getSlot(index);
+        }
+        if (this.array == null && GENERIC_METHODS.contains(name)) {
+            return this.arrayPrototype.getMember(name);
+        }
+        Object ans = materialize().getMember(name);
+        if (ans instanceof ScriptObjectMirror && ((ScriptObjectMirror) ans).isFunction()) {
+            return ((ScriptObjectMirror) ans).callMember("bind", this.array);
+        }
+        return ans;
+    }
+
+    @Override
+    public boolean hasMember(String name) {
+        int index = toIndex(name);
+        if (index >= 0) {
+            return hasSlot(index);
+        }
+        return "length".equals(name) || this.arrayPrototype.hasMember(name);
+    }
+
+    @Override
+    public void setMember(String name, Object value) {
+        int index = toIndex(name);
+        if (index >= 0) {
+            setSlot(index, value);
+
+        } else {
+            materialize().setMember(name, value);
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        Set<String> ans = new LinkedHashSet<>();
+        for (int i = 0; i < size(); i++) {
+            ans.add(String.valueOf(i));
+        }
+        return ans;
+    }
+
+    @Override
+    public Collection<Object> values() {
+        List<Object> ans = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            ans.add(getSlot(i));
+        }
+        return ans;
+    }
+
+    @Override
+    public boolean isArray() {
+        return true;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Array";
+    }
+
+    @Override
+    public String toString() {
+        return this.array != null ? this.array.toString() : this.values.toString();
+    }
+}
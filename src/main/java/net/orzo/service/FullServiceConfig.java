@@ -46,6 +46,8 @@ public class FullServiceConfig implements ServiceConfig {
 
     private String geoip2DbPath;
 
+    private ProcessingConf processing;
+
     @Override
     public boolean isAllowedScript(String id) {
         return this.allowedScripts.containsKey(id);
@@ -98,4 +100,12 @@ public class FullServiceConfig implements ServiceConfig {
         return this.geoip2DbPath;
     }
 
+    @Override
+    public ProcessingConf getProcessingConf() {
+        if (this.processing == null) {
+            this.processing = new ProcessingConf();
+        }
+        return this.processing;
+    }
+
 }
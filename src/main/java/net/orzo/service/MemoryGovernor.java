@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.service;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.orzo.MemoryLimitExceededException;
+import net.orzo.MemoryPressure;
+
+/**
+ * Watches usage of the heap's tenured memory pool (the one long living data
+ * end up in) and protects the process from running out of memory when more
+ * calculations run concurrently:
+ *
+ * <ul>
+ * <li>once the usage exceeds a "high" watermark, running calculations spill
+ * their data (if spilling is enabled) or they are slowed down and new tasks
+ * are not started until the usage drops,</li>
+ * <li>once the usage exceeds a "critical" watermark, the most recently started
+ * calculation is stopped with an error (one at a time - another one is stopped
+ * only after the garbage collector has had a chance to release memory of the
+ * previous one).</li>
+ * </ul>
+ *
+ * The usage is measured as the lower of the current usage and the usage after
+ * the most recent collection (i.e. garbage does not count once a collection
+ * has run and a stale after-collection value is ignored once the current
+ * usage is lower).
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MemoryGovernor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryGovernor.class);
+
+    /**
+     * How often (in milliseconds) the memory usage is evaluated
+     */
+    private static final long POLL_INTERVAL = 200;
+
+    /**
+     * Max. time (in milliseconds) a producer of data is blocked per check
+     */
+    private static final long THROTTLE_DELAY = 50;
+
+    public enum Level {
+        NORMAL, HIGH, CRITICAL
+    }
+
+    private final DoubleSupplier usage;
+
+    private final LongSupplier numCollections;
+
+    private final double highWatermark;
+
+    private final double criticalWatermark;
+
+    private final Deque<Registration> registrations;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The watched pool in case its collection usage threshold is set
+     */
+    private MemoryPoolMXBean thresholdPool;
+
+    /**
+     * The pool's threshold before it was set by the governor
+     */
+    private long previousThreshold;
+
+    private NotificationListener thresholdListener;
+
+    private volatile Level level;
+
+    /**
+     * A stopped calculation which has not finished yet
+     */
+    private Registration lastStopped;
+
+    /**
+     * Number of collections of the pool when the last calculation was stopped
+     */
+    private long collectionsAtLastStop;
+
+    /**
+     * A calculation watched by the governor
+     */
+    public class Registration implements MemoryPressure, AutoCloseable {
+
+        private final String name;
+
+        private volatile boolean stopped;
+
+        private Registration(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean isStopped() {
+            return this.stopped;
+        }
+
+        @Override
+        public boolean check(boolean canRelease) {
+            if (this.stopped) {
+                throw new MemoryLimitExceededException(String.format(
+                        "Calculation %s stopped: heap usage exceeded %d%% of the available memory",
+                        this.name, Math.round(MemoryGovernor.this.criticalWatermark * 100)));
+            }
+            if (MemoryGovernor.this.level == Level.NORMAL) {
+                return false;
+            }
+            if (canRelease) {
+                return true;
+            }
+            try {
+                Thread.sleep(THROTTLE_DELAY);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Stops watching the calculation
+         */
+        @Override
+        public void close() {
+            MemoryGovernor.this.registrations.remove(this);
+        }
+    }
+
+    /**
+     * @param highWatermark ratio of used tenured memory where calculations
+     *                      are asked to release data and new tasks wait
+     * @param criticalWatermark ratio of used tenured memory where the most
+     *                          recent calculation is stopped
+     */
+    public MemoryGovernor(double highWatermark, double criticalWatermark) {
+        this(findTenuredPool(), highWatermark, criticalWatermark);
+    }
+
+    private MemoryGovernor(MemoryPoolMXBean pool, double highWatermark, double criticalWatermark) {
+        this(pool != null ? () -> getUsage(pool) : () -> 0,
+                pool != null ? () -> getNumCollections(pool) : () -> 0,
+                highWatermark, criticalWatermark);
+        if (pool == null) {
+            LOG.warn("No suitable heap memory pool found, memory governor is disabled");
+            return;
+        }
+        if (pool.isCollectionUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+            // the level is re-evaluated right after a collection leaves too much data
+            this.thresholdPool = pool;
+            this.previousThreshold = pool.getCollectionUsageThreshold();
+            pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * highWatermark));
+            this.thresholdListener = (notification, handback) -> update();
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+                    this.thresholdListener,
+                    notification -> MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+                            .equals(notification.getType()), null);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "orzo-memory-governor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::update, POLL_INTERVAL, POLL_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param usage provides the current memory usage ratio
+     * @param numCollections provides the number of collections of the watched memory
+     */
+    MemoryGovernor(DoubleSupplier usage, LongSupplier numCollections, double highWatermark,
+                   double criticalWatermark) {
+        if (highWatermark <= 0 || highWatermark > criticalWatermark) {
+            throw new IllegalArgumentException("Memory watermarks must satisfy 0 < high <= critical");
+        }
+        this.usage = usage;
+        this.numCollections = numCollections;
+        this.highWatermark = highWatermark;
+        this.criticalWatermark = criticalWatermark;
+        this.registrations = new ConcurrentLinkedDeque<>();
+        this.level = Level.NORMAL;
+    }
+
+    /**
+     * Finds a heap pool supporting usage thresholds with the highest max. size
+     * (i.e. the tenured generation)
+     */
+    private static MemoryPoolMXBean findTenuredPool() {
+        MemoryPoolMXBean ans = null;
+        for (MemoryPoolMXBean item : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (item.getType() == MemoryType.HEAP && item.isUsageThresholdSupported()
+                    && (ans == null || item.getUsage().getMax() > ans.getUsage().getMax())) {
+                ans = item;
+            }
+        }
+        return ans;
+    }
+
+    private static double ratio(MemoryUsage usage) {
+        long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return (double) usage.getUsed() / max;
+    }
+
+    /**
+     * Returns the pool's usage ratio (see the class' documentation)
+     */
+    private static double getUsage(MemoryPoolMXBean pool) {
+        double ans = ratio(pool.getUsage());
+        MemoryUsage afterCollection = pool.getCollectionUsage();
+        if (afterCollection != null && getNumCollections(pool) > 0) {
+            ans = Math.min(ans, ratio(afterCollection));
+        }
+        return ans;
+    }
+
+    private static long getNumCollections(MemoryPoolMXBean pool) {
+        long ans = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (Arrays.asList(gc.getMemoryPoolNames()).contains(pool.getName())) {
+                ans += Math.max(0, gc.getCollectionCount());
+            }
+        }
+        return ans;
+    }
+
+    public Level getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Evaluates the memory usage and updates the pressure level
+     */
+    synchronized void update() {
+        double usage = this.usage.getAsDouble();
+        Level newLevel;
+        if (usage >= this.criticalWatermark) {
+            newLevel = Level.CRITICAL;
+
+        } else if (usage >= this.highWatermark) {
+            newLevel = Level.HIGH;
+
+        } else {
+            newLevel = Level.NORMAL;
+        }
+        if (newLevel != this.level) {
+            LOG.info(String.format("Memory pressure changed from %s to %s (usage: %01.2f)",
+                    this.level, newLevel, usage));
+        }
+        this.level = newLevel;
+        if (newLevel == Level.CRITICAL) {
+            stopMostRecent(usage);
+        }
+    }
+
+    /**
+     * Stops the most recently registered calculation unless a previously
+     * stopped one is still running or no collection has run since then
+     */
+    private void stopMostRecent(double usage) {
+        long numCollections = this.numCollections.getAsLong();
+        if (this.lastStopped != null && (this.registrations.contains(this.lastStopped)
+                || numCollections == this.collectionsAtLastStop)) {
+            return;
+        }
+        Iterator<Registration> iter = this.registrations.descendingIterator();
+        while (iter.hasNext()) {
+            Registration item = iter.next();
+            if (!item.stopped) {
+                item.stopped = true;
+                this.lastStopped = item;
+                this.collectionsAtLastStop = numCollections;
+                LOG.error(String.format("Heap usage %01.2f exceeded the critical level, stopping calculation %s",
+                        usage, item.name));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts watching a calculation
+     */
+    public Registration register(String name) {
+        Registration ans = new Registration(name);
+        this.registrations.add(ans);
+        return ans;
+    }
+
+    /**
+     * Blocks until the memory pressure is normal (i.e. a new task may start)
+     */
+    public void awaitAdmission() throws InterruptedException {
+        if (this.level != Level.NORMAL) {
+            LOG.warn(String.format("Memory pressure is %s, waiting before a new task is started",
+                    this.level));
+            while (this.level != Level.NORMAL) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+            LOG.info("Memory pressure is back to normal, starting a waiting task");
+        }
+    }
+
+    /**
+     * Stops watching memory. The listener of memory notifications is removed
+     * and the pool's collection usage threshold is restored.
+     */
+    public void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        if (this.thresholdListener != null) {
+            try {
+                ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(
+                        this.thresholdListener);
+
+            } catch (ListenerNotFoundException ex) {
+                LOG.warn(String.format("Failed to remove memory notification listener: %s", ex.getMessage()));
+            }
+            this.thresholdPool.setCollectionUsageThreshold(this.previousThreshold);
+            this.thresholdListener = null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orzo.service;
+
+/**
+ * Configures how calculations are processed. All the values have reasonable
+ * defaults so the whole section is optional in the service configuration.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ProcessingConf {
+
+    /**
+     * Max. number of idle JavaScript engines kept for reuse
+     */
+    public int enginePoolSize = 4;
+
+    /**
+     * Number of calculations an engine serves before it is discarded
+     * (this limits the growth of generated classes and compiled scripts)
+     */
+    public int engineMaxUses = 50;
+
+    /**
+     * Max. number of threads processing MAP and REDUCE units of all the
+     * running calculations (0 = number of available processors)
+     */
+    public int numWorkers = 0;
+
+    /**
+     * Max. number of values a worker holds in memory before they are
+     * written to disk (0 = never spill)
+     */
+    public int spillThreshold = 0;
+
+    /**
+     * Where spilled data are stored (null = system temporary directory)
+     */
+    public String spillDirectory = null;
+
+    /**
+     * If true then emitted values are stored outside of the Java heap
+     * (in an encoded form)
+     */
+    public boolean offHeapResults = false;
+
+    /**
+     * If true then all the workers of a calculation share a single instance
+     * of each emitted key (see {@link net.orzo.KeyDictionary}) which saves
+     * memory in case of many repeated keys (e.g. URLs)
+     */
+    public boolean internKeys = false;
+
+    /**
+     * If a MAP chunk's progress rate (items per second) is this many times
+     * lower than a typical rate of finished chunks, an idle worker processes
+     * the chunk again and the first finished attempt wins (0 = no speculative
+     * execution)
+     */
+    public double speculativeMapSlowdown = 0;
+
+    /**
+     * Where outputs of finished phases are stored so a failed task can
+     * be resumed (null = no checkpoints)
+     */
+    public String checkpointDirectory = null;
+
+    /**
+     * Checkpoints older than this number of minutes are discarded instead
+     * of being resumed (0 = no limit)
+     */
+    public int checkpointMaxAge = 720;
+
+    /**
+     * Ratio of used tenured heap memory where running calculations spill
+     * their data (or are slowed down) and new tasks wait. The memory governor
+     * is opt-in - it runs only if the value is set (e.g. to 0.85; 0 = no memory
+     * governor).
+     */
+    public double memoryHighWatermark = 0;
+
+    /**
+     * Ratio of used tenured heap memory where the most recently started
+     * calculation is stopped (used only along with memoryHighWatermark)
+     */
+    public double memoryCriticalWatermark = 0.95;
+
+    @Override
+    public String toString() {
+        return String.format("ProcessingConf {enginePoolSize: %s, engineMaxUses: %s, "
+                + "numWorkers: %s, spillThreshold: %s, spillDirectory: %s, offHeapResults: %s, "
+                + "internKeys: %s, speculativeMapSlowdown: %s, checkpointDirectory: %s, "
+                + "checkpointMaxAge: %s, memoryHighWatermark: %s, memoryCriticalWatermark: %s}",
+                this.enginePoolSize, this.engineMaxUses, this.numWorkers, this.spillThreshold,
+                this.spillDirectory, this.offHeapResults, this.internKeys,
+                this.speculativeMapSlowdown, this.checkpointDirectory,
+                this.checkpointMaxAge, this.memoryHighWatermark, this.memoryCriticalWatermark);
+    }
+}
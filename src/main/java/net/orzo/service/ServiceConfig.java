@@ -37,4 +37,6 @@ public interface ServiceConfig {
 
     public String getGeoipDbPath();
 
+    public ProcessingConf getProcessingConf();
+
 }
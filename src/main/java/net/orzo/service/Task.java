@@ -22,6 +22,7 @@ import java.util.Observable;
 import java.util.Observer;
 
 import net.orzo.*;
+import net.orzo.scripting.JsEnginePool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,18 +39,46 @@ public class Task extends Observable implements Observer {
 
     private final SharedServices sharedServices;
 
+    private final JsEnginePool enginePool;
+
+    private final ProcessingConf processingConf;
+
+    private final WorkerPool workerPool;
+
+    /**
+     * Heap usage watch (null if disabled)
+     */
+    private final MemoryGovernor memoryGovernor;
+
     private Object result;
 
+    /**
+     * Metrics of the most recent run
+     */
+    private volatile CalculationMetrics metrics;
+
     private static final Logger LOG = LoggerFactory
             .getLogger(Task.class);
 
-    public Task(String id, CalculationParams params, SharedServices sharedServices) {
+    public Task(String id, CalculationParams params, SharedServices sharedServices,
+                JsEnginePool enginePool, ProcessingConf processingConf, WorkerPool workerPool) {
+        this(id, params, sharedServices, enginePool, processingConf, workerPool, null);
+    }
+
+    public Task(String id, CalculationParams params, SharedServices sharedServices,
+                JsEnginePool enginePool, ProcessingConf processingConf, WorkerPool workerPool,
+                MemoryGovernor memoryGovernor) {
         super();
         this.id = id;
         this.params = params;
         this.sharedServices = sharedServices;
+        this.enginePool = enginePool;
+        this.processingConf = processingConf;
+        this.workerPool = workerPool;
+        this.memoryGovernor = memoryGovernor;
         this.events = new ArrayList<>();
         this.events.add(new TaskEvent(TaskStatus.PENDING));
+        this.metrics = new CalculationMetrics();
     }
 
     public Object getResult() throws ResourceNotAvailable {
@@ -98,6 +127,14 @@ public class Task extends Observable implements Observer {
         return -1;
     }
 
+    /**
+     * Returns performance metrics of the most recent (or currently running)
+     * calculation of the task
+     */
+    public CalculationMetrics getMetrics() {
+        return this.metrics;
+    }
+
     public void addEvent(TaskEvent event) {
         this.events.add(event);
         setChanged();
@@ -105,9 +142,27 @@ public class Task extends Observable implements Observer {
     }
 
     protected void run() {
+        run(false);
+    }
+
+    /**
+     * Runs the task again continuing from the last checkpoint of its
+     * previous failed run (if checkpoints are enabled and the inputs have
+     * not changed)
+     */
+    protected void retry() {
+        run(true);
+    }
+
+    private void run(boolean resumeFailed) {
         this.events.add(new TaskEvent(TaskStatus.PREPARING));
-        Calculation proc = new Calculation(this.params, this.sharedServices);
+        MemoryGovernor.Registration memoryPressure = this.memoryGovernor != null
+                ? this.memoryGovernor.register(this.id) : null;
+        Calculation proc = new Calculation(this.params, this.sharedServices, this.enginePool,
+                this.processingConf, this.workerPool.createGroup(this.id), memoryPressure);
         proc.addObserver(this);
+        proc.setResumeFailed(resumeFailed);
+        this.metrics = proc.getMetrics();
         try {
             this.result = proc.run();
             addEvent(new TaskEvent(TaskStatus.FINISHED));
@@ -115,6 +170,11 @@ public class Task extends Observable implements Observer {
 
         } catch (CalculationException e) {
             addEvent(new TaskEvent(TaskStatus.ERROR, e));
+
+        } finally {
+            if (memoryPressure != null) {
+                memoryPressure.close();
+            }
         }
     }
 
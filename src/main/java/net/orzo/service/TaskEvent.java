@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.orzo.CalculationException;
+import net.orzo.CalculationMetrics;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,12 +36,39 @@ public class TaskEvent {
 
     private final List<Exception> errors;
 
+    private final String message;
+
+    private final CalculationMetrics.Phase metrics;
+
     private static final Logger LOG = LoggerFactory.getLogger(TaskEvent.class);
 
     public TaskEvent(TaskStatus status) {
+        this(status, (String) null);
+    }
+
+    /**
+     * Creates an event with an additional information (e.g. statistics
+     * of a calculation phase)
+     */
+    public TaskEvent(TaskStatus status, String message) {
+        this(status, message, null);
+    }
+
+    /**
+     * Creates an event of a started calculation phase along with the phase's
+     * metrics (they are updated until the phase is finished)
+     */
+    public TaskEvent(TaskStatus status, String message, CalculationMetrics.Phase metrics) {
         this.created = System.currentTimeMillis();
         this.status = status;
-        LOG.info(String.format("Created event <%s>", this.status));
+        this.message = message;
+        this.metrics = metrics;
+        if (message != null) {
+            LOG.info(String.format("Created event <%s>: %s", this.status, message));
+
+        } else {
+            LOG.info(String.format("Created event <%s>", this.status));
+        }
         this.errors = new ArrayList<>();
     }
 
@@ -67,4 +95,19 @@ public class TaskEvent {
         return this.errors;
     }
 
+    /**
+     * Returns an additional information or null if there is none
+     */
+    public String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Returns metrics of a calculation phase the event belongs to (or null
+     * if there is no such phase)
+     */
+    public CalculationMetrics.Phase getMetrics() {
+        return this.metrics;
+    }
+
 }
@@ -19,6 +19,7 @@ package net.orzo.service;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -29,6 +30,7 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import net.orzo.CalculationParams;
+import net.orzo.scripting.JsEnginePool;
 import net.orzo.scripting.SourceCode;
 
 /**
@@ -55,6 +57,24 @@ public class TaskManager implements Observer {
 
     private final SharedServices sharedServices;
 
+    private final JsEnginePool enginePool;
+
+    /**
+     * Threads processing MAP and REDUCE units of all the tasks
+     */
+    private final WorkerPool workerPool;
+
+    /**
+     * Threads controlling running tasks (they mostly wait for
+     * the worker pool)
+     */
+    private final ExecutorService taskRunner;
+
+    /**
+     * Watches heap usage of running tasks (null if disabled)
+     */
+    private final MemoryGovernor memoryGovernor;
+
     /**
      */
     @Inject
@@ -65,6 +85,20 @@ public class TaskManager implements Observer {
         this.schedules = new HashMap<>();
         this.execLog = new TaskLog();
         this.sharedServices = new SharedServices(this.conf.getGeoipDbPath());
+        this.enginePool = new JsEnginePool(this.conf.getProcessingConf().enginePoolSize,
+                this.conf.getProcessingConf().engineMaxUses);
+        this.workerPool = new WorkerPool(this.conf.getProcessingConf().numWorkers > 0
+                ? this.conf.getProcessingConf().numWorkers
+                : Runtime.getRuntime().availableProcessors());
+        this.taskRunner = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        ProcessingConf procConf = this.conf.getProcessingConf();
+        this.memoryGovernor = procConf.memoryHighWatermark > 0
+                ? new MemoryGovernor(procConf.memoryHighWatermark, procConf.memoryCriticalWatermark)
+                : null;
     }
 
     /**
@@ -130,7 +164,9 @@ public class TaskManager implements Observer {
             params.userScript = scriptConf.getScript();
             params.workingDirModulesPath = userScriptFile.getParent();
             params.inputValues = args != null && args.length > 0 ? args : scriptConf.getDefaultArgs();
-            task = new Task(taskId, params, this.sharedServices);
+            params.taskId = taskId;
+            task = new Task(taskId, params, this.sharedServices, this.enginePool,
+                    this.conf.getProcessingConf(), this.workerPool, this.memoryGovernor);
             task.addObserver(this);
             if (onFinished != null) {
                 task.addObserver(onFinished);
@@ -152,12 +188,8 @@ public class TaskManager implements Observer {
      */
     public void startTask(String taskId) throws ResourceNotFound {
         if (this.tasks.containsKey(taskId)) {
-            new Thread() {
-                @Override
-                public void run() {
-                    TaskManager.this.tasks.get(taskId).run();
-                }
-            }.start();
+            Task task = this.tasks.get(taskId);
+            this.taskRunner.execute(() -> runAdmitted(task, false));
 
         } else {
             throw new ResourceNotFound(String.format("task %s not found",
@@ -165,10 +197,51 @@ public class TaskManager implements Observer {
         }
     }
 
+    /**
+     * Runs a failed task again. Phases finished by the failed run are not
+     * repeated in case they have been stored as checkpoints (see
+     * {@link ProcessingConf#checkpointDirectory}) and the input files have not
+     * changed.
+     *
+     * @throws TaskSchedulingException if the task has not failed
+     */
+    public void retryTask(String taskId) throws ResourceNotFound {
+        if (!this.tasks.containsKey(taskId)) {
+            throw new ResourceNotFound(String.format("task %s not found", taskId));
+        }
+        Task task = this.tasks.get(taskId);
+        if (task.getStatus() != TaskStatus.ERROR) {
+            throw new TaskSchedulingException(String.format("Task %s has not failed", taskId));
+        }
+        this.taskRunner.execute(() -> runAdmitted(task, true));
+    }
+
     /**
      */
     public void startTaskSync(String taskId) {
-        getTask(taskId).run();
+        runAdmitted(getTask(taskId), false);
+    }
+
+    /**
+     * Runs a task once the memory governor (if enabled) admits it
+     */
+    private void runAdmitted(Task task, boolean resumeFailed) {
+        if (this.memoryGovernor != null) {
+            try {
+                this.memoryGovernor.awaitAdmission();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.addEvent(new TaskEvent(TaskStatus.ERROR, e));
+                return;
+            }
+        }
+        if (resumeFailed) {
+            task.retry();
+
+        } else {
+            task.run();
+        }
     }
 
 
@@ -217,5 +290,16 @@ public class TaskManager implements Observer {
         return this.conf.getScriptConfig(id);
     }
 
+    /**
+     * Stops the threads shared by all the tasks (the worker pool
+     * and the memory governor)
+     */
+    public void shutdown() {
+        this.workerPool.shutdown();
+        if (this.memoryGovernor != null) {
+            this.memoryGovernor.shutdown();
+        }
+    }
+
 
 }
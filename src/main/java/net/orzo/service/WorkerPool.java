@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process-wide pool of threads running units of work (map and reduce
+ * workers) of all the calculations. The number of threads is fixed which
+ * means it is a global cap of concurrently running units no matter how
+ * many tasks are running.
+ *
+ * Each calculation submits its units via its own {@link Group}. Threads
+ * take units from groups in a round-robin manner so concurrently running
+ * calculations get a fair share of the threads.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class WorkerPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerPool.class);
+
+    private final List<Thread> threads;
+
+    /**
+     * Groups with at least one pending unit
+     */
+    private final Deque<Group> readyGroups;
+
+    private final Object lock;
+
+    private volatile boolean running;
+
+    /**
+     * A queue of units of a single calculation
+     */
+    public class Group implements Executor {
+
+        private final String name;
+
+        private final Queue<Runnable> units;
+
+        private boolean ready;
+
+        private Group(String name) {
+            this.name = name;
+            this.units = new ArrayDeque<>();
+        }
+
+        /**
+         * Enqueues a unit of work
+         *
+         * @throws RejectedExecutionException in case the pool is shut down
+         */
+        @Override
+        public void execute(Runnable unit) {
+            if (!WorkerPool.this.running) {
+                throw new RejectedExecutionException("Worker pool is shut down");
+            }
+            synchronized (WorkerPool.this.lock) {
+                this.units.add(unit);
+                if (!this.ready) {
+                    this.ready = true;
+                    WorkerPool.this.readyGroups.addLast(this);
+                }
+                WorkerPool.this.lock.notify();
+            }
+        }
+
+        /**
+         * Enqueues a unit of work producing a value
+         */
+        public <T> Future<T> submit(Callable<T> unit) {
+            FutureTask<T> ans = new FutureTask<>(unit);
+            execute(ans);
+            return ans;
+        }
+
+        public WorkerPool getPool() {
+            return WorkerPool.this;
+        }
+
+        /**
+         * Returns number of units waiting for a thread
+         */
+        public int getNumPending() {
+            synchronized (WorkerPool.this.lock) {
+                return this.units.size();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Group {name: %s}", this.name);
+        }
+    }
+
+    /**
+     * @param numThreads max. number of concurrently running units
+     */
+    public WorkerPool(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be >= 1");
+        }
+        this.readyGroups = new ArrayDeque<>();
+        this.lock = new Object();
+        this.running = true;
+        this.threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(this::processUnits, String.format("orzo-worker-%d", i));
+            thread.setDaemon(true);
+            this.threads.add(thread);
+            thread.start();
+        }
+        LOG.info(String.format("Started worker pool with %d threads", numThreads));
+    }
+
+    /**
+     * Creates a new queue of units (typically one for each calculation)
+     */
+    public Group createGroup(String name) {
+        return new Group(name);
+    }
+
+    /**
+     * Returns max. number of concurrently running units
+     */
+    public int getNumThreads() {
+        return this.threads.size();
+    }
+
+    /**
+     * Takes a unit from a group which is first in the line and moves the group
+     * to the end of the line (if it has more units).
+     */
+    private Runnable takeUnit() throws InterruptedException {
+        synchronized (this.lock) {
+            while (this.readyGroups.isEmpty()) {
+                this.lock.wait();
+            }
+            Group group = this.readyGroups.pollFirst();
+            Runnable ans = group.units.poll();
+            if (group.units.isEmpty()) {
+                group.ready = false;
+
+            } else {
+                this.readyGroups.addLast(group);
+            }
+            return ans;
+        }
+    }
+
+    private void processUnits() {
+        while (this.running) {
+            try {
+                takeUnit().run();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+
+            } catch (RuntimeException e) { // units are expected to handle their errors
+                LOG.error(String.format("Unhandled error in a worker unit: %s", e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * Stops all the threads. Pending units are not processed.
+     */
+    public void shutdown() {
+        this.running = false;
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+    }
+}
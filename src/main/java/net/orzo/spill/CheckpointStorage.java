@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.orzo.IntermediateResults;
+import net.orzo.PartitionedResults;
+
+/**
+ * Stores outputs of finished calculation phases (MAP output and output of
+ * each REDUCE pass) so a failed task can be resumed at the first unfinished
+ * phase. Each phase is stored in its own directory as a set of run files
+ * (see {@link RunFile}) described by a binary manifest. The manifest is
+ * written last (atomically) which means that a phase without a manifest is
+ * incomplete and is ignored. Only the latest phase is kept.
+ *
+ * Along with the phases, fingerprints (path, size, modification time) of
+ * the input files read by MAP are stored so a checkpoint of changed inputs
+ * is not used.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class CheckpointStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckpointStorage.class);
+
+    private static final int MANIFEST_MAGIC = 0x4f5a4350;
+
+    private static final int MANIFEST_VERSION = 1;
+
+    private static final String MANIFEST_FILE = "manifest";
+
+    private static final String INPUTS_FILE = "inputs";
+
+    private static final String PHASE_PREFIX = "phase-";
+
+    private final File directory;
+
+    /**
+     * @param parentDirectory a directory containing checkpoints of all the tasks
+     * @param checkpointId identifies a calculation (its scripts and arguments)
+     * @param maxAge checkpoints (of any task) older than this number of
+     *               milliseconds are discarded (0 = no limit)
+     */
+    public CheckpointStorage(String parentDirectory, String checkpointId, long maxAge) {
+        this.directory = new File(parentDirectory, checkpointId);
+        if (maxAge > 0) {
+            removeExpired(new File(parentDirectory), maxAge);
+        }
+    }
+
+    private static void removeExpired(File parentDirectory, long maxAge) {
+        File[] items = parentDirectory.listFiles(File::isDirectory);
+        if (items != null) {
+            for (File item : items) {
+                if (System.currentTimeMillis() - item.lastModified() > maxAge) {
+                    LOG.info(String.format("Discarding expired checkpoint %s", item));
+                    try {
+                        FileUtils.deleteDirectory(item);
+
+                    } catch (IOException e) {
+                        LOG.warn(String.format("Failed to remove checkpoint directory %s: %s",
+                                item, e.getMessage()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores fingerprints of input files of the calculation
+     */
+    public void saveInputs(Collection<String> paths) throws IOException {
+        Files.createDirectories(this.directory.toPath());
+        File tmpFile = new File(this.directory, INPUTS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)))) {
+            out.writeInt(paths.size());
+            for (String path : paths) {
+                File file = new File(path);
+                out.writeUTF(path);
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+            }
+        }
+        Files.move(tmpFile.toPath(), new File(this.directory, INPUTS_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tests whether input files stored via {@link #saveInputs(Collection)}
+     * have not changed since then (a missing record means they have)
+     */
+    public boolean hasSameInputs() {
+        File inputs = new File(this.directory, INPUTS_FILE);
+        if (!inputs.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(inputs)))) {
+            int numFiles = in.readInt();
+            for (int i = 0; i < numFiles; i++) {
+                File file = new File(in.readUTF());
+                if (in.readLong() != file.length() || in.readLong() != file.lastModified()) {
+                    LOG.info(String.format("Input file %s has changed", file));
+                    return false;
+                }
+            }
+            return true;
+
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    private File getPhaseDirectory(int phase) {
+        return new File(this.directory, PHASE_PREFIX + phase);
+    }
+
+    /**
+     * Returns the latest completely stored phase (0 = MAP, k = k-th REDUCE
+     * pass) or -1 if there is no such phase.
+     */
+    public int getLastPhase() {
+        int ans = -1;
+        File[] items = this.directory.listFiles();
+        if (items != null) {
+            for (File item : items) {
+                if (item.getName().startsWith(PHASE_PREFIX)
+                        && new File(item, MANIFEST_FILE).isFile()) {
+                    try {
+                        ans = Math.max(ans, Integer.parseInt(item.getName().substring(
+                                PHASE_PREFIX.length())));
+
+                    } catch (NumberFormatException ex) {
+                        // not a phase directory
+                    }
+                }
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Stores results of a phase. Once the phase is stored, all the older
+     * phases are removed.
+     */
+    public void save(int phase, List<PartitionedResults> results) throws IOException {
+        File phaseDir = getPhaseDirectory(phase);
+        if (phaseDir.exists()) {
+            FileUtils.deleteDirectory(phaseDir);
+        }
+        Files.createDirectories(phaseDir.toPath());
+        int numPartitions = results.size() > 0 ? results.get(0).getNumPartitions() : 0;
+        File tmpManifest = new File(phaseDir, MANIFEST_FILE + ".tmp");
+
+        try (DataOutputStream manifest = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpManifest)))) {
+            manifest.writeInt(MANIFEST_MAGIC);
+            manifest.writeInt(MANIFEST_VERSION);
+            manifest.writeInt(results.size());
+            manifest.writeInt(numPartitions);
+            for (int i = 0; i < results.size(); i++) {
+                PartitionedResults item = results.get(i);
+                for (int p = 0; p < numPartitions; p++) {
+                    List<RunFile> runs = new ArrayList<>();
+                    IntermediateResults partition = item.getPartition(p);
+                    if (partition.size() > 0) {
+                        runs.add(RunFile.write(new File(phaseDir,
+                                String.format("%d-%d-m.bin", i, p)), partition));
+                    }
+                    int runIdx = 0;
+                    for (RunFile run : item.getRuns(p)) {
+                        runs.add(run.copyTo(new File(phaseDir,
+                                String.format("%d-%d-%d.bin", i, p, runIdx))));
+                        runIdx++;
+                    }
+                    manifest.writeInt(runs.size());
+                    for (RunFile run : runs) {
+                        manifest.writeUTF(run.getFile().getName());
+                        manifest.writeInt(run.getNumKeys());
+                        manifest.writeInt(run.getNumValues());
+                    }
+                }
+            }
+        }
+        Files.move(tmpManifest.toPath(), new File(phaseDir, MANIFEST_FILE).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        for (int i = 0; i < phase; i++) {
+            File oldDir = getPhaseDirectory(i);
+            if (oldDir.exists()) {
+                FileUtils.deleteDirectory(oldDir);
+            }
+        }
+        LOG.info(String.format("Stored checkpoint of phase %d to %s", phase, phaseDir));
+    }
+
+    /**
+     * Restores results of a stored phase. All the values stay in the checkpoint
+     * files, returned results only refer to them.
+     */
+    public List<PartitionedResults> load(int phase) throws IOException {
+        File phaseDir = getPhaseDirectory(phase);
+        List<PartitionedResults> ans = new ArrayList<>();
+        try (DataInputStream manifest = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(phaseDir, MANIFEST_FILE))))) {
+            if (manifest.readInt() != MANIFEST_MAGIC || manifest.readInt() != MANIFEST_VERSION) {
+                throw new IOException(String.format("Invalid checkpoint manifest in %s", phaseDir));
+            }
+            int numResults = manifest.readInt();
+            int numPartitions = manifest.readInt();
+            for (int i = 0; i < numResults; i++) {
+                PartitionedResults item = new PartitionedResults(numPartitions);
+                for (int p = 0; p < numPartitions; p++) {
+                    int numRuns = manifest.readInt();
+                    for (int r = 0; r < numRuns; r++) {
+                        File file = new File(phaseDir, manifest.readUTF());
+                        int numKeys = manifest.readInt();
+                        int numValues = manifest.readInt();
+                        if (!file.isFile()) {
+                            throw new IOException(String.format("Missing checkpoint file %s", file));
+                        }
+                        item.addRun(p, RunFile.existing(file, numKeys, numValues));
+                    }
+                }
+                ans.add(item);
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Removes all the stored phases
+     */
+    public void delete() {
+        try {
+            FileUtils.deleteDirectory(this.directory);
+
+        } catch (IOException e) {
+            LOG.warn(String.format("Failed to remove checkpoint directory %s: %s",
+                    this.directory, e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.util.List;
+
+/**
+ * A key along with all its values.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class KeyValues {
+
+    private final String key;
+
+    private final List<Object> values;
+
+    public KeyValues(String key, List<Object> values) {
+        this.key = key;
+        this.values = values;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public List<Object> getValues() {
+        return this.values;
+    }
+}
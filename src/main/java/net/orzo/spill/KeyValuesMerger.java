@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import net.orzo.IntermediateResults;
+import net.orzo.NumericValueList;
+
+/**
+ * Merges multiple sources of key-values sorted by keys into a single sorted
+ * sequence (k-way merge). Values of a key found in more sources are joined
+ * together so each key is returned exactly once.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class KeyValuesMerger implements Iterator<KeyValues>, Closeable {
+
+    private final PriorityQueue<Source> queue;
+
+    private final List<Closeable> resources;
+
+    /**
+     *
+     */
+    private static class Source implements Comparable<Source> {
+
+        private final Iterator<KeyValues> items;
+
+        private KeyValues current;
+
+        Source(Iterator<KeyValues> items) {
+            this.items = items;
+        }
+
+        boolean advance() {
+            this.current = this.items.hasNext() ? this.items.next() : null;
+            return this.current != null;
+        }
+
+        @Override
+        public int compareTo(Source o) {
+            return this.current.getKey().compareTo(o.current.getKey());
+        }
+    }
+
+    public KeyValuesMerger() {
+        this.queue = new PriorityQueue<>();
+        this.resources = new ArrayList<>();
+    }
+
+    /**
+     * Adds a sorted sequence of key-values. Sources implementing
+     * {@link Closeable} are closed along with the merger.
+     */
+    public void add(Iterator<KeyValues> items) {
+        if (items instanceof Closeable) {
+            this.resources.add((Closeable) items);
+        }
+        Source source = new Source(items);
+        if (source.advance()) {
+            this.queue.add(source);
+        }
+    }
+
+    /**
+     * Returns keys and values of in-memory data sorted by keys. Each returned
+     * key is removed from the data to release memory as soon as possible.
+     */
+    public static Iterator<KeyValues> sortedView(IntermediateResults data) {
+        List<String> keys = new ArrayList<>(data.keys());
+        Collections.sort(keys);
+        Iterator<String> keyIterator = keys.iterator();
+        return new Iterator<KeyValues>() {
+
+            @Override
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            @Override
+            public KeyValues next() {
+                String key = keyIterator.next();
+                return new KeyValues(key, data.remove(key));
+            }
+        };
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !this.queue.isEmpty();
+    }
+
+    @Override
+    public KeyValues next() {
+        if (this.queue.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Source source = this.queue.poll();
+        String key = source.current.getKey();
+        List<Object> values = source.current.getValues();
+        if (source.advance()) {
+            this.queue.add(source);
+        }
+        while (!this.queue.isEmpty() && this.queue.peek().current.getKey().equals(key)) {
+            source = this.queue.poll();
+            List<Object> nextValues = source.current.getValues();
+            if (!(values instanceof ArrayList)
+                    && !(values instanceof NumericValueList && nextValues instanceof NumericValueList)) {
+                values = new ArrayList<>(values);
+            }
+            values.addAll(nextValues);
+            if (source.advance()) {
+                this.queue.add(source);
+            }
+        }
+        return new KeyValues(key, values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (Closeable resource : this.resources) {
+            try {
+                resource.close();
+
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
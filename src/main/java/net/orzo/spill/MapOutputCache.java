@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Stores values emitted by MAP for each processed input file so unchanged
+ * files do not have to be processed again in next runs of a task (incremental
+ * processing). An entry is valid as long as size and modification time of
+ * the file and the calculation which produced the entry (scripts and their
+ * arguments) stay the same.
+ *
+ * Each entry is a single file containing a header (path, size, modification
+ * time of the input file and a hash of the calculation) followed by emitted
+ * records (a type, a key and a value - see {@link ValueCodec}).
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MapOutputCache {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final int ENTRY_MAGIC = 0x4f5a4d43;
+
+    private static final int ENTRY_VERSION = 1;
+
+    private static final byte RECORD_END = 0;
+
+    private static final byte RECORD_VALUE = 1;
+
+    private static final byte RECORD_NUMBER = 2;
+
+    private final File directory;
+
+    private final String calculationHash;
+
+    private final ValueCodec.ValueFactory valueFactory;
+
+    /**
+     * Receives replayed records
+     */
+    @FunctionalInterface
+    public interface Emitter {
+
+        void emit(String key, Object value, boolean isNumber);
+    }
+
+    /**
+     * @param directory where entries are stored (created if necessary)
+     * @param calculationHash identifies the calculation (scripts and arguments)
+     * producing the entries
+     * @param valueFactory creates complex values when entries are replayed
+     */
+    public MapOutputCache(String directory, String calculationHash,
+                          ValueCodec.ValueFactory valueFactory) throws IOException {
+        this.directory = new File(directory);
+        Files.createDirectories(this.directory.toPath());
+        this.calculationHash = calculationHash != null ? calculationHash : "";
+        this.valueFactory = valueFactory;
+    }
+
+    private File getEntryFile(String path) {
+        return new File(this.directory, DigestUtils.sha1Hex(path) + ".bin");
+    }
+
+    private static String normalize(String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    /**
+     * Returns attributes of a file (a single stat) or null in case
+     * the file cannot be accessed
+     */
+    private static BasicFileAttributes readAttributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        } catch (IOException | SecurityException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads an entry header and tests whether it matches the current state
+     * of the file and the calculation
+     */
+    private boolean isValidHeader(DataInputStream in, File file) throws IOException {
+        BasicFileAttributes attrs = readAttributes(file);
+        return in.readInt() == ENTRY_MAGIC
+                && in.readInt() == ENTRY_VERSION
+                && ValueCodec.readString(in).equals(file.getPath())
+                && attrs != null && attrs.isRegularFile()
+                && in.readLong() == attrs.size()
+                && in.readLong() == attrs.lastModifiedTime().toMillis()
+                && ValueCodec.readString(in).equals(this.calculationHash);
+    }
+
+    /**
+     * Tests whether there is a valid entry for the file. Items without
+     * an entry (including ones which are not files at all) cost only
+     * a lookup of the entry.
+     */
+    public boolean contains(String path) {
+        File file = new File(normalize(path));
+        File entry = getEntryFile(file.getPath());
+        if (!entry.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(entry)))) {
+            return isValidHeader(in, file);
+
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Passes all the records of a file's entry to the emitter
+     *
+     * @return number of replayed records
+     * @throws IOException in case the entry is missing, invalid or cannot be read
+     */
+    public int replay(String path, Emitter emitter) throws IOException {
+        File file = new File(normalize(path));
+        int ans = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(getEntryFile(file.getPath())), BUFFER_SIZE))) {
+            if (!isValidHeader(in, file)) {
+                throw new IOException(String.format("Invalid cached output of %s", path));
+            }
+            byte type;
+            while ((type = in.readByte()) != RECORD_END) {
+                String key = ValueCodec.readString(in);
+                if (type == RECORD_NUMBER) {
+                    emitter.emit(key, in.readDouble(), true);
+
+                } else {
+                    emitter.emit(key, ValueCodec.read(in, this.valueFactory), false);
+                }
+                ans++;
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Starts recording of values emitted while a file is processed. The entry
+     * replaces the previous one only once the recording is committed.
+     *
+     * @return a recorder or null in case the path is not a regular file
+     * (i.e. its output cannot be cached)
+     */
+    public Recorder record(String path) throws IOException {
+        File file = new File(normalize(path));
+        BasicFileAttributes attrs = readAttributes(file);
+        if (attrs == null || !attrs.isRegularFile()) {
+            return null;
+        }
+        File tmp = File.createTempFile("entry-", ".tmp", this.directory);
+        Recorder ans = new Recorder(tmp, getEntryFile(file.getPath()));
+        ans.out.writeInt(ENTRY_MAGIC);
+        ans.out.writeInt(ENTRY_VERSION);
+        ValueCodec.writeString(ans.out, file.getPath());
+        ans.out.writeLong(attrs.size());
+        ans.out.writeLong(attrs.lastModifiedTime().toMillis());
+        ValueCodec.writeString(ans.out, this.calculationHash);
+        return ans;
+    }
+
+    /**
+     * Writes emitted values of a single file
+     */
+    public static class Recorder implements Closeable {
+
+        private final File tmpFile;
+
+        private final File entryFile;
+
+        private final DataOutputStream out;
+
+        private boolean closed;
+
+        private Recorder(File tmpFile, File entryFile) throws IOException {
+            this.tmpFile = tmpFile;
+            this.entryFile = entryFile;
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile), BUFFER_SIZE));
+        }
+
+        public void emit(String key, Object value) throws IOException {
+            this.out.writeByte(RECORD_VALUE);
+            ValueCodec.writeString(this.out, key);
+            ValueCodec.write(this.out, value);
+        }
+
+        public void emitNumber(String key, double value) throws IOException {
+            this.out.writeByte(RECORD_NUMBER);
+            ValueCodec.writeString(this.out, key);
+            this.out.writeDouble(value);
+        }
+
+        /**
+         * Finishes the entry and makes it available
+         */
+        public void commit() throws IOException {
+            this.out.writeByte(RECORD_END);
+            this.out.close();
+            this.closed = true;
+            Files.move(this.tmpFile.toPath(), this.entryFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Discards the entry in case it has not been committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                this.out.close();
+                Files.deleteIfExists(this.tmpFile.toPath());
+            }
+        }
+    }
+}
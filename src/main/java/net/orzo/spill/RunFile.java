@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import net.orzo.IntermediateResults;
+import net.orzo.KeyDictionary;
+
+/**
+ * A file containing keys and values sorted by keys (a "run"). Each record
+ * consists of a key, number of its values and the values themselves
+ * (see {@link ValueCodec}). In case a {@link KeyDictionary} is available,
+ * keys are stored as their ids.
+ *
+ * Along with the totals, the run remembers keys with the most values
+ * (see {@link #getLargestKeys()}) so hot keys can be detected without
+ * reading the file.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class RunFile {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Max. number of keys recorded by {@link #getLargestKeys()}
+     */
+    private static final int NUM_LARGEST_KEYS = 16;
+
+    private final File file;
+
+    private final int numKeys;
+
+    private final int numValues;
+
+    private final KeyDictionary keyDictionary;
+
+    private final Map<String, Integer> largestKeys;
+
+    private RunFile(File file, int numKeys, int numValues, KeyDictionary keyDictionary,
+                    Map<String, Integer> largestKeys) {
+        this.file = file;
+        this.numKeys = numKeys;
+        this.numValues = numValues;
+        this.keyDictionary = keyDictionary;
+        this.largestKeys = largestKeys;
+    }
+
+    /**
+     * Writes all the keys and values of the provided data to a file
+     * (sorted by keys).
+     */
+    public static RunFile write(File file, IntermediateResults data) throws IOException {
+        return write(file, data, null);
+    }
+
+    /**
+     * Writes all the keys and values of the provided data to a file
+     * (sorted by keys).
+     *
+     * @param keyDictionary if not null then keys are written as their ids
+     */
+    public static RunFile write(File file, IntermediateResults data,
+                                KeyDictionary keyDictionary) throws IOException {
+        List<String> keys = new ArrayList<>(data.keys());
+        Collections.sort(keys);
+        PriorityQueue<Map.Entry<String, Integer>> largest = new PriorityQueue<>(
+                (e1, e2) -> Integer.compare(e1.getValue(), e2.getValue()));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE))) {
+            for (String key : keys) {
+                List<Object> values = data.values(key);
+                if (keyDictionary != null) {
+                    out.writeInt(keyDictionary.idOf(key));
+
+                } else {
+                    ValueCodec.writeString(out, key);
+                }
+                out.writeInt(values.size());
+                data.writeValues(key, out);
+                if (largest.size() < NUM_LARGEST_KEYS || largest.peek().getValue() < values.size()) {
+                    largest.add(new AbstractMap.SimpleEntry<>(key, values.size()));
+                    if (largest.size() > NUM_LARGEST_KEYS) {
+                        largest.poll();
+                    }
+                }
+            }
+        }
+        Map<String, Integer> largestKeys = new HashMap<>();
+        for (Map.Entry<String, Integer> item : largest) {
+            largestKeys.put(item.getKey(), item.getValue());
+        }
+        return new RunFile(file, keys.size(), data.size(), keyDictionary, largestKeys);
+    }
+
+    /**
+     * Creates an object representing an already written run file with keys
+     * stored as strings (e.g. a restored checkpoint)
+     */
+    public static RunFile existing(File file, int numKeys, int numValues) {
+        return new RunFile(file, numKeys, numValues, null, Collections.emptyMap());
+    }
+
+    /**
+     * Copies the run to another file. Keys stored as ids are written as
+     * strings so the copy can be read without the key dictionary.
+     */
+    public RunFile copyTo(File target) throws IOException {
+        if (this.keyDictionary == null) {
+            Files.copy(this.file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        } else {
+            try (Reader reader = open(ValueCodec.JAVA_VALUES);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         new FileOutputStream(target), BUFFER_SIZE))) {
+                while (reader.hasNext()) {
+                    KeyValues item = reader.next();
+                    ValueCodec.writeString(out, item.getKey());
+                    out.writeInt(item.getValues().size());
+                    for (Object value : item.getValues()) {
+                        ValueCodec.write(out, value);
+                    }
+                }
+            }
+        }
+        return new RunFile(target, this.numKeys, this.numValues, null, this.largestKeys);
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public int getNumKeys() {
+        return this.numKeys;
+    }
+
+    public int getNumValues() {
+        return this.numValues;
+    }
+
+    /**
+     * Returns keys with the most values in the run (key => number of values;
+     * up to 16 keys). The information is not available for runs restored
+     * via {@link #existing(File, int, int)}.
+     */
+    public Map<String, Integer> getLargestKeys() {
+        return this.largestKeys;
+    }
+
+    /**
+     * Opens the file for reading. Records are read lazily one by one.
+     *
+     * @param factory creates containers of decoded values
+     */
+    public Reader open(ValueCodec.ValueFactory factory) throws IOException {
+        return new Reader(new DataInputStream(new BufferedInputStream(
+                new FileInputStream(this.file), BUFFER_SIZE)), factory, this.keyDictionary);
+    }
+
+    /**
+     * Reads records of a run file in the order they were written.
+     */
+    public static class Reader implements Iterator<KeyValues>, Closeable {
+
+        private final DataInputStream in;
+
+        private final ValueCodec.ValueFactory factory;
+
+        private final KeyDictionary keyDictionary;
+
+        private KeyValues nextItem;
+
+        private Reader(DataInputStream in, ValueCodec.ValueFactory factory,
+                       KeyDictionary keyDictionary) {
+            this.in = in;
+            this.factory = factory;
+            this.keyDictionary = keyDictionary;
+        }
+
+        private KeyValues readItem() throws IOException {
+            String key;
+            try {
+                if (this.keyDictionary != null) {
+                    key = this.keyDictionary.keyOf(this.in.readInt());
+
+                } else {
+                    key = ValueCodec.readString(this.in);
+                }
+
+            } catch (EOFException e) {
+                return null;
+            }
+            int size = this.in.readInt();
+            List<Object> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(ValueCodec.read(this.in, this.factory));
+            }
+            return new KeyValues(key, values);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.nextItem == null) {
+                try {
+                    this.nextItem = readItem();
+
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return this.nextItem != null;
+        }
+
+        @Override
+        public KeyValues next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            KeyValues ans = this.nextItem;
+            this.nextItem = null;
+            return ans;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+}
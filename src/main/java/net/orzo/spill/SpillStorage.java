@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.orzo.IntermediateResults;
+import net.orzo.KeyDictionary;
+
+/**
+ * A temporary directory for run files of a single calculation. Once
+ * a worker's buffered results exceed a threshold, they are written
+ * (spilled) here to release the memory.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class SpillStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillStorage.class);
+
+    private final File directory;
+
+    private final int threshold;
+
+    private final KeyDictionary keyDictionary;
+
+    /**
+     * @param parentDirectory where a temporary directory will be created
+     *                        (null means the system default)
+     * @param threshold max. number of values a worker can hold in memory
+     */
+    public SpillStorage(String parentDirectory, int threshold) throws IOException {
+        this(parentDirectory, threshold, null);
+    }
+
+    /**
+     * @param parentDirectory where a temporary directory will be created
+     *                        (null means the system default)
+     * @param threshold max. number of values a worker can hold in memory
+     * @param keyDictionary if not null then keys are stored as their ids
+     */
+    public SpillStorage(String parentDirectory, int threshold, KeyDictionary keyDictionary)
+            throws IOException {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Spill threshold must be >= 1");
+        }
+        if (parentDirectory != null) {
+            this.directory = Files.createTempDirectory(new File(parentDirectory).toPath(),
+                    "orzo-spill-").toFile();
+
+        } else {
+            this.directory = Files.createTempDirectory("orzo-spill-").toFile();
+        }
+        this.threshold = threshold;
+        this.keyDictionary = keyDictionary;
+    }
+
+    /**
+     * Returns max. number of values a worker can hold in memory
+     */
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Writes the data into a new run file
+     */
+    public RunFile spill(IntermediateResults data) throws IOException {
+        File file = File.createTempFile("run-", ".bin", this.directory);
+        RunFile ans = RunFile.write(file, data, this.keyDictionary);
+        LOG.debug(String.format("Spilled %d values to %s", ans.getNumValues(), file));
+        return ans;
+    }
+
+    /**
+     * Removes the directory along with all the run files
+     */
+    public void close() {
+        try {
+            FileUtils.deleteDirectory(this.directory);
+
+        } catch (IOException e) {
+            LOG.warn(String.format("Failed to remove spill directory %s: %s",
+                    this.directory, e.getMessage()));
+        }
+    }
+}
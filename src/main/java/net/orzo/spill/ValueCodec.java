@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+/**
+ * Serializes values emitted by user scripts into a compact binary form and
+ * back. Supported are JavaScript primitives, arrays, plain objects and dates
+ * (including any nesting of them) and serializable Java objects. Functions
+ * cannot be serialized.
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+@SuppressWarnings("restriction")
+public class ValueCodec {
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_DOUBLE = 1;
+
+    private static final byte TYPE_INT = 2;
+
+    private static final byte TYPE_LONG = 3;
+
+    private static final byte TYPE_STRING = 4;
+
+    private static final byte TYPE_TRUE = 5;
+
+    private static final byte TYPE_FALSE = 6;
+
+    private static final byte TYPE_ARRAY = 7;
+
+    private static final byte TYPE_OBJECT = 8;
+
+    private static final byte TYPE_DATE = 9;
+
+    private static final byte TYPE_SERIALIZED = 10;
+
+    /**
+     * Creates containers of decoded values. This allows decoding directly to
+     * objects of a specific JavaScript global (see
+     * {@link net.orzo.scripting.JsEngineAdapter}).
+     */
+    public interface ValueFactory {
+
+        Object newArray(List<Object> items);
+
+        Object newObject(Map<String, Object> properties);
+
+        Object newDate(double time);
+    }
+
+    /**
+     * Decodes arrays as lists, objects as maps and dates as {@link Date}
+     * instances.
+     */
+    public static final ValueFactory JAVA_VALUES = new ValueFactory() {
+
+        @Override
+        public Object newArray(List<Object> items) {
+            return items;
+        }
+
+        @Override
+        public Object newObject(Map<String, Object> properties) {
+            return properties;
+        }
+
+        @Override
+        public Object newDate(double time) {
+            return new Date((long) time);
+        }
+    };
+
+    /**
+     *
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     *
+     */
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a value
+     *
+     * @throws IOException in case of an I/O error or an unsupported value
+     */
+    public static void write(DataOutput out, Object value) throws IOException {
+        if (value == null || ScriptObjectMirror.isUndefined(value)) {
+            out.writeByte(TYPE_NULL);
+
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TYPE_INT);
+            out.writeInt(((Number) value).intValue());
+
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+
+        } else if (value instanceof CharSequence) { // including Nashorn's ConsString
+            out.writeByte(TYPE_STRING);
+            writeString(out, value.toString());
+
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+
+        } else if (value instanceof ScriptObjectMirror) {
+            writeMirror(out, (ScriptObjectMirror) value);
+
+        } else if (value instanceof List) {
+            List<?> items = (List<?>) value;
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(items.size());
+            for (Object item : items) {
+                write(out, item);
+            }
+
+        } else if (value instanceof Map) {
+            Map<?, ?> props = (Map<?, ?>) value;
+            out.writeByte(TYPE_OBJECT);
+            out.writeInt(props.size());
+            for (Map.Entry<?, ?> item : props.entrySet()) {
+                writeString(out, String.valueOf(item.getKey()));
+                write(out, item.getValue());
+            }
+
+        } else if (value instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeDouble(((Date) value).getTime());
+
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream buff = new ByteArrayOutputStream();
+            try (ObjectOutputStream objOut = new ObjectOutputStream(buff)) {
+                objOut.writeObject(value);
+            }
+            out.writeByte(TYPE_SERIALIZED);
+            out.writeInt(buff.size());
+            out.write(buff.toByteArray());
+
+        } else {
+            throw new IOException(String.format("Cannot serialize value of type %s",
+                    value.getClass().getName()));
+        }
+    }
+
+    private static void writeMirror(DataOutput out, ScriptObjectMirror value) throws IOException {
+        if (value.isFunction()) {
+            throw new IOException("Cannot serialize a function");
+
+        } else if (value.isArray()) {
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(value.size());
+            for (int i = 0; i < value.size(); i++) {
+                write(out, value.getSlot(i));
+            }
+
+        } else if ("Date".equals(value.getClassName())) {
+            out.writeByte(TYPE_DATE);
+            out.writeDouble(((Number) value.callMember("getTime")).doubleValue());
+
+        } else {
+            String[] keys = value.getOwnKeys(false);
+            out.writeByte(TYPE_OBJECT);
+            out.writeInt(keys.length);
+            for (String key : keys) {
+                writeString(out, key);
+                write(out, value.getMember(key));
+            }
+        }
+    }
+
+    /**
+     * Reads a value previously written by {@link #write(DataOutput, Object)}
+     *
+     * @param factory creates arrays, objects and dates
+     */
+    public static Object read(DataInput in, ValueFactory factory) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_TRUE:
+                return true;
+            case TYPE_FALSE:
+                return false;
+            case TYPE_ARRAY:
+                int size = in.readInt();
+                List<Object> items = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    items.add(read(in, factory));
+                }
+                return factory.newArray(items);
+            case TYPE_OBJECT:
+                int numProps = in.readInt();
+                Map<String, Object> props = new LinkedHashMap<>();
+                for (int i = 0; i < numProps; i++) {
+                    String key = readString(in);
+                    props.put(key, read(in, factory));
+                }
+                return factory.newObject(props);
+            case TYPE_DATE:
+                return factory.newDate(in.readDouble());
+            case TYPE_SERIALIZED:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try (ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return objIn.readObject();
+
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException(String.format("Unknown value type %d", type));
+        }
+    }
+}
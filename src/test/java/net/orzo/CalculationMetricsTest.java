@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class CalculationMetricsTest {
+
+	@Test
+	public void testPhases() {
+		CalculationMetrics metrics = new CalculationMetrics();
+		CalculationMetrics.Phase phase = metrics.startPhase("map", 2);
+		Assert.assertEquals(metrics.getPhases().size(), 1);
+		Assert.assertEquals(phase.getWorkers().size(), 2);
+		Assert.assertEquals(phase.getWorker(1).getWorkerId(), 1);
+		phase.getWorker(0).addSetupTime(2000000);
+		phase.getWorker(1).addSetupTime(1000000);
+		Assert.assertEquals(phase.getSetupTime(), 3.0, 1e-9);
+		phase.finish();
+		Assert.assertTrue(phase.getWallTime() >= 0);
+	}
+
+	@Test
+	public void testWorker() {
+		CalculationMetrics.Worker worker = new CalculationMetrics.Worker(0);
+		worker.startMeasure();
+		double x = 0;
+		for (int i = 0; i < 100000; i++) {
+			x += Math.sqrt(i);
+		}
+		worker.stopMeasure();
+		Assert.assertTrue(x > 0);
+		Assert.assertTrue(worker.getWallTime() > 0);
+		Assert.assertTrue(worker.getCpuTime() >= 0);
+
+		worker.addItemsRead(10, 100);
+		worker.addItemsRead(5, 0);
+		Assert.assertEquals(worker.getItemsRead(), 15);
+		Assert.assertEquals(worker.getBytesRead(), 100);
+
+		PartitionedResults results = new PartitionedResults(2);
+		results.add("a", 1);
+		results.add("a", 2);
+		results.add("b", 3);
+		worker.addOutput(results);
+		Assert.assertEquals(worker.getEmits(), 3);
+		Assert.assertEquals(worker.getKeys(), 2);
+		Assert.assertEquals(worker.getRetainedSize(), results.estimateRetainedSize());
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.orzo.scripting.JsEnginePool;
+import net.orzo.scripting.SourceCode;
+import net.orzo.service.ProcessingConf;
+import net.orzo.service.TaskManager;
+import net.orzo.service.WorkerPool;
+
+/**
+ * Runs whole calculations (i.e. including the JavaScript layer)
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class CalculationTest {
+
+	/**
+	 * Number of data chunks opened by a script (see testFailedMapStops)
+	 */
+	public static final AtomicInteger CHUNKS_OPENED = new AtomicInteger();
+
+	private static final String FIXTURE = "test-data/word-count.txt";
+
+	private static final String INPUT = "dataChunks(3, function (idx) {\n"
+			+ "    return orzo.fileChunkReader('" + FIXTURE + "', idx, 50);\n"
+			+ "});\n"
+			+ "map(function (line) {\n"
+			+ "    line.split(' ').forEach(function (w) { emit(w, 1); });\n"
+			+ "});\n";
+
+	/**
+	 * Returns "key:sum of values" lines (and the max. number of values a reduce call
+	 * obtained, if recorded via the "__maxValues" key)
+	 */
+	private static final String OUTPUT = "finish(function (results) {\n"
+			+ "    var ans = [];\n"
+			+ "    results.each(function (k, v) {\n"
+			+ "        ans.push(k + ':' + (k === '__maxValues' ? Math.max.apply(null, v) : D(v).sum()));\n"
+			+ "    });\n"
+			+ "    return ans.join('\\n');\n"
+			+ "});\n";
+
+	private Map<String, Integer> countWords() throws IOException {
+		Map<String, Integer> ans = new HashMap<>();
+		for (String line : Files.readAllLines(Paths.get(FIXTURE), StandardCharsets.UTF_8)) {
+			for (String word : line.split(" ")) {
+				ans.merge(word, 1, Integer::sum);
+			}
+		}
+		return ans;
+	}
+
+	private Object runScript(String script, String... args) throws Exception {
+		return runScript(new ProcessingConf(), script, args);
+	}
+
+	private Object runScript(ProcessingConf conf, String script, String... args) throws Exception {
+		CalculationParams params = TaskManager.createDefaultCalculationParams();
+		params.userScript = new SourceCode("test.js", "test.js", script);
+		params.workingDirModulesPath = ".";
+		params.inputValues = args;
+		params.taskId = "test";
+		conf.numWorkers = 2;
+		WorkerPool pool = new WorkerPool(2);
+		try {
+			return new Calculation(params, new SharedServices(null), new JsEnginePool(1, 10), conf,
+					pool.createGroup("test")).run();
+
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private Map<String, Integer> runCounts(String script) throws Exception {
+		return runCounts(new ProcessingConf(), script);
+	}
+
+	private Map<String, Integer> runCounts(ProcessingConf conf, String script) throws Exception {
+		Map<String, Integer> ans = new HashMap<>();
+		for (String item : String.valueOf(runScript(conf, script)).split("\n")) {
+			String[] parts = item.split(":");
+			ans.put(parts[0], (int) Double.parseDouble(parts[1]));
+		}
+		return ans;
+	}
+
+	@Test
+	public void testCombine() throws Exception {
+		String reduce = "reduce(2, function (key, values) {\n"
+				+ "    emit(key, D(values).sum());\n"
+				+ "    emit('__maxValues', values.length);\n"
+				+ "});\n";
+		Map<String, Integer> plain = runCounts(INPUT + reduce + OUTPUT);
+		Map<String, Integer> combined = runCounts(INPUT
+				+ "combine(function (key, values) { emit(key, D(values).sum()); });\n"
+				+ reduce + OUTPUT);
+
+		// each of two map workers passes a single (combined) value per key
+		Assert.assertTrue(combined.remove("__maxValues") <= 2);
+		Assert.assertTrue(plain.remove("__maxValues") > 2);
+		Assert.assertEquals(combined, countWords());
+		Assert.assertEquals(plain, countWords());
+	}
+
+	@Test
+	public void testReduceFoldMatchesReduce() throws Exception {
+		Map<String, Integer> plain = runCounts(INPUT
+				+ "reduce(2, function (key, values) { emit(key, D(values).sum()); });\n"
+				+ OUTPUT);
+		Map<String, Integer> folded = runCounts(INPUT
+				+ "reduceFold(2, 0, function (acc, value) { return acc + value; });\n"
+				+ OUTPUT);
+
+		Assert.assertEquals(folded, plain);
+		Assert.assertEquals(folded, countWords());
+	}
+
+	@Test
+	public void testChainedReduce() throws Exception {
+		String byLetter = "reduce(2, function (key, values) { emit(key.charAt(0), values[0]); });\n"
+				+ "reduce(function (key, values) { emit(key, D(values).sum()); });\n";
+		Map<String, Integer> combined = runCounts(INPUT
+				+ "combine(function (key, values) { emit(key, D(values).sum()); });\n"
+				+ "reduce(2, function (key, values) { emit(key, D(values).sum()); });\n"
+				+ byLetter + OUTPUT);
+		Map<String, Integer> folded = runCounts(INPUT
+				+ "reduceFold(2, 0, function (acc, value) { return acc + value; });\n"
+				+ byLetter + OUTPUT);
+
+		Map<String, Integer> expected = new HashMap<>();
+		for (Map.Entry<String, Integer> item : countWords().entrySet()) {
+			expected.merge(item.getKey().substring(0, 1), item.getValue(), Integer::sum);
+		}
+		Assert.assertEquals(combined, expected);
+		Assert.assertEquals(folded, expected);
+	}
+
+	@Test
+	public void testValuesEmittedInsideObject() throws Exception {
+		String script = INPUT
+				+ "reduce(2, function (key, values) { emit(key, {vals: values, n: values.length}); });\n"
+				+ "reduce(function (key, values) { emit(key, values[0]); });\n"
+				+ "finish(function (results) {\n"
+				+ "    var ans = [];\n"
+				+ "    results.each(function (k, v) { ans.push(k + ':' + v[0].vals.length + ':' + v[0].n); });\n"
+				+ "    return ans.join('\\n');\n"
+				+ "});\n";
+		ProcessingConf offHeap = new ProcessingConf();
+		offHeap.offHeapResults = true;
+		for (ProcessingConf conf : new ProcessingConf[] { new ProcessingConf(), offHeap }) {
+			Map<String, Integer> ans = new HashMap<>();
+			for (String item : String.valueOf(runScript(conf, script)).split("\n")) {
+				String[] parts = item.split(":");
+				Assert.assertEquals(parts[1], parts[2]);
+				ans.put(parts[0], Integer.parseInt(parts[1]));
+			}
+			Assert.assertEquals(ans, countWords());
+		}
+	}
+
+	@Test
+	public void testSpeculativeMap() throws Exception {
+		ProcessingConf conf = new ProcessingConf();
+		conf.speculativeMapSlowdown = 1.5;
+		// the last chunk is slow so the other worker becomes idle and speculates
+		Map<String, Integer> ans = runCounts(conf, INPUT.replace("map(function (line) {\n",
+				"map(function (line) {\n"
+				+ "    if (env.workerId === 2) { java.lang.Thread.sleep(2); }\n")
+				+ "reduce(2, function (key, values) { emit(key, D(values).sum()); });\n"
+				+ OUTPUT);
+
+		Assert.assertEquals(ans, countWords());
+	}
+
+	@Test
+	public void testIncrementalArgsChange() throws Exception {
+		File cacheDir = Files.createTempDirectory("orzo-calc-test-").toFile();
+		String script = "incremental('" + cacheDir.getPath().replace("\\", "/") + "');\n"
+				+ "dataChunks(1, function () {\n"
+				+ "    var items = ['" + FIXTURE + "'];\n"
+				+ "    return { hasNext: function () { return items.length > 0; },\n"
+				+ "             next: function () { return items.pop(); } };\n"
+				+ "});\n"
+				+ "map(function (path) { emit('arg', env.inputArgs[0]); });\n"
+				+ "reduce(function (key, values) { emit(key, values[0]); });\n"
+				+ "finish(function (results) { return results.get('arg')[0]; });\n";
+		try {
+			Assert.assertEquals(runScript(script, "foo"), "foo");
+			Assert.assertEquals(runScript(script, "foo"), "foo");
+			Assert.assertEquals(runScript(script, "bar"), "bar");
+
+		} finally {
+			FileUtils.deleteDirectory(cacheDir);
+		}
+	}
+
+	@Test(expectedExceptions = CalculationException.class)
+	public void testCombineInvalidArguments() throws Exception {
+		runScript(INPUT + "combine('foo');\n" + OUTPUT);
+	}
+
+	@Test
+	public void testFailedMapStops() throws Exception {
+		CHUNKS_OPENED.set(0);
+		String script = "dataChunks(40, function (idx) {\n"
+				+ "    Java.type('net.orzo.CalculationTest').CHUNKS_OPENED.incrementAndGet();\n"
+				+ "    if (idx === 0) { throw new Error('broken chunk'); }\n"
+				+ "    java.lang.Thread.sleep(20);\n"
+				+ "    return orzo.fileChunkReader('" + FIXTURE + "', idx, 40);\n"
+				+ "});\n"
+				+ "map(function (line) { emit('lines', 1); });\n"
+				+ "reduce(function (key, values) { emit(key, values.length); });\n"
+				+ "finish(function (results) { return null; });\n";
+		try {
+			runScript(script);
+			Assert.fail("MAP should have failed");
+
+		} catch (CalculationException ex) {
+			// the other worker must not keep processing the remaining chunks
+			Assert.assertTrue(CHUNKS_OPENED.get() < 20);
+		}
+	}
+}
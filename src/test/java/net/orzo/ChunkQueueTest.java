@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ChunkQueueTest {
+
+	@Test
+	public void testSequence() {
+		ChunkQueue queue = new ChunkQueue(3);
+		Assert.assertEquals(queue.next(), 0);
+		Assert.assertEquals(queue.next(), 1);
+		Assert.assertEquals(queue.next(), 2);
+		Assert.assertEquals(queue.next(), -1);
+		Assert.assertEquals(queue.next(), -1);
+	}
+
+	@Test
+	public void testEachChunkTakenOnce() throws InterruptedException {
+		ChunkQueue queue = new ChunkQueue(1000);
+		Set<Integer> taken = ConcurrentHashMap.newKeySet();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread(() -> {
+				for (int idx = queue.next(); idx >= 0; idx = queue.next()) {
+					Assert.assertTrue(taken.add(idx));
+				}
+			}));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(taken.size(), 1000);
+	}
+
+	@Test
+	public void testNoStragglerWithoutSpeculation() {
+		ChunkQueue queue = new ChunkQueue(2);
+		Assert.assertFalse(queue.isSpeculative());
+		queue.attempt(queue.next(), false).complete();
+		queue.attempt(queue.next(), false);
+		Assert.assertEquals(queue.nextStraggler(), -1);
+	}
+
+	@Test
+	public void testStragglerDetected() throws InterruptedException {
+		ChunkQueue queue = new ChunkQueue(3, 2);
+		ChunkQueue.Attempt a0 = queue.attempt(queue.next(), false);
+		ChunkQueue.Attempt a1 = queue.attempt(queue.next(), false);
+		Assert.assertEquals(queue.nextStraggler(), -1); // no finished chunk yet
+		for (int i = 0; i < 1000; i++) {
+			a0.itemProcessed();
+			a1.itemProcessed();
+		}
+		Thread.sleep(5);
+		Assert.assertTrue(a0.complete());
+		Assert.assertTrue(a1.complete());
+		Assert.assertEquals(queue.nextStraggler(), -1); // an unprocessed chunk is still available
+
+		ChunkQueue.Attempt slow = queue.attempt(queue.next(), false);
+		slow.itemProcessed();
+		Thread.sleep(50);
+		Assert.assertEquals(queue.nextStraggler(), 2);
+		Assert.assertEquals(queue.nextStraggler(), -1); // each chunk speculated only once
+		Assert.assertEquals(queue.getNumSpeculated(), 1);
+	}
+
+	@Test
+	public void testFirstAttemptWins() {
+		ChunkQueue queue = new ChunkQueue(1, 2);
+		ChunkQueue.Attempt original = queue.attempt(queue.next(), false);
+		ChunkQueue.Attempt speculative = queue.attempt(0, true);
+		Assert.assertTrue(speculative.complete());
+		Assert.assertFalse(original.itemProcessed());
+		Assert.assertFalse(original.complete());
+		Assert.assertTrue(queue.isFinished());
+		Assert.assertEquals(queue.getNumSpeculativeWins(), 1);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class FinalResultsTest {
+
+	@Test
+	public void testSortedKeys() {
+		IntermediateResults ir = new IntermediateResults();
+		ir.add("foo", 1);
+		ir.add("bar", 2);
+		ir.addNumber("baz", 3);
+		FinalResults fr = new FinalResults(ir);
+		Assert.assertEquals(fr.keys(true), Arrays.asList("bar", "baz", "foo"));
+		Assert.assertSame(fr.keys(true).get(0), fr.keys(true).get(0));
+	}
+
+	@Test
+	public void testTopByFirstValue() {
+		IntermediateResults ir = new IntermediateResults();
+		ir.addNumber("a", 3);
+		ir.addNumber("b", 10);
+		ir.add("c", 7);
+		ir.add("d", "not a number");
+		ir.addNumber("e", 7);
+		FinalResults fr = new FinalResults(ir);
+		Assert.assertEquals(fr.top(3), Arrays.asList("b", "c", "e"));
+		Assert.assertEquals(fr.top(10).size(), 4);
+		Assert.assertEquals(fr.top(0).size(), 0);
+	}
+
+	@Test
+	public void testTopWithScores() {
+		FinalResults fr = new FinalResults(new IntermediateResults());
+		List<String> top = fr.top(2, Arrays.asList("x", "y", "z"), new double[] {1, Double.NaN, 2});
+		Assert.assertEquals(top, Arrays.asList("z", "x"));
+	}
+
+	@Test
+	public void testParallelTopMatchesFullSort() {
+		int size = FinalResults.PARALLEL_TOP_THRESHOLD * 2;
+		Random rand = new Random(7);
+		String[] keys = new String[size];
+		double[] scores = new double[size];
+		List<Integer> indices = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			keys[i] = "k" + i;
+			scores[i] = rand.nextInt(100000);
+			indices.add(i);
+		}
+		Collections.sort(indices, (i1, i2) -> {
+			int ans = Double.compare(scores[i2], scores[i1]);
+			return ans != 0 ? ans : keys[i1].compareTo(keys[i2]);
+		});
+		List<String> expected = new ArrayList<>();
+		for (int idx : indices.subList(0, 100)) {
+			expected.add(keys[idx]);
+		}
+		Assert.assertEquals(FinalResults.selectTop(keys, scores, 100), expected);
+	}
+}
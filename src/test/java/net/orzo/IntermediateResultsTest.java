@@ -121,4 +121,68 @@ public class IntermediateResultsTest {
 		ir.addAll(ir);
 	}
 
+	@Test
+	public void testAddNumbers() {
+		IntermediateResults ir = new IntermediateResults();
+		ir.addNumber("foo", 1);
+		ir.addNumber("foo", 2.5);
+		ir.add("foo", "x");
+		ir.addNumber("bar", 3);
+
+		Assert.assertEquals(ir.size(), 4);
+		Assert.assertEquals(ir.numKeys(), 2);
+		Assert.assertTrue(ir.containsKey("bar"));
+		Assert.assertTrue(ir.values("bar") instanceof NumericValueList);
+		Assert.assertEquals(ir.values("foo").size(), 3);
+		Assert.assertTrue(ir.values("foo").contains(2.5));
+
+		ir.discard("foo");
+		Assert.assertEquals(ir.size(), 1);
+		Assert.assertEquals(ir.remove("bar").get(0), 3.0);
+		Assert.assertEquals(ir.size(), 0);
+	}
+
+	@Test
+	public void testAddToSum() {
+		IntermediateResults ir = new IntermediateResults();
+		for (int i = 0; i < 10; i++) {
+			ir.addToSum("foo", 2);
+		}
+		Assert.assertEquals(ir.size(), 1);
+		Assert.assertEquals(ir.values("foo").get(0), 20.0);
+	}
+
+	@Test
+	public void testMergeNumbers() {
+		IntermediateResults ir1 = new IntermediateResults();
+		ir1.addNumber("foo", 1);
+		IntermediateResults ir2 = new IntermediateResults();
+		ir2.addNumber("foo", 2);
+		ir2.add("bar", "x");
+		ir1.addAll(ir2);
+
+		Assert.assertEquals(ir1.size(), 3);
+		Assert.assertTrue(ir1.values("foo") instanceof NumericValueList);
+		Assert.assertEquals(((NumericValueList) ir1.values("foo")).toDoubleArray(),
+				new double[] {1, 2});
+	}
+
+	@Test
+	public void testSetKeepsSingleValue() {
+		IntermediateResults ir = new IntermediateResults();
+		Assert.assertNull(ir.getLast("foo"));
+		ir.set("foo", 1);
+		ir.set("foo", 2.5);
+		ir.set("bar", "a");
+		ir.set("bar", "b");
+		Assert.assertEquals(ir.size(), 2);
+		Assert.assertEquals(ir.getLast("foo"), 2.5);
+		Assert.assertEquals(ir.getLast("bar"), "b");
+
+		ir.add("foo", "x");
+		ir.set("foo", 7);
+		Assert.assertEquals(ir.values("foo").size(), 1);
+		Assert.assertEquals(ir.getLast("foo"), 7.0);
+	}
+
 }
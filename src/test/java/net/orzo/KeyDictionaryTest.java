@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class KeyDictionaryTest {
+
+	@Test
+	public void testInternReturnsCanonicalInstance() {
+		KeyDictionary dict = new KeyDictionary();
+		String key1 = new String("foo");
+		String key2 = new String("foo");
+		Assert.assertSame(dict.intern(key1), key1);
+		Assert.assertSame(dict.intern(key2), key1);
+		Assert.assertEquals(dict.size(), 1);
+	}
+
+	@Test
+	public void testIds() {
+		KeyDictionary dict = new KeyDictionary(4);
+		int id1 = dict.idOf("foo");
+		int id2 = dict.idOf("bar");
+		Assert.assertNotEquals(id1, id2);
+		Assert.assertEquals(dict.idOf("foo"), id1);
+		Assert.assertEquals(dict.keyOf(id1), "foo");
+		Assert.assertEquals(dict.keyOf(id2), "bar");
+		Assert.assertSame(dict.keyOf(dict.idOf(new String("foo"))), dict.intern("foo"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownId() {
+		new KeyDictionary().keyOf(1000);
+	}
+
+	@Test
+	public void testConcurrentIdsAreUnique() throws InterruptedException {
+		KeyDictionary dict = new KeyDictionary(8);
+		Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					ids.add(dict.idOf("key" + i));
+				}
+			}));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(ids.size(), 5000);
+		Assert.assertEquals(dict.size(), 5000);
+		for (int id : ids) {
+			Assert.assertEquals(dict.idOf(dict.keyOf(id)), id);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class NumericValueListTest {
+
+	@Test
+	public void testAddGrow() {
+		NumericValueList list = new NumericValueList();
+		for (int i = 0; i < 100; i++) {
+			list.addNumber(i);
+		}
+		Assert.assertEquals(list.size(), 100);
+		Assert.assertEquals(list.getNumber(99), 99.0);
+		Assert.assertEquals(list.get(50), 50.0);
+		Assert.assertEquals(list.toDoubleArray().length, 100);
+	}
+
+	@Test
+	public void testAddToLast() {
+		NumericValueList list = new NumericValueList();
+		list.addToLast(1);
+		list.addToLast(2);
+		Assert.assertEquals(list.size(), 1);
+		Assert.assertEquals(list.getNumber(0), 3.0);
+	}
+
+	@Test
+	public void testAddAllAndRemove() {
+		NumericValueList list1 = new NumericValueList();
+		list1.addNumber(1);
+		NumericValueList list2 = new NumericValueList();
+		list2.addAll(Arrays.asList(2, 3.5));
+		list1.addAll(list2);
+
+		Assert.assertEquals(list1.toDoubleArray(), new double[] {1, 2, 3.5});
+		Assert.assertEquals(list1.remove(1), 2.0);
+		Assert.assertEquals(list1.toDoubleArray(), new double[] {1, 3.5});
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testAddNonNumber() {
+		new NumericValueList().add("foo");
+	}
+}
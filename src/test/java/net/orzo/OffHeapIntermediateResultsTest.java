@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.orzo.offheap.ValueArena;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class OffHeapIntermediateResultsTest {
+
+	@Test
+	public void testAddRetrieveValues() {
+		OffHeapIntermediateResults ir = new OffHeapIntermediateResults();
+		ir.add("foo", 1.5);
+		ir.add("foo", "bar");
+		ir.add("baz", Arrays.asList(1, 2));
+
+		Assert.assertEquals(ir.size(), 3);
+		Assert.assertEquals(ir.numKeys(), 2);
+		Assert.assertEquals(ir.values("foo"), Arrays.asList(1.5, "bar"));
+		Assert.assertEquals(ir.values("baz").get(0), Arrays.asList(1, 2));
+		Assert.assertTrue(ir.getAllocatedBytes() > 0);
+	}
+
+	@Test
+	public void testRemoveDoesNotAffectOthers() {
+		OffHeapIntermediateResults ir = new OffHeapIntermediateResults();
+		for (int i = 0; i < 1000; i++) {
+			ir.add("key" + (i % 10), i);
+		}
+		List<?> removed = ir.remove("key3");
+		Assert.assertEquals(removed.size(), 100);
+		Assert.assertEquals(removed.get(1), 13);
+		Assert.assertEquals(ir.size(), 900);
+		Assert.assertEquals(ir.values("key4").get(99), 994);
+	}
+
+	@Test
+	public void testMergeToHeapResults() {
+		OffHeapIntermediateResults ir = new OffHeapIntermediateResults();
+		ir.add("foo", "a");
+		ir.add("foo", "b");
+		IntermediateResults heap = new IntermediateResults();
+		heap.add("foo", "c");
+		heap.addAll(ir);
+
+		Assert.assertEquals(new ArrayList<>(heap.values("foo")), Arrays.asList("c", "a", "b"));
+	}
+
+	@Test
+	public void testSet() {
+		OffHeapIntermediateResults ir = new OffHeapIntermediateResults();
+		ir.set("foo", "a");
+		ir.set("foo", "b");
+		Assert.assertEquals(ir.size(), 1);
+		Assert.assertEquals(ir.getLast("foo"), "b");
+	}
+
+	@Test
+	public void testSetOverwritesInPlace() {
+		OffHeapIntermediateResults ir = new OffHeapIntermediateResults();
+		ir.set("foo", "a");
+		for (int i = 0; i < 200000; i++) {
+			ir.set("foo", String.format("value-%06d", i));
+		}
+		Assert.assertEquals(ir.getLast("foo"), "value-199999");
+		ir.set("foo", "b");
+		Assert.assertEquals(ir.getLast("foo"), "b");
+		ir.set("foo", "a longer value than the previous ones");
+		Assert.assertEquals(ir.getLast("foo"), "a longer value than the previous ones");
+		Assert.assertEquals(ir.getAllocatedBytes(), ValueArena.DEFAULT_CHUNK_SIZE);
+	}
+
+	@Test
+	public void testClear() {
+		OffHeapIntermediateResults ir = new OffHeapIntermediateResults();
+		ir.add("foo", 1);
+		ir.clear();
+
+		Assert.assertEquals(ir.size(), 0);
+		Assert.assertEquals(ir.getAllocatedBytes(), 0);
+	}
+}
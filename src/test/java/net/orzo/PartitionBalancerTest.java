@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.orzo.spill.SpillStorage;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class PartitionBalancerTest {
+
+	private static List<PartitionedResults> createResults(int numPartitions, int numKeys,
+			int valuesPerKey) {
+		PartitionedResults pr = new PartitionedResults(numPartitions);
+		for (int i = 0; i < numKeys; i++) {
+			for (int j = 0; j < valuesPerKey; j++) {
+				pr.add("key" + i, j);
+			}
+		}
+		List<PartitionedResults> ans = new ArrayList<>();
+		ans.add(pr);
+		return ans;
+	}
+
+	@Test
+	public void testAllPartitionsAssigned() {
+		List<PartitionedResults> data = createResults(16, 200, 3);
+		PartitionBalancer balancer = new PartitionBalancer(data, 4);
+
+		Assert.assertEquals(balancer.getNumWorkers(), 4);
+		Set<Integer> assigned = new HashSet<>();
+		for (int i = 0; i < balancer.getNumWorkers(); i++) {
+			for (int p : balancer.getPartitions(i)) {
+				Assert.assertTrue(assigned.add(p));
+			}
+		}
+		for (int p = 0; p < 16; p++) {
+			Assert.assertEquals(assigned.contains(p), data.get(0).getPartition(p).size() > 0);
+		}
+		Assert.assertEquals(balancer.getMeanLoad(), 150.0);
+	}
+
+	@Test
+	public void testNumWorkersLimitedByPartitions() {
+		List<PartitionedResults> data = createResults(8, 2, 1);
+		PartitionBalancer balancer = new PartitionBalancer(data, 4);
+
+		Assert.assertTrue(balancer.getNumWorkers() <= 2);
+	}
+
+	@Test
+	public void testEmptyResults() {
+		PartitionBalancer balancer = new PartitionBalancer(createResults(4, 0, 0), 2);
+
+		Assert.assertEquals(balancer.getNumWorkers(), 0);
+		Assert.assertEquals(balancer.getSkew(), 1.0);
+		Assert.assertTrue(balancer.getHotKeys().isEmpty());
+	}
+
+	@Test
+	public void testLargestPartitionGetsOwnWorker() {
+		List<PartitionedResults> data = createResults(8, 100, 1);
+		for (int i = 0; i < 1000; i++) {
+			data.get(0).add("hot", i);
+		}
+		PartitionBalancer balancer = new PartitionBalancer(data, 2);
+		int hotPartition = PartitionedResults.partitionOf("hot", 8);
+
+		for (int i = 0; i < balancer.getNumWorkers(); i++) {
+			if (balancer.getPartitions(i).contains(hotPartition)) {
+				// LPT places all the other partitions to the less loaded worker
+				Assert.assertEquals(balancer.getPartitions(i).size(), 1);
+			}
+		}
+		Assert.assertTrue(balancer.getHotKeys().containsKey("hot"));
+		Assert.assertEquals(balancer.getHotKeys().get("hot").longValue(), 1000L);
+		Assert.assertTrue(balancer.getSkew() > 1.0);
+		Assert.assertTrue(balancer.getReport().contains("hot (1000)"));
+	}
+
+	@Test
+	public void testSpilledHotKey() throws IOException {
+		SpillStorage spillStorage = new SpillStorage(null, Integer.MAX_VALUE);
+		try {
+			PartitionedResults pr = new PartitionedResults(8, spillStorage, false, null);
+			for (int i = 0; i < 100; i++) {
+				pr.add("key" + i, i);
+			}
+			for (int i = 0; i < 1000; i++) {
+				pr.add("hot", i);
+			}
+			pr.spill();
+			for (int i = 0; i < 500; i++) {
+				pr.add("hot", i);
+			}
+			List<PartitionedResults> data = new ArrayList<>();
+			data.add(pr);
+			PartitionBalancer balancer = new PartitionBalancer(data, 2);
+
+			Assert.assertEquals(balancer.getHotKeys().get("hot").longValue(), 1500L);
+
+		} finally {
+			spillStorage.close();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class PartitionedResultsTest {
+
+	@Test
+	public void testAddRetrieveValues() {
+		PartitionedResults pr = new PartitionedResults(3);
+		pr.add("foo", 1);
+		pr.add("bar", 2);
+		pr.add("bar", 3);
+
+		Assert.assertEquals(pr.size(), 3);
+		Assert.assertEquals(pr.numKeys(), 2);
+		Assert.assertTrue(pr.keys().contains("foo"));
+		Assert.assertTrue(pr.keys().contains("bar"));
+		Assert.assertEquals(pr.keys().toArray().length, 2);
+		Assert.assertEquals(pr.values("bar").size(), 2);
+		Assert.assertEquals(pr.remove("bar").size(), 2);
+		Assert.assertEquals(pr.size(), 1);
+	}
+
+	@Test
+	public void testNumBuffered() {
+		PartitionedResults pr = new PartitionedResults(3);
+		pr.add("foo", 1);
+		pr.addNumber("bar", 2);
+		pr.addMultiple("baz", Arrays.asList(3, 4));
+		Assert.assertEquals(pr.getNumBuffered(), 4);
+
+		pr.resetNumBuffered();
+		pr.remove("baz");
+		pr.addToSum("bar", 5);
+		Assert.assertEquals(pr.getNumBuffered(), 1);
+	}
+
+	@Test
+	public void testKeyAlwaysInSamePartition() {
+		PartitionedResults pr1 = new PartitionedResults(4);
+		PartitionedResults pr2 = new PartitionedResults(4);
+		for (int i = 0; i < 100; i++) {
+			pr1.add("key" + i, i);
+			pr2.add("key" + i, i);
+		}
+		List<PartitionedResults> all = new ArrayList<>();
+		all.add(pr1);
+		all.add(pr2);
+		int numKeys = 0;
+		for (int p = 0; p < 4; p++) {
+			List<IntermediateResults> partition = PartitionedResults.collectPartition(all, p);
+			for (IntermediateResults item : partition) {
+				for (String key : item.keys()) {
+					Assert.assertEquals(PartitionedResults.partitionOf(key, 4), p);
+				}
+			}
+			if (partition.size() > 0) {
+				Assert.assertEquals(partition.get(0).keys(), partition.get(1).keys());
+				numKeys += partition.get(0).numKeys();
+			}
+		}
+		Assert.assertEquals(numKeys, 100);
+	}
+
+	@Test(expectedExceptions = { NullPointerException.class })
+	public void testAddNullKey() {
+		new PartitionedResults(2).add(null, 1);
+	}
+
+	@Test(expectedExceptions = { IllegalArgumentException.class })
+	public void testInvalidNumPartitions() {
+		new PartitionedResults(0);
+	}
+
+	@Test
+	public void testNumEmitted() {
+		PartitionedResults pr = new PartitionedResults(2);
+		pr.add("a", 1);
+		pr.addNumber("b", 2);
+		pr.addToSum("b", 3);
+		pr.addMultiple("c", Arrays.asList(1, 2, 3));
+		Assert.assertEquals(pr.getNumEmitted(), 6);
+		Assert.assertTrue(pr.estimateRetainedSize() > 0);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class DirectoryLineReaderTest {
+
+	private File directory;
+
+	/**
+	 * Expected items as "path:line"
+	 */
+	private List<String> expected;
+
+	private void createFile(String name, int numLines) throws IOException {
+		File file = new File(this.directory, name);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < numLines; i++) {
+			lines.add(String.format("%s line %d", name, i));
+			this.expected.add(file.getPath() + ":" + lines.get(i));
+		}
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+	}
+
+	@BeforeClass
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("orzo-test").toFile();
+		this.expected = new ArrayList<>();
+		createFile("a-large.txt", 2000);
+		createFile("b-empty.txt", 0);
+		for (int i = 0; i < 20; i++) {
+			createFile(String.format("c-small-%02d.txt", i), 3);
+		}
+	}
+
+	@AfterClass
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testChunksCoverAllLines() {
+		for (int numChunks = 1; numChunks <= 10; numChunks++) {
+			DirectoryLineReader reader = new DirectoryLineReader(
+					new String[] { this.directory.getPath() }, numChunks, null);
+			List<String> ans = new ArrayList<>();
+			for (int i = 0; i < numChunks; i++) {
+				Iterator<String[]> itr = reader.getIterator(i);
+				while (itr.hasNext()) {
+					String[] item = itr.next();
+					ans.add(new File(item[0]).getPath() + ":" + item[1]);
+				}
+			}
+			Assert.assertEquals(ans, this.expected);
+		}
+	}
+
+	@Test
+	public void testChunksAreBalanced() {
+		int numChunks = 4;
+		DirectoryLineReader reader = new DirectoryLineReader(
+				new String[] { this.directory.getPath() }, numChunks, null);
+		long expectedSize = reader.getTotalSize() / numChunks;
+		for (int i = 0; i < numChunks; i++) {
+			long size = 0;
+			Iterator<String[]> itr = reader.getIterator(i);
+			while (itr.hasNext()) {
+				size += itr.next()[1].length() + 1;
+			}
+			Assert.assertTrue(Math.abs(size - expectedSize) < 100,
+					String.format("chunk %d: %d bytes, expected %d", i, size, expectedSize));
+		}
+	}
+}
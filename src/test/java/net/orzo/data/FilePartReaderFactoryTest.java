@@ -18,7 +18,10 @@ package net.orzo.data;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -92,4 +95,47 @@ public class FilePartReaderFactoryTest {
 		Assert.assertEquals(ans.get(ans.size() - 1), "this is line 9");
 		Assert.assertEquals(ans.size(), 7);
 	}
+
+	@Test
+	public void testByteRangesCoverAllLines() throws Exception {
+		for (int numReaders = 1; numReaders <= 30; numReaders++) {
+			FilePartReaderFactory factory = new FilePartReaderFactory(new File(
+					"test-data/text-file.txt"), numReaders, null, 0);
+			List<String> ans = new ArrayList<String>();
+			for (int i = 0; i < numReaders; i++) {
+				ByteRangeLineReader reader = factory.createByteRangeInstance(i);
+				while (reader.hasNext()) {
+					ans.add(reader.next());
+				}
+			}
+			Assert.assertEquals(ans.size(), 24);
+			for (int i = 0; i < ans.size(); i++) {
+				Assert.assertEquals(ans.get(i), "this is line " + i);
+			}
+		}
+	}
+
+	@Test
+	public void testByteRangeBoundaries() throws Exception {
+		File file = File.createTempFile("orzo-test", ".txt");
+		try {
+			Files.write(file.toPath(), "ab\n\ncd\nef".getBytes(StandardCharsets.UTF_8));
+			// "cd" starts at offset 4
+			ByteRangeLineReader reader = new ByteRangeLineReader(file, 0, 4, StandardCharsets.UTF_8);
+			Assert.assertEquals(reader.next(), "ab");
+			Assert.assertEquals(reader.next(), "");
+			Assert.assertFalse(reader.hasNext());
+
+			reader = new ByteRangeLineReader(file, 4, 100, StandardCharsets.UTF_8);
+			Assert.assertEquals(reader.next(), "cd");
+			Assert.assertEquals(reader.next(), "ef");
+			Assert.assertFalse(reader.hasNext());
+
+			reader = new ByteRangeLineReader(file, 5, 7, StandardCharsets.UTF_8); // "ef" starts at 7
+			Assert.assertFalse(reader.hasNext());
+
+		} finally {
+			file.delete();
+		}
+	}
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class GzipMemberLineReaderTest {
+
+	private List<String> createLines(int num) {
+		Random random = new Random(num);
+		List<String> ans = new ArrayList<>();
+		for (int i = 0; i < num; i++) {
+			StringBuilder item = new StringBuilder("line " + i);
+			for (int j = random.nextInt(20); j > 0; j--) {
+				item.append(' ').append(random.nextInt(1000));
+			}
+			ans.add(random.nextInt(50) == 0 ? "" : item.toString());
+		}
+		return ans;
+	}
+
+	private byte[] gzip(byte[] data, int from, int length) throws IOException {
+		ByteArrayOutputStream ans = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(ans)) {
+			out.write(data, from, length);
+		}
+		return ans.toByteArray();
+	}
+
+	/**
+	 * Creates a BGZF-like member (with the "BC" extra field)
+	 */
+	private byte[] bgzf(byte[] data, int from, int length) throws IOException {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data, from, length);
+		deflater.finish();
+		byte[] buff = new byte[length + 1024];
+		int compressedSize = deflater.deflate(buff);
+		deflater.end();
+		int blockSize = 18 + compressedSize + 8;
+		CRC32 crc = new CRC32();
+		crc.update(data, from, length);
+		ByteArrayOutputStream ans = new ByteArrayOutputStream();
+		ans.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+				(byte) ((blockSize - 1) & 0xff), (byte) ((blockSize - 1) >> 8) });
+		ans.write(buff, 0, compressedSize);
+		writeIntLE(ans, crc.getValue());
+		writeIntLE(ans, length);
+		return ans.toByteArray();
+	}
+
+	private void writeIntLE(ByteArrayOutputStream out, long value) {
+		for (int i = 0; i < 4; i++) {
+			out.write((int) (value >> (8 * i)) & 0xff);
+		}
+	}
+
+	/**
+	 * Writes the lines as a sequence of gzip members of the given size
+	 * (members do not respect line boundaries)
+	 */
+	private File createFile(List<String> lines, int memberSize, boolean blocked) throws IOException {
+		byte[] data = (String.join("\r\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < data.length; i += memberSize) {
+			int length = Math.min(memberSize, data.length - i);
+			out.write(blocked ? bgzf(data, i, length) : gzip(data, i, length));
+		}
+		File ans = File.createTempFile("orzo-test", ".gz");
+		Files.write(ans.toPath(), out.toByteArray());
+		return ans;
+	}
+
+	private List<String> readAll(File file, int numReaders) throws IOException {
+		List<String> ans = new ArrayList<>();
+		for (int i = 0; i < numReaders; i++) {
+			GzipMemberLineReader reader = new GzipMemberLineReader(file, file.length() * i / numReaders,
+					file.length() * (i + 1) / numReaders, StandardCharsets.UTF_8);
+			while (reader.hasNext()) {
+				ans.add(reader.next());
+			}
+		}
+		return ans;
+	}
+
+	private void testSplitting(int memberSize, boolean blocked) throws IOException {
+		List<String> lines = createLines(3000);
+		File file = createFile(lines, memberSize, blocked);
+		try {
+			for (int numReaders : new int[] { 1, 2, 3, 7, 16, 100 }) {
+				Assert.assertEquals(readAll(file, numReaders), lines,
+						String.format("member size: %d, readers: %d", memberSize, numReaders));
+			}
+
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testConcatenatedMembers() throws IOException {
+		testSplitting(1000, false);
+		testSplitting(777, false);
+	}
+
+	@Test
+	public void testBlockedMembers() throws IOException {
+		testSplitting(4096, true);
+	}
+
+	@Test
+	public void testHasMemberAfter() throws IOException {
+		File file = createFile(createLines(3000), 1000, false);
+		try {
+			Assert.assertTrue(GzipMemberLineReader.hasMemberAfter(file, 1));
+			Assert.assertFalse(GzipMemberLineReader.hasMemberAfter(file, file.length() - 10));
+
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSingleMember() throws IOException {
+		List<String> lines = createLines(1000);
+		File file = createFile(lines, Integer.MAX_VALUE, false);
+		try {
+			Assert.assertEquals(readAll(file, 4), lines);
+			Assert.assertFalse(new GzipMemberLineReader(file, file.length() / 2, file.length(),
+					StandardCharsets.UTF_8).hasNext());
+			Assert.assertFalse(GzipMemberLineReader.hasMemberAfter(file, 1));
+
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.data;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MappedLineReaderTest {
+
+	private static final String DATA = "first line\r\n\nžluťoučký kůň\na line longer than a mapped window\nx\nlast";
+
+	private File file;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		this.file = File.createTempFile("orzo-test", ".txt");
+		Files.write(this.file.toPath(), DATA.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@AfterClass
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	private List<String> readAll(Iterator<String> itr) {
+		List<String> ans = new ArrayList<>();
+		while (itr.hasNext()) {
+			ans.add(itr.next());
+		}
+		return ans;
+	}
+
+	@Test
+	public void testReadWholeFile() throws Exception {
+		List<String> expected = new ArrayList<>();
+		for (String item : DATA.split("\n")) {
+			expected.add(item.replace("\r", ""));
+		}
+		for (int windowSize : new int[] { 3, 7, 16, 1024 }) {
+			MappedLineReader reader = new MappedLineReader(this.file, 0, this.file.length(),
+					StandardCharsets.UTF_8, windowSize);
+			Assert.assertEquals(readAll(reader), expected);
+		}
+	}
+
+	@Test
+	public void testRangesMatchByteRangeReader() throws Exception {
+		long size = this.file.length();
+		for (long start = 0; start <= size; start++) {
+			for (long end = start; end <= size; end += 5) {
+				MappedLineReader mapped = new MappedLineReader(this.file, start, end,
+						StandardCharsets.UTF_8, 7);
+				ByteRangeLineReader plain = new ByteRangeLineReader(this.file, start, end,
+						StandardCharsets.UTF_8);
+				Assert.assertEquals(readAll(mapped), readAll(plain),
+						String.format("range [%d, %d)", start, end));
+				mapped.close();
+				plain.close();
+			}
+		}
+	}
+}
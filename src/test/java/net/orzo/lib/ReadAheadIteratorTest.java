@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ReadAheadIteratorTest {
+
+	private List<Integer> createItems(int num) {
+		return IntStream.range(0, num).boxed().collect(Collectors.toList());
+	}
+
+	@Test
+	public void testAllItemsInOrder() {
+		for (int num : new int[] { 0, 1, 7, 8, 1000 }) {
+			ReadAheadIterator<Integer> itr = new ReadAheadIterator<>(createItems(num).iterator(), 8, 2);
+			List<Integer> ans = new ArrayList<>();
+			while (itr.hasNext()) {
+				ans.add(itr.next());
+			}
+			Assert.assertEquals(ans, createItems(num));
+			Assert.assertFalse(itr.hasNext());
+		}
+	}
+
+	@Test(expectedExceptions = NoSuchElementException.class)
+	public void testNextOnExhausted() {
+		ReadAheadIterator<Integer> itr = new ReadAheadIterator<>(createItems(1).iterator(), 8, 2);
+		itr.next();
+		itr.next();
+	}
+
+	@Test
+	public void testSourceErrorIsRethrown() {
+		Iterator<Integer> source = new Iterator<Integer>() {
+
+			private int curr = 0;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				if (this.curr == 10) {
+					throw new IllegalStateException("read error");
+				}
+				return this.curr++;
+			}
+		};
+		ReadAheadIterator<Integer> itr = new ReadAheadIterator<>(source, 4, 2);
+		int numRead = 0;
+		try {
+			while (itr.hasNext()) {
+				itr.next();
+				numRead++;
+			}
+			Assert.fail("Error of the source must be rethrown");
+
+		} catch (IllegalStateException ex) {
+			Assert.assertEquals(ex.getMessage(), "read error");
+		}
+		Assert.assertEquals(numRead, 8); // the incomplete batch is lost
+	}
+
+	@Test
+	public void testCloseStopsReading() throws Exception {
+		AtomicInteger sourceClosed = new AtomicInteger();
+		FileIterator<Integer> source = new FileIterator<Integer>() {
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				return 1;
+			}
+
+			@Override
+			public void close() {
+				sourceClosed.incrementAndGet();
+			}
+
+			@Override
+			public String getPath() {
+				return "/foo";
+			}
+		};
+		ReadAheadIterator<Integer> itr = new ReadAheadIterator<>(source, 4, 2);
+		Assert.assertEquals(itr.getPath(), "/foo");
+		Assert.assertEquals((int) itr.next(), 1);
+		itr.close();
+		Assert.assertFalse(itr.hasNext());
+		for (int i = 0; i < 50 && sourceClosed.get() == 0; i++) {
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(sourceClosed.get(), 1);
+	}
+
+	private interface CloseableIterator extends Iterator<Integer>, Closeable {
+	}
+
+	@Test
+	public void testCloseableSourceClosed() throws Exception {
+		AtomicInteger sourceClosed = new AtomicInteger();
+		List<Integer> items = createItems(10);
+		CloseableIterator source = new CloseableIterator() {
+
+			private final Iterator<Integer> itr = items.iterator();
+
+			@Override
+			public boolean hasNext() {
+				return this.itr.hasNext();
+			}
+
+			@Override
+			public Integer next() {
+				return this.itr.next();
+			}
+
+			@Override
+			public void close() throws IOException {
+				sourceClosed.incrementAndGet();
+			}
+		};
+		ReadAheadIterator<Integer> itr = new ReadAheadIterator<>(source, 4, 2);
+		List<Integer> ans = new ArrayList<>();
+		while (itr.hasNext()) {
+			ans.add(itr.next());
+		}
+		Assert.assertEquals(ans, items);
+		for (int i = 0; i < 50 && sourceClosed.get() == 0; i++) {
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(sourceClosed.get(), 1);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.scripting;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+
+import net.orzo.SharedServices;
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class CompiledScriptCacheTest {
+
+	@Test
+	public void testSameContentsCompiledOnce() throws ScriptException {
+		CompiledScriptCache cache = new CompiledScriptCache();
+		CompiledScript s1 = cache.compile(new SourceCode("/tmp/a.js", "a.js", "var x = 1;"));
+		CompiledScript s2 = cache.compile(new SourceCode("/home/a.js", "a.js", "var x = 1;"));
+		cache.compile(new SourceCode("a.js", "a.js", "var x = 2;"));
+		assertSame(s1, s2);
+		assertEquals(cache.size(), 2);
+	}
+
+	@Test
+	public void testSameContentsDifferentNames() throws ScriptException {
+		CompiledScriptCache cache = new CompiledScriptCache();
+		CompiledScript s1 = cache.compile(new SourceCode("a.js", "a.js", "__FILE__"));
+		CompiledScript s2 = cache.compile(new SourceCode("b.js", "b.js", "__FILE__"));
+		assertNotSame(s1, s2);
+		assertEquals(s1.eval(), "a.js");
+		assertEquals(s2.eval(), "b.js");
+		assertEquals(cache.size(), 2);
+	}
+
+	@Test
+	public void testSharedScriptSeparateGlobals() throws ScriptException, NoSuchMethodException {
+		CompiledScriptCache cache = new CompiledScriptCache();
+		SourceCode code = new SourceCode("counter.js", "counter.js",
+				"var counter = 0; function incr() { counter += 1; return counter; }");
+		JsEngineAdapter js1 = new JsEngineAdapter(new EnvParams(), new SharedServices(null), null, cache);
+		JsEngineAdapter js2 = new JsEngineAdapter(new EnvParams(), new SharedServices(null), null, cache);
+		js1.beginWork();
+		js2.beginWork();
+		js1.runCode(code);
+		js2.runCode(code);
+		js1.runFunction("incr");
+		js1.runFunction("incr");
+		assertEquals(((Number) js1.get("counter")).intValue(), 2);
+		assertEquals(((Number) js2.runFunction("incr")).intValue(), 1);
+		assertEquals(cache.size(), 1);
+	}
+
+	@Test(expectedExceptions = NoSuchMethodException.class)
+	public void testMissingFunction() throws ScriptException, NoSuchMethodException {
+		JsEngineAdapter js = new JsEngineAdapter(new EnvParams(), new SharedServices(null));
+		js.beginWork();
+		js.runFunction("thisFunctionDoesNotExist");
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.scripting;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import javax.script.ScriptException;
+
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class JsEnginePoolTest {
+
+	@Test
+	public void testReuse() {
+		JsEnginePool pool = new JsEnginePool(2, 10);
+		CompiledScriptCache e1 = pool.borrow(null);
+		pool.release(e1);
+		assertEquals(pool.numIdle(), 1);
+		assertSame(pool.borrow(null), e1);
+		assertEquals(pool.numIdle(), 0);
+	}
+
+	@Test
+	public void testPreferEngineWithCompiledScript() throws ScriptException {
+		JsEnginePool pool = new JsEnginePool(2, 10);
+		SourceCode script = new SourceCode("a.js", "a.js", "var a = 1;");
+		CompiledScriptCache e1 = pool.borrow(null);
+		CompiledScriptCache e2 = pool.borrow(null);
+		e2.compile(script);
+		pool.release(e1);
+		pool.release(e2);
+		assertSame(pool.borrow(script), e2);
+	}
+
+	@Test
+	public void testMaxSize() {
+		JsEnginePool pool = new JsEnginePool(1, 10);
+		CompiledScriptCache e1 = pool.borrow(null);
+		CompiledScriptCache e2 = pool.borrow(null);
+		pool.release(e1);
+		pool.release(e2);
+		assertEquals(pool.numIdle(), 1);
+	}
+
+	@Test
+	public void testMaxUses() {
+		JsEnginePool pool = new JsEnginePool(2, 2);
+		CompiledScriptCache e1 = pool.borrow(null);
+		pool.release(e1);
+		assertSame(pool.borrow(null), e1);
+		pool.release(e1);
+		assertEquals(pool.numIdle(), 0);
+		assertNotSame(pool.borrow(null), e1);
+	}
+}
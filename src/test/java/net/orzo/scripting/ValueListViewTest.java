@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.scripting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import net.orzo.NumericValueList;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+@SuppressWarnings("restriction")
+public class ValueListViewTest {
+
+	private ScriptEngine engine;
+
+	private List<Object> values;
+
+	private ValueListView view;
+
+	@BeforeMethod
+	public void setUp() throws ScriptException {
+		this.engine = new ScriptEngineManager().getEngineByName("nashorn");
+		this.values = new ArrayList<>(Arrays.asList(3, "x", 1.5));
+		this.view = new ValueListView(this.values,
+				(ScriptObjectMirror) this.engine.eval("Array.prototype"));
+		this.engine.put("values", this.view);
+	}
+
+	@Test
+	public void testArrayLikeAccess() throws ScriptException {
+		Assert.assertEquals(((Number) this.engine.eval("values.length")).intValue(), 3);
+		Assert.assertEquals(this.engine.eval("values[1]"), "x");
+		Assert.assertEquals(this.engine.eval("Array.isArray(values)"), true);
+		Assert.assertEquals(this.engine.eval("Object.prototype.toString.call(values)"), "[object Array]");
+		Assert.assertEquals(this.engine.eval("JSON.stringify(values)"), "[3,\"x\",1.5]");
+	}
+
+	@Test
+	public void testGenericMethodsDoNotCopy() throws ScriptException {
+		Assert.assertEquals(this.engine.eval("values.map(function (v) { return v + '!'; }).join(',')"),
+				"3!,x!,1.5!");
+		Assert.assertEquals(((Number) this.engine.eval(
+				"values.filter(function (v) { return typeof v === 'number'; }).length")).intValue(), 2);
+		Assert.assertFalse(this.view.isMaterialized());
+	}
+
+	@Test
+	public void testOtherMethodsWork() throws ScriptException {
+		Assert.assertEquals(((Number) this.engine.eval("values.indexOf('x')")).intValue(), 1);
+		Assert.assertEquals(((Number) this.engine.eval("values.slice(1).length")).intValue(), 2);
+		Assert.assertTrue(this.view.isMaterialized());
+	}
+
+	@Test
+	public void testModificationDoesNotChangeOriginalList() throws ScriptException {
+		this.engine.eval("values.reverse(); values.push(7);");
+		Assert.assertEquals(this.engine.eval("values.join(',')"), "1.5,x,3,7");
+		Assert.assertEquals(this.values, Arrays.asList(3, "x", 1.5));
+	}
+
+	@Test
+	public void testNumericValues() throws ScriptException {
+		NumericValueList numbers = new NumericValueList();
+		numbers.addNumber(2);
+		numbers.addNumber(5);
+		this.engine.put("numbers", new ValueListView(numbers,
+				(ScriptObjectMirror) this.engine.eval("Array.prototype")));
+		Assert.assertEquals(((Number) this.engine.eval(
+				"numbers.reduce(function (acc, v) { return acc + v; }, 0)")).intValue(), 7);
+		Assert.assertEquals(this.engine.eval("typeof numbers[0]"), "number");
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.orzo.MemoryLimitExceededException;
+import net.orzo.PartitionedResults;
+import net.orzo.spill.SpillStorage;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MemoryGovernorTest {
+
+	private double usage;
+
+	private final AtomicLong numCollections = new AtomicLong();
+
+	private MemoryGovernor createGovernor() {
+		return new MemoryGovernor(() -> this.usage, this.numCollections::get, 0.8, 0.9);
+	}
+
+	@Test
+	public void testLevels() {
+		MemoryGovernor governor = createGovernor();
+		MemoryGovernor.Registration reg = governor.register("task1");
+		this.usage = 0.5;
+		governor.update();
+		Assert.assertEquals(governor.getLevel(), MemoryGovernor.Level.NORMAL);
+		Assert.assertFalse(reg.check(true));
+
+		this.usage = 0.85;
+		governor.update();
+		Assert.assertEquals(governor.getLevel(), MemoryGovernor.Level.HIGH);
+		Assert.assertTrue(reg.check(true));
+		Assert.assertFalse(reg.check(false)); // throttled only
+		Assert.assertFalse(reg.isStopped());
+	}
+
+	@Test
+	public void testMostRecentIsStopped() {
+		MemoryGovernor governor = createGovernor();
+		MemoryGovernor.Registration reg1 = governor.register("task1");
+		MemoryGovernor.Registration reg2 = governor.register("task2");
+		this.usage = 0.95;
+		governor.update();
+		Assert.assertEquals(governor.getLevel(), MemoryGovernor.Level.CRITICAL);
+		Assert.assertFalse(reg1.isStopped());
+		Assert.assertTrue(reg2.isStopped());
+		try {
+			reg2.check(true);
+			Assert.fail("Stopped calculation must not continue");
+
+		} catch (MemoryLimitExceededException e) {
+			Assert.assertTrue(e.getMessage().contains("task2"));
+		}
+	}
+
+	@Test
+	public void testNextStopWaitsForCollection() {
+		MemoryGovernor governor = createGovernor();
+		MemoryGovernor.Registration reg1 = governor.register("task1");
+		MemoryGovernor.Registration reg2 = governor.register("task2");
+		this.usage = 0.95;
+		governor.update();
+		reg2.close();
+		governor.update();
+		Assert.assertFalse(reg1.isStopped()); // memory of task2 not collected yet
+
+		this.numCollections.incrementAndGet();
+		governor.update();
+		Assert.assertTrue(reg1.isStopped());
+	}
+
+	@Test
+	public void testPressureSpillsResults() throws Exception {
+		MemoryGovernor governor = createGovernor();
+		MemoryGovernor.Registration reg = governor.register("task1");
+		this.usage = 0.85;
+		governor.update();
+		SpillStorage storage = new SpillStorage(null, 1000000);
+		try {
+			PartitionedResults results = new PartitionedResults(2, storage, false, null, reg);
+			for (int i = 0; i < 10000; i++) {
+				results.add("key" + (i % 100), i);
+			}
+			Assert.assertTrue(results.hasSpilled());
+			Assert.assertEquals(results.size(), 10000);
+
+		} finally {
+			storage.close();
+		}
+	}
+
+	@Test
+	public void testAdmission() throws Exception {
+		MemoryGovernor governor = createGovernor();
+		this.usage = 0.85;
+		governor.update();
+		Thread waiting = new Thread(() -> {
+			try {
+				governor.awaitAdmission();
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiting.start();
+		waiting.join(300);
+		Assert.assertTrue(waiting.isAlive());
+		this.usage = 0.5;
+		governor.update();
+		waiting.join(2000);
+		Assert.assertFalse(waiting.isAlive());
+	}
+
+	private static Map<String, Long> getCollectionThresholds() {
+		Map<String, Long> ans = new HashMap<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.isCollectionUsageThresholdSupported()) {
+				ans.put(pool.getName(), pool.getCollectionUsageThreshold());
+			}
+		}
+		return ans;
+	}
+
+	@Test
+	public void testShutdownRestoresThreshold() {
+		Map<String, Long> thresholds = getCollectionThresholds();
+		MemoryGovernor governor = new MemoryGovernor(0.8, 0.9);
+		governor.shutdown();
+		Assert.assertEquals(getCollectionThresholds(), thresholds);
+	}
+}
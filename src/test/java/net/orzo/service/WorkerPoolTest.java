@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class WorkerPoolTest {
+
+	@Test
+	public void testGroupsAreServedRoundRobin() throws Exception {
+		WorkerPool pool = new WorkerPool(1);
+		CountDownLatch blockerStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		pool.createGroup("blocker").execute(() -> {
+			blockerStarted.countDown();
+			try {
+				release.await();
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		blockerStarted.await();
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		WorkerPool.Group groupA = pool.createGroup("A");
+		WorkerPool.Group groupB = pool.createGroup("B");
+		List<Future<Boolean>> futures = new ArrayList<>();
+		for (String item : new String[] { "a1", "a2", "a3" }) {
+			futures.add(groupA.submit(() -> order.add(item)));
+		}
+		for (String item : new String[] { "b1", "b2" }) {
+			futures.add(groupB.submit(() -> order.add(item)));
+		}
+		Assert.assertEquals(groupA.getNumPending(), 3);
+		release.countDown();
+		for (Future<Boolean> f : futures) {
+			f.get();
+		}
+		Assert.assertEquals(order, Arrays.asList("a1", "b1", "a2", "b2", "a3"));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testNumThreadsIsGlobalCap() throws Exception {
+		WorkerPool pool = new WorkerPool(2);
+		AtomicInteger current = new AtomicInteger();
+		AtomicInteger max = new AtomicInteger();
+		List<Future<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			WorkerPool.Group group = pool.createGroup("group" + i);
+			for (int j = 0; j < 5; j++) {
+				futures.add(group.submit(() -> {
+					int running = current.incrementAndGet();
+					max.accumulateAndGet(running, Math::max);
+					Thread.sleep(5);
+					current.decrementAndGet();
+					return running;
+				}));
+			}
+		}
+		for (Future<Integer> f : futures) {
+			f.get();
+		}
+		Assert.assertTrue(max.get() <= 2);
+		Assert.assertEquals(pool.getNumThreads(), 2);
+		pool.shutdown();
+	}
+
+	@Test
+	public void testErrorIsPassedToFuture() throws Exception {
+		WorkerPool pool = new WorkerPool(1);
+		Future<Object> f = pool.createGroup("test").submit(() -> {
+			throw new IllegalStateException("test error");
+		});
+		try {
+			f.get();
+			Assert.fail("ExecutionException expected");
+
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		pool.shutdown();
+	}
+}
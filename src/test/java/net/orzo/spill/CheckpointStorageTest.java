@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.orzo.KeyDictionary;
+import net.orzo.PartitionedResults;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class CheckpointStorageTest {
+
+	private File parentDir;
+
+	private SpillStorage spillStorage;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		this.parentDir = Files.createTempDirectory("orzo-checkpoint-test-").toFile();
+		this.spillStorage = new SpillStorage(null, 3, new KeyDictionary());
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		this.spillStorage.close();
+		FileUtils.deleteDirectory(this.parentDir);
+	}
+
+	private static Map<String, List<Object>> readAll(List<PartitionedResults> results) throws IOException {
+		Map<String, List<Object>> ans = new TreeMap<>();
+		for (PartitionedResults item : results) {
+			for (int i = 0; i < item.getNumPartitions(); i++) {
+				for (String key : item.getPartition(i).keys()) {
+					ans.computeIfAbsent(key, k -> new ArrayList<>()).addAll(item.getPartition(i).values(key));
+				}
+				for (RunFile run : item.getRuns(i)) {
+					try (RunFile.Reader reader = run.open(ValueCodec.JAVA_VALUES)) {
+						while (reader.hasNext()) {
+							KeyValues kv = reader.next();
+							ans.computeIfAbsent(kv.getKey(), k -> new ArrayList<>()).addAll(kv.getValues());
+						}
+					}
+				}
+			}
+		}
+		for (List<Object> values : ans.values()) {
+			values.sort((o1, o2) -> o1.toString().compareTo(o2.toString()));
+		}
+		return ans;
+	}
+
+	private List<PartitionedResults> createResults() {
+		List<PartitionedResults> ans = new ArrayList<>();
+		for (int w = 0; w < 2; w++) {
+			PartitionedResults item = new PartitionedResults(4, this.spillStorage, false,
+					new KeyDictionary());
+			for (int i = 0; i < 20; i++) {
+				item.add("key" + (i % 7), "w" + w + "v" + i);
+			}
+			ans.add(item);
+		}
+		return ans;
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		List<PartitionedResults> results = createResults();
+		Map<String, List<Object>> expected = readAll(results);
+		CheckpointStorage storage = new CheckpointStorage(this.parentDir.getPath(), "task1", 0);
+		storage.save(0, results);
+
+		Assert.assertEquals(storage.getLastPhase(), 0);
+		List<PartitionedResults> restored = storage.load(0);
+		Assert.assertEquals(restored.size(), 2);
+		Assert.assertEquals(restored.get(0).getNumPartitions(), 4);
+		Assert.assertEquals(restored.get(0).size() + restored.get(1).size(), 40);
+		Assert.assertEquals(readAll(restored), expected);
+	}
+
+	@Test
+	public void testNewPhaseReplacesOlder() throws IOException {
+		CheckpointStorage storage = new CheckpointStorage(this.parentDir.getPath(), "task1", 0);
+		storage.save(0, createResults());
+		storage.save(1, createResults());
+		Assert.assertEquals(storage.getLastPhase(), 1);
+		Assert.assertFalse(new File(storage.getDirectory(), "phase-0").exists());
+	}
+
+	@Test
+	public void testIncompletePhaseIgnored() throws IOException {
+		CheckpointStorage storage = new CheckpointStorage(this.parentDir.getPath(), "task1", 0);
+		Assert.assertEquals(storage.getLastPhase(), -1);
+		storage.save(0, createResults());
+		Files.createDirectories(new File(storage.getDirectory(), "phase-1").toPath());
+		Assert.assertEquals(storage.getLastPhase(), 0);
+	}
+
+	@Test
+	public void testExpiredCheckpointRemoved() throws IOException {
+		CheckpointStorage storage = new CheckpointStorage(this.parentDir.getPath(), "task1", 0);
+		storage.save(0, createResults());
+		storage.getDirectory().setLastModified(System.currentTimeMillis() - 3600000L);
+		CheckpointStorage storage2 = new CheckpointStorage(this.parentDir.getPath(), "task1", 60000L);
+		Assert.assertEquals(storage2.getLastPhase(), -1);
+	}
+
+	@Test
+	public void testInputsFingerprint() throws IOException {
+		File input = new File(this.parentDir, "input.txt");
+		FileUtils.writeStringToFile(input, "foo bar", "UTF-8");
+		CheckpointStorage storage = new CheckpointStorage(this.parentDir.getAbsolutePath(), "calc1", 0);
+		Assert.assertFalse(storage.hasSameInputs());
+		storage.saveInputs(Arrays.asList(input.getAbsolutePath()));
+		Assert.assertTrue(storage.hasSameInputs());
+		FileUtils.writeStringToFile(input, "foo bar baz", "UTF-8");
+		Assert.assertFalse(storage.hasSameInputs());
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.orzo.IntermediateResults;
+import net.orzo.KeyDictionary;
+import net.orzo.PartitionedResults;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class KeyValuesMergerTest {
+
+	private SpillStorage storage;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		this.storage = new SpillStorage(null, 10);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		this.storage.close();
+	}
+
+	@Test
+	public void testMergeRunsAndMemory() throws IOException {
+		IntermediateResults run1 = new IntermediateResults();
+		run1.add("b", 1);
+		run1.add("a", 2);
+		IntermediateResults run2 = new IntermediateResults();
+		run2.add("c", 3);
+		run2.add("b", 4);
+		IntermediateResults memory = new IntermediateResults();
+		memory.add("a", 5);
+		memory.add("d", 6);
+
+		List<String> keys = new ArrayList<>();
+		List<Object> valuesB = null;
+		try (KeyValuesMerger merger = new KeyValuesMerger()) {
+			merger.add(this.storage.spill(run1).open(ValueCodec.JAVA_VALUES));
+			merger.add(this.storage.spill(run2).open(ValueCodec.JAVA_VALUES));
+			merger.add(KeyValuesMerger.sortedView(memory));
+			while (merger.hasNext()) {
+				KeyValues item = merger.next();
+				keys.add(item.getKey());
+				if (item.getKey().equals("b")) {
+					valuesB = item.getValues();
+				}
+			}
+		}
+		Assert.assertEquals(keys.toString(), "[a, b, c, d]");
+		Assert.assertEquals(valuesB.size(), 2);
+		Assert.assertTrue(valuesB.contains(1) && valuesB.contains(4));
+		Assert.assertEquals(memory.size(), 0);
+	}
+
+	@Test
+	public void testPartitionedResultsSpill() throws IOException {
+		testSpill(this.storage, false, null);
+	}
+
+	@Test
+	public void testOffHeapPartitionedResultsSpill() throws IOException {
+		testSpill(this.storage, true, null);
+	}
+
+	@Test
+	public void testDictionaryEncodedSpill() throws IOException {
+		KeyDictionary dict = new KeyDictionary();
+		SpillStorage storage = new SpillStorage(null, 10, dict);
+		try {
+			testSpill(storage, false, dict);
+
+		} finally {
+			storage.close();
+		}
+	}
+
+	private void testSpill(SpillStorage storage, boolean offHeap, KeyDictionary dict) throws IOException {
+		PartitionedResults pr = new PartitionedResults(2, storage, offHeap, dict);
+		for (int i = 0; i < 25; i++) {
+			pr.add("key" + (i % 5), i);
+		}
+		Assert.assertTrue(pr.hasSpilled());
+		Assert.assertTrue(pr.memorySize() < 10);
+		Assert.assertEquals(pr.size(), 25);
+
+		int total = 0;
+		for (int p = 0; p < pr.getNumPartitions(); p++) {
+			try (KeyValuesMerger merger = new KeyValuesMerger()) {
+				merger.add(KeyValuesMerger.sortedView(pr.getPartition(p)));
+				for (RunFile run : pr.getRuns(p)) {
+					merger.add(run.open(ValueCodec.JAVA_VALUES));
+				}
+				while (merger.hasNext()) {
+					KeyValues item = merger.next();
+					Assert.assertEquals(item.getValues().size(), 5);
+					if (dict != null) {
+						Assert.assertSame(item.getKey(), dict.intern(item.getKey()));
+					}
+					total += item.getValues().size();
+				}
+			}
+		}
+		Assert.assertEquals(total, 25);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class MapOutputCacheTest {
+
+	private File dataDir;
+
+	private File cacheDir;
+
+	private File input;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		this.dataDir = Files.createTempDirectory("orzo-cache-test-").toFile();
+		this.cacheDir = new File(this.dataDir, "cache");
+		this.input = new File(this.dataDir, "input.txt");
+		FileUtils.writeStringToFile(this.input, "foo bar", StandardCharsets.UTF_8);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.dataDir);
+	}
+
+	private void recordSample(MapOutputCache cache) throws IOException {
+		try (MapOutputCache.Recorder recorder = cache.record(this.input.getPath())) {
+			recorder.emit("foo", "x");
+			recorder.emitNumber("bar", 2.5);
+			recorder.emit("foo", 7);
+			recorder.commit();
+		}
+	}
+
+	@Test
+	public void testRecordAndReplay() throws IOException {
+		MapOutputCache cache = new MapOutputCache(this.cacheDir.getPath(), "s1", ValueCodec.JAVA_VALUES);
+		Assert.assertFalse(cache.contains(this.input.getPath()));
+		recordSample(cache);
+		Assert.assertTrue(cache.contains(this.input.getPath()));
+
+		List<String> items = new ArrayList<>();
+		int num = cache.replay(this.input.getPath(),
+				(key, value, isNumber) -> items.add(key + "=" + value + (isNumber ? "n" : "")));
+		Assert.assertEquals(num, 3);
+		Assert.assertEquals(items.toString(), "[foo=x, bar=2.5n, foo=7]");
+	}
+
+	@Test
+	public void testChangedFileInvalidatesEntry() throws IOException {
+		MapOutputCache cache = new MapOutputCache(this.cacheDir.getPath(), "s1", ValueCodec.JAVA_VALUES);
+		recordSample(cache);
+		FileUtils.writeStringToFile(this.input, "foo bar baz", StandardCharsets.UTF_8);
+		Assert.assertFalse(cache.contains(this.input.getPath()));
+	}
+
+	@Test
+	public void testChangedScriptInvalidatesEntry() throws IOException {
+		recordSample(new MapOutputCache(this.cacheDir.getPath(), "s1", ValueCodec.JAVA_VALUES));
+		MapOutputCache cache = new MapOutputCache(this.cacheDir.getPath(), "s2", ValueCodec.JAVA_VALUES);
+		Assert.assertFalse(cache.contains(this.input.getPath()));
+	}
+
+	@Test
+	public void testUncommittedRecordingDiscarded() throws IOException {
+		MapOutputCache cache = new MapOutputCache(this.cacheDir.getPath(), "s1", ValueCodec.JAVA_VALUES);
+		try (MapOutputCache.Recorder recorder = cache.record(this.input.getPath())) {
+			recorder.emit("foo", "x");
+		}
+		Assert.assertFalse(cache.contains(this.input.getPath()));
+		Assert.assertEquals(this.cacheDir.list().length, 0);
+	}
+
+	@Test
+	public void testNonFileNotRecorded() throws IOException {
+		MapOutputCache cache = new MapOutputCache(this.cacheDir.getPath(), "s1", ValueCodec.JAVA_VALUES);
+		Assert.assertNull(cache.record(this.dataDir.getPath()));
+		Assert.assertNull(cache.record("foo bar"));
+		Assert.assertFalse(cache.contains(this.dataDir.getPath()));
+		Assert.assertFalse(cache.contains("foo bar"));
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Tomas Machalek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.orzo.spill;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * 
+ * @author Tomas Machalek <tomas.machalek@gmail.com>
+ */
+public class ValueCodecTest {
+
+	private static Object roundTrip(Object value) throws IOException {
+		ByteArrayOutputStream buff = new ByteArrayOutputStream();
+		ValueCodec.write(new DataOutputStream(buff), value);
+		return ValueCodec.read(new DataInputStream(new ByteArrayInputStream(buff.toByteArray())),
+				ValueCodec.JAVA_VALUES);
+	}
+
+	@Test
+	public void testPrimitives() throws IOException {
+		Assert.assertNull(roundTrip(null));
+		Assert.assertEquals(roundTrip(3.14), 3.14);
+		Assert.assertEquals(roundTrip(42), 42);
+		Assert.assertEquals(roundTrip(42L), 42L);
+		Assert.assertEquals(roundTrip(true), true);
+		Assert.assertEquals(roundTrip(false), false);
+		Assert.assertEquals(roundTrip("příliš žluťoučký kůň"), "příliš žluťoučký kůň");
+		Assert.assertEquals(roundTrip(new Date(1234567L)), new Date(1234567L));
+	}
+
+	@Test
+	public void testNestedContainers() throws IOException {
+		Map<String, Object> value = new HashMap<>();
+		value.put("name", "foo");
+		value.put("items", Arrays.asList(1, "two", 3.0));
+		List<Object> ans = new ArrayList<>();
+		ans.add(value);
+
+		Object decoded = roundTrip(ans);
+		Assert.assertTrue(decoded instanceof List);
+		Map<?, ?> item = (Map<?, ?>) ((List<?>) decoded).get(0);
+		Assert.assertEquals(item.get("name"), "foo");
+		Assert.assertEquals(item.get("items"), Arrays.asList(1, "two", 3.0));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testUnsupportedValue() throws IOException {
+		roundTrip(new Object());
+	}
+}